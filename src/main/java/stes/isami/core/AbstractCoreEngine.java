@@ -2,62 +2,71 @@ package stes.isami.core;
 
 import stes.isami.core.job.JobEvent;
 
-import java.util.Enumeration;
-import java.util.Vector;
-
 /**
  * Abstract class for {@link CoreEngine}
  */
 public abstract class AbstractCoreEngine implements Core {
 
-    private transient Vector listeners;
-    private transient Vector jobListeners;
+    /**
+     * Delivers the job events to the listeners on its own threads. The recent events are kept only if the
+     * {@code core.eventHistory} system property gives the size of the history in bytes.
+     */
+    private final JobEventDispatcher eventDispatcher = new JobEventDispatcher(
+            Math.max(1, Integer.getInteger("core.eventLanes", 2)), 8192,
+            Math.max(0, Integer.getInteger("core.eventHistory", 0)));
+
+    private final JobEventPublisher eventPublisher = new JobEventPublisher(eventDispatcher);
 
     public AbstractCoreEngine() {}
 
 
     @Override
-    synchronized public void addJobListener(JobListener l) {
-        if (jobListeners == null) {
-            jobListeners = new Vector();
-        }
-        jobListeners.addElement(l);
+    public void addJobListener(JobListener l) {
+        eventDispatcher.addListener(l);
+    }
+
+    @Override
+    public void addJobListener(JobListener l, long updateWindow) {
+        eventDispatcher.addListener(new CoalescingJobListener(l, updateWindow));
+    }
+
+    @Override
+    public void addJobListener(JobListener l, JobEventFilter filter) {
+        eventDispatcher.addListener(l, filter);
+    }
+
+    @Override
+    public boolean addJobListener(JobListener l, JobEventFilter filter, long fromSequence) {
+        return eventDispatcher.addListener(l, filter, fromSequence);
     }
 
     /**
      * Remove a listener for JobEvents
      */
     @Override
-    synchronized public void removeJobListener(JobListener l) {
-        if (jobListeners == null) {
-            return;
-        }
-        jobListeners.removeElement(l);
+    public void removeJobListener(JobListener l) {
+        eventDispatcher.removeListener(l);
     }
 
     //</editor-fold>
 
     /**
-     * Fire JobEvent to all registered listeners
+     * Get the dispatcher of the job events, which gives the queue depth and the lag of the events
+     * @return dispatcher
+     */
+    public JobEventDispatcher getEventDispatcher() {
+        return eventDispatcher;
+    }
+
+    @Override
+    public JobEventPublisher getJobEventPublisher() {
+        return eventPublisher;
+    }
+
+    /**
+     * Fire JobEvent to all registered listeners. The event is delivered later, on the threads of the dispatcher.
      */
     protected void fireJobEvent(JobEvent event) {
-        // if we have no listeners, do nothing...
-        if (jobListeners != null && !jobListeners.isEmpty()) {
-
-            // make a copy of the listener list in case
-            //   anyone adds/removes listeners
-            Vector targets;
-            synchronized (this) {
-                targets = (Vector) jobListeners.clone();
-            }
-
-            // walk through the listener list and
-            //   call the sunMoved methods in each
-            Enumeration e = targets.elements();
-            while (e.hasMoreElements()) {
-                JobListener l = (JobListener) e.nextElement();
-                l.onJobEvent(event);
-            }
-        }
+        eventDispatcher.dispatch(event);
     }
 }
@@ -0,0 +1,295 @@
+package stes.isami.core;
+
+import stes.isami.core.job.Job;
+import stes.isami.core.job.JobState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Admission control between the {@link Core} and the state machines of the jobs.
+ * <p>The jobs to be executed wait in a queue and they are started only while the first stages of the pipeline have
+ * room: at most {@code maxPreprocessing} jobs in PREPROCESSING or RESTARTING (local pool) and at most
+ * {@code maxSubmitting} jobs in SUBMITTING (ssh pool). When an admitted job leaves these stages, the next jobs are
+ * started, so the submissions flow steadily instead of coming in bursts.</p>
+ * <p>The pending jobs are grouped by owner. The owners are served in turn, and the jobs of an owner are served by
+ * priority, then in the order they were queued. By default the owner of a job is the class of the job, so the jobs of
+ * different creators share the pipeline.</p>
+ */
+public class AdmissionScheduler {
+
+    private final Logger logger = LoggerFactory.getLogger(AdmissionScheduler.class);
+
+    private static final int STAGE_PREPROCESSING = 0;
+    private static final int STAGE_SUBMITTING = 1;
+    private static final int STAGE_NONE = -1;
+
+    /**
+     * Starts an admitted job
+     */
+    private final Consumer<Job> starter;
+
+    private Function<Job, String> ownerFunction = job -> job.getClass().getName();
+
+    private int maxPreprocessing = 10;
+    private int maxSubmitting = 2;
+
+    /**
+     * Pending jobs by owner. The owners with pending jobs are served in turn from {@code owners}.
+     */
+    private final Map<String, PriorityQueue<Pending>> pendingByOwner = new HashMap<>();
+    private final Deque<String> owners = new ArrayDeque<>();
+
+    /**
+     * Sequence of the entry of the pending jobs, by job ID. The entry of a cancelled job stays in the queue of its
+     * owner and is skipped, as is the entry of a job queued again, which does not match the sequence.
+     */
+    private final Map<UUID, Long> pendingIDs = new HashMap<>();
+    private long sequence = 0;
+
+    /**
+     * Stage of the admitted jobs
+     */
+    private final Map<UUID, Integer> admitted = new HashMap<>();
+    private final int[] stageCount = new int[2];
+
+    /**
+     * Set while the thread is starting jobs. A job failing at once releases its slot while it is started, the
+     * slot is filled by the loop of {@link #drain()} instead of a nested call.
+     */
+    private final ThreadLocal<Boolean> draining = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * @param starter executes or restarts the admitted job
+     */
+    public AdmissionScheduler(Consumer<Job> starter) {
+        this.starter = starter;
+    }
+
+    /**
+     * Queue a job. It is started by {@link #drain()} when there is room in the pipeline.
+     * @param job
+     * @param priority the jobs with the highest priority are started first
+     * @return false if the job is already queued or admitted
+     */
+    public synchronized boolean enqueue(Job job, int priority) {
+        if (pendingIDs.containsKey(job.getID()) || admitted.containsKey(job.getID())) {
+            return false;
+        }
+
+        String owner = ownerFunction.apply(job);
+        PriorityQueue<Pending> queue = pendingByOwner.get(owner);
+        if (queue == null) {
+            queue = new PriorityQueue<>();
+            pendingByOwner.put(owner, queue);
+            owners.addLast(owner);
+        }
+        queue.add(new Pending(job, priority, sequence));
+        pendingIDs.put(job.getID(), sequence++);
+        return true;
+    }
+
+    /**
+     * Remove a pending job from the queue
+     * @param id
+     * @return true if the job was pending
+     */
+    public synchronized boolean cancel(UUID id) {
+        return pendingIDs.remove(id) != null;
+    }
+
+    /**
+     * Remove all the pending jobs
+     */
+    public synchronized void clear() {
+        pendingByOwner.clear();
+        owners.clear();
+        pendingIDs.clear();
+    }
+
+    /**
+     * Start the pending jobs while the pipeline has room
+     */
+    public void drain() {
+        if (draining.get()) {
+            return;
+        }
+
+        draining.set(true);
+        try {
+            List<Job> jobs;
+            while (!(jobs = admit()).isEmpty()) {
+                for (Job job: jobs) {
+                    try {
+                        starter.accept(job);
+                    } catch (RuntimeException e) {
+                        logger.error("Cannot start job {}: {}", job.getID(), e.toString());
+                    }
+                    jobStateChanged(job);
+                }
+                logger.debug("{} jobs admitted, {} pending", jobs.size(), getPendingCount());
+            }
+        } finally {
+            draining.remove();
+        }
+    }
+
+    /**
+     * Update the stage of an admitted job. If the job has left the first stages, the next pending jobs are started.
+     * @param job
+     */
+    public void jobStateChanged(Job job) {
+        boolean released;
+        synchronized (this) {
+            Integer stage = admitted.get(job.getID());
+            if (stage == null) {
+                return;
+            }
+
+            int newStage = stageOf(job.getState());
+            if (newStage == stage) {
+                return;
+            }
+
+            stageCount[stage]--;
+            if (newStage == STAGE_NONE) {
+                admitted.remove(job.getID());
+            }
+            else {
+                stageCount[newStage]++;
+                admitted.put(job.getID(), newStage);
+            }
+            released = pendingIDs.size() > 0;
+        }
+
+        if (released) {
+            drain();
+        }
+    }
+
+    /**
+     * Number of jobs waiting to be started
+     */
+    public synchronized int getPendingCount() {
+        return pendingIDs.size();
+    }
+
+    /**
+     * Number of admitted jobs which are in PREPROCESSING or RESTARTING
+     */
+    public synchronized int getPreprocessingCount() {
+        return stageCount[STAGE_PREPROCESSING];
+    }
+
+    /**
+     * Number of admitted jobs which are in SUBMITTING
+     */
+    public synchronized int getSubmittingCount() {
+        return stageCount[STAGE_SUBMITTING];
+    }
+
+    public synchronized int getMaxPreprocessing() {
+        return maxPreprocessing;
+    }
+
+    public synchronized void setMaxPreprocessing(int maxPreprocessing) {
+        if (maxPreprocessing < 1) {
+            throw new IllegalArgumentException("At least one job must be admitted");
+        }
+        this.maxPreprocessing = maxPreprocessing;
+    }
+
+    public synchronized int getMaxSubmitting() {
+        return maxSubmitting;
+    }
+
+    public synchronized void setMaxSubmitting(int maxSubmitting) {
+        if (maxSubmitting < 1) {
+            throw new IllegalArgumentException("At least one job must be admitted");
+        }
+        this.maxSubmitting = maxSubmitting;
+    }
+
+    /**
+     * Set the function which gives the owner of a job. The owners get a fair share of the pipeline.
+     * @param ownerFunction
+     */
+    public synchronized void setOwnerFunction(Function<Job, String> ownerFunction) {
+        this.ownerFunction = ownerFunction;
+    }
+
+    /*****************************************************************************************************
+     *
+     *
+     *                                      PRIVATE
+     *
+     */
+
+    /**
+     * Take the jobs which can be started and count them in the preprocessing stage until their state changes
+     * @return jobs to start
+     */
+    private synchronized List<Job> admit() {
+        List<Job> jobs = new ArrayList<>();
+        while (stageCount[STAGE_PREPROCESSING] < maxPreprocessing
+                && stageCount[STAGE_SUBMITTING] < maxSubmitting
+                && !owners.isEmpty()) {
+
+            String owner = owners.pollFirst();
+            PriorityQueue<Pending> queue = pendingByOwner.get(owner);
+            Pending pending;
+            do {
+                pending = queue.poll();
+            } while (pending != null && !pendingIDs.remove(pending.job.getID(), pending.sequence));
+
+            if (queue.isEmpty()) {
+                pendingByOwner.remove(owner);
+            }
+            else {
+                owners.addLast(owner);
+            }
+
+            if (pending != null) {
+                admitted.put(pending.job.getID(), STAGE_PREPROCESSING);
+                stageCount[STAGE_PREPROCESSING]++;
+                jobs.add(pending.job);
+            }
+        }
+        return jobs;
+    }
+
+    private static int stageOf(int state) {
+        switch (state) {
+            case JobState.PREPROCESSING:
+            case JobState.RESTARTING:
+                return STAGE_PREPROCESSING;
+            case JobState.SUBMITTING:
+                return STAGE_SUBMITTING;
+            default:
+                return STAGE_NONE;
+        }
+    }
+
+    private static class Pending implements Comparable<Pending> {
+        final Job job;
+        final int priority;
+        final long sequence;
+
+        Pending(Job job, int priority, long sequence) {
+            this.job = job;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Pending o) {
+            if (priority != o.priority) {
+                return Integer.compare(o.priority, priority);
+            }
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package stes.isami.core;
+
+import stes.isami.core.job.JobEvent;
+import stes.isami.core.job.ParameterUpdatedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listener which merges the UPDATE events of a job before passing them to another listener.
+ * <p>The UPDATE events of a job are held until the end of the window, then passed as one event. The values of the
+ * {@link ParameterUpdatedEvent}s are merged, the last value of a parameter wins. The other events are passed at once,
+ * after the UPDATE held for the same jobs, so the order of the events of a job is kept. The listener gets at most one
+ * UPDATE per job and per window.</p>
+ * <p>The listener is called by one thread at a time, a dispatcher thread or the timer thread.</p>
+ */
+public class CoalescingJobListener implements JobListener {
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "job-event-coalescer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Logger logger = LoggerFactory.getLogger(CoalescingJobListener.class);
+
+    private final JobListener listener;
+    private final long window;
+
+    /**
+     * UPDATE events held, by job ID
+     */
+    private final LinkedHashMap<UUID, JobEvent> pendingUpdates = new LinkedHashMap<>();
+    private final ScheduledFuture<?> flushTask;
+
+    private final List<JobEvent> batch = new ArrayList<>();
+
+    /**
+     * @param listener listener which gets the merged events
+     * @param window time during which the UPDATE events of a job are merged, in ms
+     */
+    public CoalescingJobListener(JobListener listener, long window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("The window must be positive");
+        }
+
+        this.listener = listener;
+        this.window = window;
+        flushTask = timer.scheduleAtFixedRate(this::flush, window, window, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onJobEvent(JobEvent event) {
+        onJobEvents(Collections.singletonList(event));
+    }
+
+    @Override
+    public synchronized void onJobEvents(List<JobEvent> events) {
+        for (JobEvent event: events) {
+            if (event.getEventType() == JobEvent.JobEventType.UPDATE && event.getId() != null) {
+                pendingUpdates.merge(event.getId(), event, CoalescingJobListener::merge);
+                continue;
+            }
+
+            if (event.getId() != null) {
+                release(event.getId());
+            }
+            else if (event.getIds() != null) {
+                for (UUID id: event.getIds()) {
+                    release(id);
+                }
+            }
+            batch.add(event);
+        }
+        deliver();
+    }
+
+    /**
+     * Pass the UPDATE events held
+     */
+    public synchronized void flush() {
+        if (pendingUpdates.isEmpty()) {
+            return;
+        }
+
+        batch.addAll(pendingUpdates.values());
+        pendingUpdates.clear();
+        deliver();
+    }
+
+    /**
+     * Pass the UPDATE events held and stop the timer
+     */
+    public void close() {
+        flushTask.cancel(false);
+        flush();
+    }
+
+    /**
+     * Get the listener which gets the merged events
+     */
+    public JobListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Time during which the UPDATE events of a job are merged, in ms
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /*****************************************************************************************************
+     *
+     *
+     *                                      PRIVATE
+     *
+     */
+
+    private void release(UUID id) {
+        JobEvent update = pendingUpdates.remove(id);
+        if (update != null) {
+            batch.add(update);
+        }
+    }
+
+    private void deliver() {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            // the listener may keep the list
+            listener.onJobEvents(new ArrayList<>(batch));
+        } catch (RuntimeException e) {
+            logger.error("Job listener {}: {}", listener, e.toString());
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Merge two UPDATE events of a job
+     * @return event with the values of both events, the values of the new event win. A plain UPDATE, which refreshes
+     * the whole job, wins over the values of the other event.
+     */
+    static JobEvent merge(JobEvent oldEvent, JobEvent newEvent) {
+        if (!(newEvent instanceof ParameterUpdatedEvent)) {
+            return newEvent;
+        }
+        if (!(oldEvent instanceof ParameterUpdatedEvent)) {
+            JobEvent refreshEvent = new JobEvent(newEvent.getId(), JobEvent.JobEventType.UPDATE);
+            refreshEvent.setSequence(newEvent.getSequence());
+            return refreshEvent;
+        }
+
+        Map<String, Object> values = new LinkedHashMap<>(((ParameterUpdatedEvent) oldEvent).getValues());
+        values.putAll(((ParameterUpdatedEvent) newEvent).getValues());
+        JobEvent mergedEvent = new ParameterUpdatedEvent(newEvent.getId(), values);
+        mergedEvent.setSequence(newEvent.getSequence());
+        return mergedEvent;
+    }
+}
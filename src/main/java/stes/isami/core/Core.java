@@ -1,13 +1,16 @@
 package stes.isami.core;
 
 import stes.isami.core.job.Job;
+import stes.isami.core.job.JobEvent;
 import stes.isami.core.job.JobException;
+import stes.isami.core.journal.RecoveredJob;
 import stes.isami.core.ssh.SshFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Function;
 
 /**
  * Core interface
@@ -28,6 +31,13 @@ public interface Core {
      */
     public boolean addJob(Job job) throws JobException;
 
+    /**
+     * Add the jobs in one pass. A single CREATE event is fired with the IDs of the added jobs.
+     * @param jobs
+     * @return IDs of the added jobs. The jobs already registered are skipped.
+     */
+    public List<UUID> addJobs(List<Job> jobs);
+
     /**
      * Delete a list of jobs
      * @param uuidList
@@ -40,6 +50,19 @@ public interface Core {
      */
     public void stopJob(UUID id);
 
+    /**
+     * Stop the jobs. The jobs are removed from the batch system with grouped qdel calls and a single
+     * STATE_CHANGED event is fired with the IDs of the jobs whose state changed.
+     * @param ids
+     */
+    public void stopJobs(List<UUID> ids);
+
+    /**
+     * Restart the jobs. A single STATE_CHANGED event is fired with the IDs of the jobs whose state changed.
+     * @param ids
+     */
+    public void restartJobs(List<UUID> ids);
+
     /**
      * Get the job
      * @param id
@@ -48,11 +71,48 @@ public interface Core {
     public Job getJob(UUID id);
 
     /**
-     * Run job
+     * Get the jobs in one of the states
+     * @param states {@link stes.isami.core.job.JobState} codes
+     * @return list of jobs
+     */
+    public List<Job> getJobsByState(int... states);
+
+    /**
+     * Get the job submitted to the batch system with the batchID
+     * @param batchID
+     * @return job or null if not found
+     */
+    public Job getJobByBatchID(String batchID);
+
+    /**
+     * Get the jobs whose name starts with {@code prefix}
+     * @param prefix
+     * @return list of jobs sorted by name
+     */
+    public List<Job> getJobsByNamePrefix(String prefix);
+
+    /**
+     * Run job. The job waits in the admission queue until there is room in the pipeline.
      * @param id
      */
     public void executeJob(UUID id) throws IllegalStateException;
 
+    /**
+     * Run the jobs. The jobs wait in the admission queue until there is room in the pipeline. A single STATE_CHANGED
+     * event is fired with the IDs of the jobs started at once.
+     * @param ids
+     * @throws IllegalStateException if ssh is disconnected
+     */
+    public void executeJobs(List<UUID> ids) throws IllegalStateException;
+
+    /**
+     * Run the jobs. The jobs with the highest priority enter the pipeline first.
+     * @param ids
+     * @param priority
+     * @throws IllegalStateException if ssh is disconnected
+     */
+    public void executeJobs(List<UUID> ids, int priority) throws IllegalStateException;
+
     /**
      * Execute all the jobs
      */
@@ -81,6 +141,40 @@ public interface Core {
      */
     public void addJobListener(JobListener listener);
 
+    /**
+     * Add job listener which gets at most one UPDATE event per job and per window
+     * @param listener
+     * @param updateWindow time during which the UPDATE events of a job are merged, in ms
+     * @see CoalescingJobListener
+     */
+    public void addJobListener(JobListener listener, long updateWindow);
+
+    /**
+     * Add job listener which gets only the events selected by the filter
+     * @param listener
+     * @param filter
+     */
+    public void addJobListener(JobListener listener, JobEventFilter filter);
+
+    /**
+     * Add job listener which gets the events from the sequence number {@code fromSequence}, see
+     * {@link JobEvent#getSequence()}. The events missed by the listener are replayed from the history of the events,
+     * which is kept only if the {@code core.eventHistory} system property gives its size in bytes.
+     * @param listener
+     * @param filter filter or null to get all the events
+     * @param fromSequence sequence number of the first event to get
+     * @return false if the missed events are not in the history anymore. The listener gets the new events only and
+     * it must read the jobs again with {@link #getJobIDList()}.
+     */
+    public boolean addJobListener(JobListener listener, JobEventFilter filter, long fromSequence);
+
+    /**
+     * Get the stream of the job events. Unlike a listener, a subscriber gets the events as it requests them, from its
+     * own buffer.
+     * @return publisher of the job events
+     */
+    public JobEventPublisher getJobEventPublisher();
+
     /**
      * Remove job listener
      * @param listener
@@ -88,7 +182,38 @@ public interface Core {
     public void removeJobListener(JobListener listener);
 
     /**
-     * Close the executors
+     * Open the journal of the jobs in {@code directory}. From now on, the creation, the parameter updates, the state
+     * transitions and the deletion of the jobs are journaled.
+     * @param directory
+     * @return number of jobs which can be recovered with {@link #recoverJobs(Function)}
+     * @throws IOException if the journal cannot be opened
+     */
+    public int openJournal(String directory) throws IOException;
+
+    /**
+     * Recover the jobs found in the journal when it was opened.
+     * <br>The factory builds a job of the recovered class, for example with its creator, and the job is restored with
+     * the journaled ID, parameter values and state. The jobs recovered in the batch system are not submitted again:
+     * they are matched against the next qstat. Call it once the ssh connection is authenticated.
+     * @param factory builds the job or returns null to drop it
+     * @return IDs of the recovered jobs
+     * @throws IllegalStateException if no journal is open
+     */
+    public List<UUID> recoverJobs(Function<RecoveredJob, Job> factory) throws IllegalStateException;
+
+    /**
+     * Open the archive of the jobs in {@code directory}. From now on, the jobs which have stopped running for a while
+     * are moved to the archive and only a stub is kept in memory. An archived job is loaded again by
+     * {@link #getJob(UUID)}, which is also used to restart it.
+     * @param directory
+     * @param factory builds the job of an archived job, as for {@link #recoverJobs(Function)}
+     * @throws IOException if the archive cannot be opened
+     * @throws IllegalStateException if the archive is already open
+     */
+    public void openArchive(String directory, Function<RecoveredJob, Job> factory) throws IOException;
+
+    /**
+     * Close the executors, the archive and the journal
      */
     public void shutdown();
 
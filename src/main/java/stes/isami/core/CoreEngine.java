@@ -1,10 +1,16 @@
 package stes.isami.core;
 
+import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import stes.isami.core.creator.CreatorFactory;
 import stes.isami.core.job.*;
+import stes.isami.core.journal.ArchivedJob;
+import stes.isami.core.journal.JobArchive;
+import stes.isami.core.journal.JobJournal;
+import stes.isami.core.journal.RecoveredJob;
 import stes.isami.core.plugin.PluginLoader;
+import stes.isami.core.ssh.SshConnectionPool;
 import stes.isami.core.ssh.SshFactory;
 import stes.isami.core.ssh.SshListener;
 import stes.isami.core.ssh.SshRemoteFactory;
@@ -15,8 +21,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * This class implements the Core interface. It represents the stes.isami.main class of the app.
@@ -27,6 +36,11 @@ public final class CoreEngine extends AbstractCoreEngine implements Core,SshList
 
     private final QStatManager qstatManager;
 
+    /**
+     * Limits the number of jobs entering the pipeline at the same time
+     */
+    private final AdmissionScheduler admissionScheduler = new AdmissionScheduler(this::executeJob);
+
     private CreatorFactory creatorFactory = new CreatorFactory();
 
     private SshRemoteFactory sshRemoteFactory;
@@ -35,14 +49,38 @@ public final class CoreEngine extends AbstractCoreEngine implements Core,SshList
 
     private final ModuleExecutor executor;
 
-    private EventBus coreEventBus = new EventBus();
+    /**
+     * Holds the jobs, split by job ID. When a running job is deleted, it is marked for deletion and it is triggered
+     * the STOP trigger. After the job has stopped, the job is safely deleted.
+     * <br>The number of shards is given by the {@code core.shards} system property, the number of processors by default.
+     */
+    private final CoreShard[] shards;
+
+    /**
+     * States in which a job is running, see {@link #isJobRunning(Job)}
+     */
+    private static final int[] RUNNING_STATES = {JobState.PREPROCESSING, JobState.SUBMITTING, JobState.SUBMITTED,
+            JobState.RESTARTING, JobState.WAITING, JobState.RUN, JobState.DELETION, JobState.RESTARTED,
+            JobState.SUSPENDED, JobState.TRANSFERRING, JobState.THRESHOLD, JobState.HOLD, JobState.UNKNOWN,
+            JobState.DELETED, JobState.DONE, JobState.POSTPROCESSING, JobState.NONE, JobState.STOPPING};
+
+    /**
+     * IDs of the jobs whose state changed during the bulk operation running on the thread. They are fired in one
+     * STATE_CHANGED event at the end of the operation.
+     */
+    private final ThreadLocal<Set<UUID>> bulkStateChanges = new ThreadLocal<>();
+
+    /**
+     * Journal of the jobs or null if not opened
+     */
+    private volatile JobJournal journal;
 
     /**
-     * Holds the jobs. The {@code Boolean} is for marking the job as deleted.
-     * When a job is deleted, it is marked as deleted and it is triggered the STOP trigger.
-     * After the job has stopped, the job is safely deleted
+     * Archive of the stopped jobs or null if not opened. The archived jobs are made again by the archive factory.
      */
-    Map<Job,Boolean> jobList = new HashMap<>();
+    private volatile JobArchive jobArchive;
+    private volatile Function<RecoveredJob, Job> archiveFactory;
+    private final JobArchiver jobArchiver = new JobArchiver(this);
 
     //temp
     private int finishedJobs = 0;
@@ -68,7 +106,15 @@ public final class CoreEngine extends AbstractCoreEngine implements Core,SshList
 
         //init the states
         JobState jobState = new JobState();
-        coreEventBus.register(this);
+
+        int shardCount = Math.max(1, Integer.getInteger("core.shards", Runtime.getRuntime().availableProcessors()));
+        shards = new CoreShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new CoreShard(i);
+            shards[i].getEventBus().register(this);
+        }
+        logger.debug("{} core shards", shardCount);
+        getEventDispatcher().setJobLookup(id -> registry(id).getAny(id));
     }
 
     /**
@@ -106,19 +152,39 @@ public final class CoreEngine extends AbstractCoreEngine implements Core,SshList
 
     @Override
     public boolean addJob(Job j) throws JobException {
-        if (jobExists(j.getID())) {
+        j.setEventBus(getCoreEventBus(j.getID()));
+        if (!registry(j.getID()).add(j)) {
             throw new JobException(JobException.JOB_EXISTS,"Job ".concat(j.getID().toString()).concat(" already exists"));
         }
 
-        j.setEventBus(getCoreEventBus());
-        jobList.put(j,false);
-
         logger.info("Job created: {}",j.getName());
+        journalCreated(j);
         fireJobEvent(new JobEvent(j.getID(), JobEvent.JobEventType.CREATE));
 
         return true;
     }
 
+    @Override
+    public List<UUID> addJobs(List<Job> jobs) {
+        List<UUID> addedJobList = new ArrayList<>(jobs.size());
+        for (Job j: jobs) {
+            j.setEventBus(getCoreEventBus(j.getID()));
+            if (registry(j.getID()).add(j)) {
+                addedJobList.add(j.getID());
+                journalCreated(j);
+            }
+            else {
+                logger.warn("Job {} already exists", j.getID());
+            }
+        }
+
+        logger.info("{} jobs created", addedJobList.size());
+        if (!addedJobList.isEmpty()) {
+            fireJobEvent(new JobEvent(addedJobList, JobEvent.JobEventType.CREATE));
+        }
+        return addedJobList;
+    }
+
     @Override
     public void deleteJobs(List<UUID> uuidList) {
        List<UUID> deletedJobList = new ArrayList<>();
@@ -135,22 +201,76 @@ public final class CoreEngine extends AbstractCoreEngine implements Core,SshList
         Job j = getJob(id);
 
         if (j != null) {
+            admissionScheduler.cancel(id);
             j.stop();
         }
     }
 
+    @Override
+    public void stopJobs(List<UUID> ids) {
+        QDelBatch qDelBatch = QDelBatch.begin();
+        try {
+            runBulk(ids, job -> {
+                admissionScheduler.cancel(job.getID());
+                job.stop();
+            });
+        } finally {
+            qDelBatch.submit();
+        }
+    }
+
+    @Override
+    public void restartJobs(List<UUID> ids) {
+        qstatManager.start();
+        runBulk(ids, job -> {
+            if (job.getState() == JobState.STOP || job.getState() == JobState.ERROR || job.getState() == JobState.FINISHED) {
+                admissionScheduler.enqueue(job, 0);
+            }
+        });
+    }
+
     @Override
     public Job getJob(UUID id) {
-        for (Map.Entry<Job,Boolean> entry: jobList.entrySet()) {
-            if ( !entry.getValue() ) {
-                if (entry.getKey().getID().equals(id)) {
-                    return entry.getKey();
-                }
+        JobRegistry jobRegistry = registry(id);
+        Job job = jobRegistry.get(id);
+        if (job == null && jobRegistry.isArchived(id)) {
+            job = reloadJob(id);
+        }
+        return job;
+    }
+
+    @Override
+    public List<Job> getJobsByState(int... states) {
+        List<Job> jobs = new ArrayList<>();
+        for (CoreShard shard: shards) {
+            jobs.addAll(shard.getRegistry().getByState(states));
+        }
+        return jobs;
+    }
+
+    @Override
+    public Job getJobByBatchID(String batchID) {
+        for (CoreShard shard: shards) {
+            Job job = shard.getRegistry().getByBatchID(batchID);
+            if (job != null) {
+                return job;
             }
         }
         return null;
     }
 
+    @Override
+    public List<Job> getJobsByNamePrefix(String prefix) {
+        List<Job> jobs = new ArrayList<>();
+        for (CoreShard shard: shards) {
+            jobs.addAll(shard.getRegistry().getByNamePrefix(prefix));
+        }
+        if (shards.length > 1) {
+            jobs.sort(Comparator.comparing(Job::getName));
+        }
+        return jobs;
+    }
+
     @Override
     public void executeJob(UUID id) throws IllegalStateException {
 
@@ -159,31 +279,38 @@ public final class CoreEngine extends AbstractCoreEngine implements Core,SshList
             throw new IllegalStateException("SSH disconnected");
         }
 
-        qstatManager.start();
         Job job = getJob(id);
-        try {
-            if (job.getState() == JobState.READY) {
-                job.execute();
+        if (job != null) {
+            qstatManager.start();
+            if (admissionScheduler.enqueue(job, 0)) {
+                admissionScheduler.drain();
             }
-            else if (job.getState() == JobState.STOP || job.getState() == JobState.ERROR || job.getState() == JobState.FINISHED) {
-                job.restart();
-            }
-        } catch (JobException e) {
-            e.printStackTrace();
         }
     }
 
+    @Override
+    public void executeJobs(List<UUID> ids) throws IllegalStateException {
+        executeJobs(ids, 0);
+    }
 
     @Override
-    public void executeAll() {
+    public void executeJobs(List<UUID> ids, int priority) throws IllegalStateException {
 
-        for (Map.Entry<Job,Boolean> entry: jobList.entrySet()) {
-            if ( !entry.getValue() ) {
-                executeJob(entry.getKey().getID());
-            }
+        //check if the ssh client is connected before executing jobs
+        if ( !sshRemoteFactory.isConnected() && !sshRemoteFactory.isAuthenticated()) {
+            throw new IllegalStateException("SSH disconnected");
         }
+
+        qstatManager.start();
+        runBulk(ids, job -> admissionScheduler.enqueue(job, priority));
+    }
+
+    @Override
+    public void executeAll() {
+        executeJobs(getJobIDList());
     }
 
+
     @Override
     public SshFactory getSshFactory() {
         return sshRemoteFactory;
@@ -191,67 +318,197 @@ public final class CoreEngine extends AbstractCoreEngine implements Core,SshList
 
     @Override
     public int count() {
-        int countJob = 0;
-        for (Map.Entry<Job,Boolean> entry: jobList.entrySet()) {
-            if ( !entry.getValue() ) {
-                countJob++;
-            }
+        int count = 0;
+        for (CoreShard shard: shards) {
+            count += shard.getRegistry().count();
         }
-
-        return countJob;
+        return count;
     }
 
     @Override
     public ArrayList<UUID> getJobIDList() {
-        ArrayList<UUID> idList = new ArrayList<>();
+        ArrayList<UUID> ids = new ArrayList<>();
+        for (CoreShard shard: shards) {
+            ids.addAll(shard.getRegistry().getActiveIDs());
+        }
+        return ids;
+    }
 
-        for (Map.Entry<Job,Boolean> entry: jobList.entrySet()) {
-            if ( !entry.getValue()) {
-                idList.add(entry.getKey().getID());
+    @Override
+    public int openJournal(String directory) throws IOException {
+        JobJournal newJournal = JobJournal.open(Paths.get(directory));
+        JobJournal oldJournal = journal;
+        journal = newJournal;
+        if (oldJournal != null) {
+            oldJournal.close();
+        }
+
+        for (Job job: getActiveJobs()) {
+            newJournal.jobCreated(job);
+        }
+        return newJournal.getRecoveredJobs().size();
+    }
+
+    @Override
+    public List<UUID> recoverJobs(Function<RecoveredJob, Job> factory) throws IllegalStateException {
+        JobJournal currentJournal = journal;
+        if (currentJournal == null) {
+            throw new IllegalStateException("No journal opened");
+        }
+
+        List<Job> recoveredJobList = new ArrayList<>();
+        for (RecoveredJob recoveredJob: currentJournal.getRecoveredJobs()) {
+            if (registry(recoveredJob.getId()).getAny(recoveredJob.getId()) != null) {
+                continue;
+            }
+
+            try {
+                Job job = factory.apply(recoveredJob);
+                if (job != null) {
+                    job.restore(recoveredJob.getId(), recoveredJob.getValues(), recoveredJob.getRecoveryState());
+                    recoveredJobList.add(job);
+                }
+            } catch (RuntimeException e) {
+                logger.error("Cannot recover job {}: {}", recoveredJob.getId(), e.toString());
             }
         }
 
-        return idList;
+        List<UUID> ids = addJobs(recoveredJobList);
+        if (!getJobsByState(JobState.batchStates()).isEmpty()) {
+            qstatManager.start();
+        }
+        logger.info("{} jobs recovered from the journal", ids.size());
+        return ids;
+    }
+
+    @Override
+    public void openArchive(String directory, Function<RecoveredJob, Job> factory) throws IOException {
+        if (jobArchive != null) {
+            throw new IllegalStateException("The archive is already open");
+        }
+
+        archiveFactory = factory;
+        jobArchive = JobArchive.open(Paths.get(directory));
+        jobArchiver.start(getActiveJobs());
     }
 
     @Override
     public void shutdown() {
-        qstatManager.stop();
+        qstatManager.shutdown();
+        jobArchiver.shutdown();
         executor.shutDownExecutor();
+        getJobEventPublisher().close();
+        getEventDispatcher().shutdown();
+
+        JobArchive currentArchive = jobArchive;
+        jobArchive = null;
+        if (currentArchive != null) {
+            try {
+                currentArchive.close();
+            } catch (IOException e) {
+                logger.error("Cannot close the archive: {}", e.toString());
+            }
+        }
+
+        JobJournal currentJournal = journal;
+        journal = null;
+        if (currentJournal != null) {
+            try {
+                currentJournal.close();
+            } catch (IOException e) {
+                logger.error("Cannot close the journal: {}", e.toString());
+            }
+        }
     }
 
     /**
      * Return the event bus used by the job to send events
-     * @return
+     * @param id job ID
+     * @return event bus of the shard of the job
+     */
+    public EventBus getCoreEventBus(UUID id) {
+        return CoreShard.of(shards, id).getEventBus();
+    }
+
+    /**
+     * Number of shards of the jobs
      */
-    public EventBus getCoreEventBus() {
-        return coreEventBus;
+    public int getShardCount() {
+        return shards.length;
     }
 
     @Subscribe
+    @AllowConcurrentEvents
     public void onJobStateChanged(JobStateChangedEvent event) {
+        CoreShard shard = CoreShard.of(shards, event.getId());
+        JobRegistry jobRegistry = shard.getRegistry();
+        Job j;
+        boolean deleted = false;
+
+        synchronized (shard.lockFor(event.getId())) {
+            j = jobRegistry.getAny(event.getId());
+            if (j == null && event.getJob() != null && jobRegistry.isArchived(event.getId())) {
+                // the job has been archived while it was used. It is put back.
+                j = jobRegistry.unarchive(event.getJob());
+            }
+            if (j == null) {
+                return;
+            }
 
-        Job j = getJob(event.getId());
-        switch (j.getState()) {
-            case JobState.STOP:
-                try {
-                    if (isMarkedForDeletion(j)) {
-                        logger.info("Job {} stopped. It is marked for deletion",j.getName());
-                        jobList.remove(j);
-                        fireJobEvent(new JobEvent(j.getID(), JobEvent.JobEventType.DELETE));
-                        return;
-                    }
-                } catch (IllegalArgumentException ex) {
-                    ;
-                }
+            jobRegistry.update(j);
+            JobJournal currentJournal = journal;
+            if (currentJournal != null) {
+                currentJournal.stateChanged(j.getID(), j.getState());
+            }
+
+            if (j.getState() == JobState.STOP && jobRegistry.isMarkedForDeletion(j.getID())) {
+                removeJob(j.getID());
+                deleted = true;
+            }
         }
 
-        fireJobEvent(event);
+        qstatManager.jobStateChanged(event.getId());
+        admissionScheduler.jobStateChanged(j);
+        if (deleted) {
+            logger.info("Job {} stopped. It is marked for deletion",j.getName());
+            fireJobEvent(new JobEvent(j.getID(), JobEvent.JobEventType.DELETE));
+            return;
+        }
+        jobArchiver.jobStateChanged(j);
 
+        Set<UUID> bulk = bulkStateChanges.get();
+        if (bulk != null) {
+            bulk.add(j.getID());
+            return;
+        }
+        fireJobEvent(event);
     }
 
+    /**
+     * Forward the other job events. The state changes are handled by {@link #onJobStateChanged(JobStateChangedEvent)}.
+     * @param event
+     */
     @Subscribe
+    @AllowConcurrentEvents
     public void onJobUpdate(JobEvent event) {
+        if (event instanceof JobStateChangedEvent) {
+            return;
+        }
+
+        if (event.getEventType() == JobEvent.JobEventType.UPDATE) {
+            CoreShard shard = CoreShard.of(shards, event.getId());
+            synchronized (shard.lockFor(event.getId())) {
+                Job j = shard.getRegistry().getAny(event.getId());
+                if (j != null) {
+                    shard.getRegistry().update(j);
+                }
+
+                JobJournal currentJournal = journal;
+                if (currentJournal != null && event instanceof ParameterUpdatedEvent) {
+                    currentJournal.parameterUpdated(event.getId(), ((ParameterUpdatedEvent) event).getValues());
+                }
+            }
+        }
         fireJobEvent(event);
     }
 
@@ -279,21 +536,91 @@ public final class CoreEngine extends AbstractCoreEngine implements Core,SshList
 
     @Override
     public void authenticated() {
-
+        SshConnectionPool pool = SshRemoteFactory.getConnectionPool();
+        if (pool != null) {
+            ModuleExecutor.setSshPoolSize(pool.getCapacity());
+            admissionScheduler.setMaxSubmitting(pool.getCapacity());
+        }
     }
 
     @Override
     public void disconnected() {
         qstatManager.stop();
+        admissionScheduler.clear();
 
-        for (UUID id: getJobIDList()) {
-            Job job = getJob(id);
-            if (isJobRunning(job)) {
-                job.stop();
+        for (Job job: getJobsByState(RUNNING_STATES)) {
+            job.stop();
+        }
+    }
+
+    /**
+     * Get the jobs which are not marked for deletion
+     * @return list of jobs
+     */
+    List<Job> getActiveJobs() {
+        List<Job> jobs = new ArrayList<>();
+        for (CoreShard shard: shards) {
+            jobs.addAll(shard.getRegistry().getActiveJobs());
+        }
+        return jobs;
+    }
+
+    /**
+     * Get the scheduler which admits the jobs into the pipeline
+     * @return admission scheduler
+     */
+    public AdmissionScheduler getAdmissionScheduler() {
+        return admissionScheduler;
+    }
+
+    /**
+     * Move a stopped job to the archive. The job is reloaded by {@link #getJob(UUID)}.
+     * @param id
+     * @return true if the job has been archived
+     */
+    boolean archiveJob(UUID id) {
+        JobArchive currentArchive = jobArchive;
+        JobRegistry jobRegistry = registry(id);
+        Job job = jobRegistry.get(id);
+        if (currentArchive == null || job == null || !JobState.isTerminalState(job.getState())) {
+            return false;
+        }
+
+        try {
+            ArchivedJob archivedJob = currentArchive.write(job);
+            if (!jobRegistry.archive(job, archivedJob)) {
+                return false;
             }
+
+            if (!JobState.isTerminalState(job.getState())) {
+                // restarted meanwhile
+                jobRegistry.unarchive(job);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("Cannot archive job {}: {}", id, e.toString());
+            return false;
         }
     }
 
+    /**
+     * Get the archiver of the stopped jobs
+     * @return archiver
+     */
+    public JobArchiver getJobArchiver() {
+        return jobArchiver;
+    }
+
+    /**
+     * Get the stub of an archived job, without loading the job
+     * @param id
+     * @return stub or null if the job is not archived
+     */
+    public ArchivedJob getArchivedJob(UUID id) {
+        return registry(id).getArchived(id);
+    }
+
     /**
      * Return true if the jobID exists
      *
@@ -301,13 +628,7 @@ public final class CoreEngine extends AbstractCoreEngine implements Core,SshList
      * @return
      */
     public boolean jobExists(UUID jobID) {
-        Job j = getJob(jobID);
-
-        if (j != null) {
-            return true;
-        }
-
-        return false;
+        return registry(jobID).contains(jobID);
     }
 
 
@@ -318,6 +639,70 @@ public final class CoreEngine extends AbstractCoreEngine implements Core,SshList
      *
      ***********************************************************************************/
 
+    /**
+     * Get the registry of the shard of the job
+     * @param id job ID
+     * @return registry
+     */
+    private JobRegistry registry(UUID id) {
+        return CoreShard.of(shards, id).getRegistry();
+    }
+
+    /**
+     * Execute or restart the job
+     * @param job
+     */
+    private void executeJob(Job job) {
+        try {
+            if (job.getState() == JobState.READY) {
+                job.execute();
+            }
+            else if (job.getState() == JobState.STOP || job.getState() == JobState.ERROR || job.getState() == JobState.FINISHED) {
+                job.restart();
+            }
+        } catch (JobException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Journal the creation of the job if the journal is open
+     * @param job
+     */
+    private void journalCreated(Job job) {
+        JobJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.jobCreated(job);
+        }
+    }
+
+    /**
+     * Apply the action to the jobs, start the jobs admitted by the {@link AdmissionScheduler} and fire one
+     * STATE_CHANGED event for all the state changes done on this thread. The state changes made later by the modules
+     * of the jobs, or by the jobs admitted later, are fired as usual.
+     * @param ids
+     * @param action
+     */
+    private void runBulk(List<UUID> ids, Consumer<Job> action) {
+        Set<UUID> changedJobList = new LinkedHashSet<>();
+        bulkStateChanges.set(changedJobList);
+        try {
+            for (UUID id: ids) {
+                Job job = getJob(id);
+                if (job != null) {
+                    action.accept(job);
+                }
+            }
+            admissionScheduler.drain();
+        } finally {
+            bulkStateChanges.remove();
+        }
+
+        if (!changedJobList.isEmpty()) {
+            fireJobEvent(new JobEvent(new ArrayList<>(changedJobList), JobEvent.JobEventType.STATE_CHANGED));
+        }
+    }
+
     /**
      * Return true if the job {@code j} is running
      * @param j
@@ -337,50 +722,95 @@ public final class CoreEngine extends AbstractCoreEngine implements Core,SshList
     }
 
     /**
-     * Return true if the job has been marked for deletion
-     * @param job
+     * Delete job. return true if job deleted.
+     * A running job will be marked as deleted and stopped
+     * @param id
      * @return
      */
-    private boolean isMarkedForDeletion(Job job) {
+    private boolean deleteJob(UUID id) {
 
-        if (jobList.containsKey(job)) {
-            return jobList.get(job);
+        CoreShard shard = CoreShard.of(shards, id);
+        if (shard.getRegistry().isArchived(id)) {
+            logger.info("Delete archived job {}", id);
+            removeJob(id);
+            return true;
         }
 
-        return false;
-    }
+        Job j = getJob(id);
+        if (j == null) {
+            return false;
+        }
 
-    private void markJobForDeletion(Job job) {
+        admissionScheduler.cancel(id);
+        boolean running;
+        // the job cannot stop between the check and the mark without its STOP being seen by onJobStateChanged
+        synchronized (shard.lockFor(id)) {
+            running = isJobRunning(j);
+            if (running) {
+                logger.info("Marking job {} for deletion",j.getID());
+                shard.getRegistry().markForDeletion(j.getID());
+            }
+            else {
+                logger.info("Delete job {}", j.getID());
+                removeJob(j.getID());
+            }
+        }
 
-        if (jobList.containsKey(job)) {
-            logger.info("Marking job {} for deletion",job.getID());
-            jobList.put(job,true);
+        if (running) {
+            try {
+                j.stop();
+            } catch (IllegalArgumentException ex) {
+                return false;
+            }
         }
+        return true;
+    }
 
+    /**
+     * Remove the job from the registry, the journal and the archiver
+     * @param id
+     */
+    private void removeJob(UUID id) {
+        registry(id).remove(id);
+        jobArchiver.jobRemoved(id);
+        JobJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.jobDeleted(id);
+        }
     }
 
     /**
-     * Delete job. return true if job deleted.
-     * A running job will be marked as deleted and stopped
+     * Make again an archived job and put it back in the registry
      * @param id
-     * @return
+     * @return job or null if it cannot be loaded
      */
-    private boolean deleteJob(UUID id) {
+    private Job reloadJob(UUID id) {
+        JobRegistry jobRegistry = registry(id);
+        ArchivedJob archivedJob = jobRegistry.getArchived(id);
+        JobArchive currentArchive = jobArchive;
+        if (archivedJob == null || currentArchive == null) {
+            return jobRegistry.get(id);
+        }
 
-        Job j = getJob(id);
-        if (isJobRunning(j)) {
-            try {
-                markJobForDeletion(j);
-                j.stop();
-            } catch (IllegalArgumentException ex) {
-                return false;
+        try {
+            RecoveredJob recoveredJob = currentArchive.read(archivedJob);
+            Job job = archiveFactory.apply(recoveredJob);
+            if (job == null) {
+                logger.error("Cannot reload job {}: no job made by the factory", id);
+                return null;
             }
+
+            job.restore(id, recoveredJob.getValues(), recoveredJob.getState());
+            job.setEventBus(getCoreEventBus(id));
+            Job reloadedJob = jobRegistry.unarchive(job);
+            jobRegistry.update(reloadedJob);
+            jobArchiver.jobStateChanged(reloadedJob);
+            logger.debug("Job {} reloaded from the archive", id);
+            return reloadedJob;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Cannot reload job {}: {}", id, e.toString());
+            return null;
         }
-        else {
-            logger.info("Delete job {}", j.getID());
-            jobList.remove(j);
-        }
-        return true;
     }
 
 }
@@ -0,0 +1,66 @@
+package stes.isami.core;
+
+import com.google.common.eventbus.EventBus;
+
+import java.util.UUID;
+
+/**
+ * Part of the jobs of the {@link CoreEngine}, chosen by job ID.
+ * <p>Each shard has its own {@link JobRegistry} and its own event bus, on which the jobs of the shard post their
+ * events. The jobs of different shards are dispatched in parallel. Inside a shard, the handling of the events of a
+ * job is serialized by the lock of the job, see {@link #lockFor(UUID)}.</p>
+ */
+final class CoreShard {
+
+    /**
+     * Number of locks of a shard. The jobs share the locks, so the memory does not grow with the number of jobs.
+     */
+    private static final int LOCK_COUNT = 64;
+
+    private final int index;
+    private final JobRegistry registry = new JobRegistry();
+    private final EventBus eventBus;
+    private final Object[] locks = new Object[LOCK_COUNT];
+
+    CoreShard(int index) {
+        this.index = index;
+        this.eventBus = new EventBus("core-shard-" + index);
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Get the shard of a job
+     * @param shards
+     * @param id job ID
+     * @return shard
+     */
+    static CoreShard of(CoreShard[] shards, UUID id) {
+        return shards[(id.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    JobRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Return the event bus used by the jobs of the shard to send events
+     */
+    EventBus getEventBus() {
+        return eventBus;
+    }
+
+    /**
+     * Get the lock of a job. The lock must not be held while posting an event or calling a listener.
+     * @param id job ID
+     * @return lock
+     */
+    Object lockFor(UUID id) {
+        return locks[(int) ((id.getLeastSignificantBits() ^ id.getMostSignificantBits()) >>> 32) & (LOCK_COUNT - 1)];
+    }
+}
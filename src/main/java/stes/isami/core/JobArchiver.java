@@ -0,0 +1,195 @@
+package stes.isami.core;
+
+import stes.isami.core.job.Job;
+import stes.isami.core.job.JobState;
+import stes.isami.core.util.TimeSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves the jobs which have stopped running (FINISHED, STOP, ERROR) to the job archive of the {@link CoreEngine}.
+ * <p>A job is archived when it has been stopped for longer than {@code maxAge}, or when more than
+ * {@code maxTerminalJobs} stopped jobs are in memory, the oldest first. The archiving runs on its own thread, every
+ * minute and as soon as there are too many stopped jobs.</p>
+ */
+public class JobArchiver {
+
+    private final Logger logger = LoggerFactory.getLogger(JobArchiver.class);
+
+    private final CoreEngine core;
+
+    private long maxAge = TimeUnit.HOURS.toMillis(1);
+    private int maxTerminalJobs = 1000;
+
+    /**
+     * Time at which the stopped jobs in memory have stopped, the oldest first
+     */
+    private final LinkedHashMap<UUID, Long> terminalJobs = new LinkedHashMap<>();
+
+    private boolean started = false;
+    private boolean archivingScheduled = false;
+    private long archivedCount = 0;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "job-archiver");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    JobArchiver(CoreEngine core) {
+        this.core = core;
+    }
+
+    /**
+     * Start archiving. The jobs already stopped are tracked from now.
+     * @param jobs jobs in memory
+     */
+    synchronized void start(Collection<Job> jobs) {
+        if (started) {
+            return;
+        }
+
+        started = true;
+        for (Job job: jobs) {
+            track(job);
+        }
+        scheduler.scheduleWithFixedDelay(this::archive, 1, 1, TimeUnit.MINUTES);
+        scheduleIfFull();
+    }
+
+    /**
+     * Track the job if it has stopped running
+     * @param job
+     */
+    synchronized void jobStateChanged(Job job) {
+        if (!started) {
+            return;
+        }
+
+        track(job);
+        scheduleIfFull();
+    }
+
+    /**
+     * Stop tracking a job which has been archived or deleted
+     * @param id
+     */
+    synchronized void jobRemoved(UUID id) {
+        terminalJobs.remove(id);
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public synchronized long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Set the time after which a stopped job is archived
+     * @param maxAge in ms
+     */
+    public synchronized void setMaxAge(long maxAge) {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("The age must be positive");
+        }
+        this.maxAge = maxAge;
+    }
+
+    public synchronized int getMaxTerminalJobs() {
+        return maxTerminalJobs;
+    }
+
+    /**
+     * Set the number of stopped jobs kept in memory
+     * @param maxTerminalJobs
+     */
+    public synchronized void setMaxTerminalJobs(int maxTerminalJobs) {
+        if (maxTerminalJobs < 0) {
+            throw new IllegalArgumentException("The number of jobs must be positive");
+        }
+        this.maxTerminalJobs = maxTerminalJobs;
+        scheduleIfFull();
+    }
+
+    /**
+     * Number of stopped jobs in memory
+     */
+    public synchronized int getTerminalCount() {
+        return terminalJobs.size();
+    }
+
+    /**
+     * Number of jobs archived since the start
+     */
+    public synchronized long getArchivedCount() {
+        return archivedCount;
+    }
+
+    /**
+     * Archive the jobs which are too old or too many
+     */
+    void archive() {
+        int count = 0;
+        for (UUID id: select(TimeSource.get().millis())) {
+            try {
+                if (core.archiveJob(id)) {
+                    count++;
+                }
+            } catch (RuntimeException e) {
+                logger.error("Cannot archive job {}: {}", id, e.toString());
+            }
+        }
+
+        if (count > 0) {
+            synchronized (this) {
+                archivedCount += count;
+            }
+            logger.info("{} jobs archived", count);
+        }
+    }
+
+    /*****************************************************************************************************
+     *
+     *
+     *                                      PRIVATE
+     *
+     */
+
+    private void track(Job job) {
+        terminalJobs.remove(job.getID());
+        if (JobState.isTerminalState(job.getState())) {
+            terminalJobs.put(job.getID(), TimeSource.get().millis());
+        }
+    }
+
+    private void scheduleIfFull() {
+        if (started && !archivingScheduled && terminalJobs.size() > maxTerminalJobs) {
+            archivingScheduled = true;
+            scheduler.execute(this::archive);
+        }
+    }
+
+    private synchronized List<UUID> select(long now) {
+        archivingScheduled = false;
+
+        List<UUID> ids = new ArrayList<>();
+        Iterator<Map.Entry<UUID, Long>> iterator = terminalJobs.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, Long> entry = iterator.next();
+            if (terminalJobs.size() <= maxTerminalJobs && now - entry.getValue() < maxAge) {
+                break;
+            }
+            ids.add(entry.getKey());
+            iterator.remove();
+        }
+        return ids;
+    }
+}
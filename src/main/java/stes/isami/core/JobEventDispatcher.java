@@ -0,0 +1,585 @@
+package stes.isami.core;
+
+import stes.isami.core.job.Job;
+import stes.isami.core.job.JobEvent;
+import stes.isami.core.job.JobStateChangedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Delivers the job events to the {@link JobListener}s on dedicated threads.
+ * <p>The events are spread over lanes by job ID. Each lane is a ring buffer with its own thread, which delivers the
+ * events in batches with {@link JobListener#onJobEvents(List)}. The events of a job always go to the same lane, so
+ * they are delivered in the order they have been dispatched. An event about several jobs is split by lane.</p>
+ * <p>Dispatching never waits for the listeners. It waits only when the ring of the lane is full. A listener which
+ * dispatches events on a full ring of its own lane gets them delivered at once, out of order, instead of waiting
+ * forever for itself.</p>
+ * <p>A listener can be added with a {@link JobEventFilter}. The filters are indexed by job ID and by event type, so
+ * a listener gets only the events it has selected and the events of the other jobs cost nothing to it.</p>
+ * <p>Each dispatched event gets a sequence number. The recent events are kept in a {@link JobEventHistory}, so a
+ * listener can be added from a sequence number and get the events it has missed.</p>
+ */
+public class JobEventDispatcher {
+
+    private final Logger logger = LoggerFactory.getLogger(JobEventDispatcher.class);
+
+    /**
+     * Maximum number of events delivered in one batch
+     */
+    private static final int MAX_BATCH = 256;
+
+    /**
+     * Listeners and their filters. The index is replaced when a listener is added or removed.
+     */
+    private volatile SubscriptionIndex index = new SubscriptionIndex(Collections.emptyList());
+
+    /**
+     * Gets the job of an event about several jobs, when the filter of a listener has states
+     */
+    private volatile Function<UUID, Job> jobLookup = id -> null;
+
+    /**
+     * Recent events or null if they are not kept. The sequence numbers are given by the history, or by the counter
+     * if there is no history.
+     */
+    private final JobEventHistory history;
+    private final AtomicLong sequences = new AtomicLong();
+    private final Lane[] lanes;
+    private volatile boolean running = true;
+
+    /**
+     * Create the dispatcher, without history, and start the threads of the lanes
+     * @param laneCount number of lanes
+     * @param capacity number of events of the ring of a lane, rounded to a power of 2
+     */
+    public JobEventDispatcher(int laneCount, int capacity) {
+        this(laneCount, capacity, 0);
+    }
+
+    /**
+     * Create the dispatcher and start the threads of the lanes
+     * @param laneCount number of lanes
+     * @param capacity number of events of the ring of a lane, rounded to a power of 2
+     * @param historyCapacity size of the history in bytes, 0 to keep no history
+     */
+    public JobEventDispatcher(int laneCount, int capacity, int historyCapacity) {
+        if (laneCount < 1 || capacity < 1) {
+            throw new IllegalArgumentException("The number of lanes and the capacity must be positive");
+        }
+        history = historyCapacity > 0 ? new JobEventHistory(historyCapacity) : null;
+
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i, size);
+            lanes[i].thread.start();
+        }
+    }
+
+    public void addListener(JobListener listener) {
+        subscribe(new Subscription(listener, null));
+    }
+
+    /**
+     * Add a listener which gets the events selected by the filter
+     * @param listener
+     * @param filter changing the filter later has no effect
+     */
+    public void addListener(JobListener listener, JobEventFilter filter) {
+        subscribe(new Subscription(listener, filter.copy()));
+    }
+
+    /**
+     * Add a listener which gets the events from a sequence number. The events already dispatched are replayed from the
+     * history on the calling thread, then the listener gets the new events.
+     * <br>If some of the events have been evicted from the history, nothing is replayed: the listener gets only the
+     * new events and it must read the jobs from the {@link Core} to catch up.
+     * @param listener
+     * @param filter filter or null to get all the events
+     * @param fromSequence sequence number of the first event to get, see {@link JobEvent#getSequence()}
+     * @return false if the events from {@code fromSequence} are not in the history anymore
+     */
+    public boolean addListener(JobListener listener, JobEventFilter filter, long fromSequence) {
+        Subscription subscription = new Subscription(listener, filter == null ? null : filter.copy());
+        if (history == null) {
+            subscribe(subscription);
+            return fromSequence >= sequences.get();
+        }
+
+        // the lanes wait for the replay before passing the new events
+        synchronized (subscription) {
+            List<JobEvent> missedEvents;
+            synchronized (history) {
+                subscription.liveFrom = history.getNextSequence();
+                subscribe(subscription);
+                missedEvents = fromSequence >= subscription.liveFrom ? Collections.emptyList() : history.read(fromSequence);
+            }
+
+            if (missedEvents == null) {
+                return false;
+            }
+
+            Map<Subscription, List<JobEvent>> batches = new IdentityHashMap<>();
+            for (JobEvent event: missedEvents) {
+                select(subscription, event, batches);
+            }
+            List<JobEvent> batch = batches.get(subscription);
+            if (batch != null) {
+                subscription.listener.onJobEvents(batch);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Get the history of the events
+     * @return history or null if the events are not kept
+     */
+    public JobEventHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Sequence number of the next event
+     */
+    public long getNextSequence() {
+        return history != null ? history.getNextSequence() : sequences.get();
+    }
+
+    /**
+     * Remove a listener, added as is or wrapped in a {@link CoalescingJobListener}
+     * @param listener
+     */
+    public synchronized void removeListener(JobListener listener) {
+        List<Subscription> subscriptions = new ArrayList<>();
+        for (Subscription subscription: index.subscriptions) {
+            JobListener registeredListener = subscription.listener;
+            if (registeredListener instanceof CoalescingJobListener
+                    && ((CoalescingJobListener) registeredListener).getListener() == listener) {
+                ((CoalescingJobListener) registeredListener).close();
+            }
+            else if (registeredListener != listener) {
+                subscriptions.add(subscription);
+            }
+        }
+        index = new SubscriptionIndex(subscriptions);
+    }
+
+    /**
+     * Set the function which gets a job by ID, used to filter by state the events about several jobs
+     * @param jobLookup
+     */
+    public void setJobLookup(Function<UUID, Job> jobLookup) {
+        this.jobLookup = jobLookup;
+    }
+
+    /**
+     * Queue an event for the listeners
+     * @param event
+     */
+    public void dispatch(JobEvent event) {
+        List<UUID> ids = event.getId() != null ? Collections.singletonList(event.getId()) : event.getIds();
+        if (ids == null || ids.isEmpty()) {
+            publish(lanes[0], event);
+            return;
+        }
+
+        Map<Lane, List<UUID>> idsByLane = new LinkedHashMap<>();
+        for (UUID id: ids) {
+            idsByLane.computeIfAbsent(laneOf(id), k -> new ArrayList<>()).add(id);
+        }
+
+        if (idsByLane.size() == 1) {
+            publish(idsByLane.keySet().iterator().next(), event);
+            return;
+        }
+        for (Map.Entry<Lane, List<UUID>> entry: idsByLane.entrySet()) {
+            publish(entry.getKey(), new JobEvent(entry.getValue(), event.getEventType()));
+        }
+    }
+
+    /**
+     * Number of events waiting to be delivered
+     */
+    public long getQueueDepth() {
+        long depth = 0;
+        for (Lane lane: lanes) {
+            depth += lane.claimed.get() - lane.consumed;
+        }
+        return depth;
+    }
+
+    /**
+     * Time for which the oldest event waiting to be delivered has been waiting
+     * @return lag in ms, 0 if no event is waiting
+     */
+    public long getLag() {
+        long now = System.nanoTime();
+        long lag = 0;
+        for (Lane lane: lanes) {
+            long sequence = lane.consumed;
+            int index = (int) (sequence & lane.mask);
+            if (sequence < lane.claimed.get() && lane.published.get(index) == sequence) {
+                lag = Math.max(lag, now - lane.postTimes[index]);
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis(lag);
+    }
+
+    /**
+     * Number of events delivered since the start, counted when they are taken out of the queue
+     */
+    public long getDeliveredCount() {
+        long count = 0;
+        for (Lane lane: lanes) {
+            count += lane.deliveredCount;
+        }
+        return count;
+    }
+
+    /**
+     * Number of batches delivered since the start, counted when they are taken out of the queue
+     */
+    public long getBatchCount() {
+        long count = 0;
+        for (Lane lane: lanes) {
+            count += lane.batchCount;
+        }
+        return count;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Deliver the events already dispatched and stop the threads. An event dispatched later on a full ring is dropped.
+     */
+    public void shutdown() {
+        running = false;
+        for (Lane lane: lanes) {
+            LockSupport.unpark(lane.thread);
+        }
+    }
+
+    /*****************************************************************************************************
+     *
+     *
+     *                                      PRIVATE
+     *
+     */
+
+    private Lane laneOf(UUID id) {
+        return lanes[(id.hashCode() & Integer.MAX_VALUE) % lanes.length];
+    }
+
+    /**
+     * Give its sequence number to the event and queue it in the lane
+     */
+    private void publish(Lane lane, JobEvent event) {
+        if (history != null) {
+            history.record(event);
+        }
+        else {
+            event.setSequence(sequences.getAndIncrement());
+        }
+        lane.publish(event);
+    }
+
+    private synchronized void subscribe(Subscription subscription) {
+        List<Subscription> subscriptions = new ArrayList<>(index.subscriptions);
+        subscriptions.add(subscription);
+        index = new SubscriptionIndex(subscriptions);
+    }
+
+    /**
+     * Pass to each listener the events selected by its filter, in one batch
+     */
+    private void deliver(List<JobEvent> events) {
+        SubscriptionIndex currentIndex = index;
+        if (currentIndex.subscriptions.isEmpty()) {
+            return;
+        }
+
+        Map<Subscription, List<JobEvent>> batches = new IdentityHashMap<>();
+        for (JobEvent event: events) {
+            for (Subscription subscription: currentIndex.byType.get(event.getEventType())) {
+                select(subscription, event, batches);
+            }
+
+            if (currentIndex.byJob.isEmpty()) {
+                continue;
+            }
+            if (event.getId() != null) {
+                for (Subscription subscription: currentIndex.getByJob(event.getId())) {
+                    select(subscription, event, batches);
+                }
+            }
+            else if (event.getIds() != null) {
+                Set<Subscription> candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (UUID id: event.getIds()) {
+                    candidates.addAll(currentIndex.getByJob(id));
+                }
+                for (Subscription subscription: candidates) {
+                    select(subscription, event, batches);
+                }
+            }
+        }
+
+        for (Subscription subscription: currentIndex.subscriptions) {
+            List<JobEvent> batch = batches.get(subscription);
+            if (batch == null) {
+                continue;
+            }
+
+            try {
+                if (subscription.liveFrom < 0) {
+                    subscription.listener.onJobEvents(batch);
+                }
+                else {
+                    deliverAfterReplay(subscription, batch);
+                }
+            } catch (RuntimeException e) {
+                logger.error("Job listener {}: {}", subscription.listener, e.toString());
+            }
+        }
+    }
+
+    /**
+     * Pass the events of a listener added from a sequence number, without the events already replayed
+     */
+    private void deliverAfterReplay(Subscription subscription, List<JobEvent> batch) {
+        synchronized (subscription) {
+            batch.removeIf(event -> event.getSequence() < subscription.liveFrom);
+            if (!batch.isEmpty()) {
+                subscription.listener.onJobEvents(batch);
+            }
+        }
+    }
+
+    /**
+     * Add the event to the batch of the listener if the filter selects it
+     */
+    private void select(Subscription subscription, JobEvent event, Map<Subscription, List<JobEvent>> batches) {
+        JobEventFilter filter = subscription.filter;
+        JobEvent selectedEvent = event;
+
+        if (filter != null) {
+            if (!filter.acceptsType(event.getEventType())) {
+                return;
+            }
+
+            if (event.getId() != null) {
+                if (!accepts(filter, event, event.getId())) {
+                    return;
+                }
+            }
+            else if (event.getIds() != null && (filter.hasJobs() || filter.hasStates())) {
+                List<UUID> selectedIDs = new ArrayList<>();
+                for (UUID id: event.getIds()) {
+                    if (accepts(filter, event, id)) {
+                        selectedIDs.add(id);
+                    }
+                }
+                if (selectedIDs.isEmpty()) {
+                    return;
+                }
+                if (selectedIDs.size() < event.getIds().size()) {
+                    selectedEvent = new JobEvent(selectedIDs, event.getEventType());
+                }
+            }
+        }
+
+        batches.computeIfAbsent(subscription, k -> new ArrayList<>()).add(selectedEvent);
+    }
+
+    private boolean accepts(JobEventFilter filter, JobEvent event, UUID id) {
+        if (filter.hasJobs() && !filter.getJobIDs().contains(id)) {
+            return false;
+        }
+        if (!filter.hasStates() || event.getEventType() != JobEvent.JobEventType.STATE_CHANGED) {
+            return true;
+        }
+
+        int state = event instanceof JobStateChangedEvent ? ((JobStateChangedEvent) event).getState() : -1;
+        if (state == -1) {
+            Job job = jobLookup.apply(id);
+            if (job == null) {
+                return false;
+            }
+            state = job.getState();
+        }
+        return filter.acceptsState(state);
+    }
+
+    /**
+     * A listener and its filter
+     */
+    private static final class Subscription {
+        private final JobListener listener;
+        private final JobEventFilter filter;
+
+        /**
+         * Sequence number of the first event which is not replayed, or -1 if the listener is not replayed
+         */
+        private volatile long liveFrom = -1;
+
+        Subscription(JobListener listener, JobEventFilter filter) {
+            this.listener = listener;
+            this.filter = filter;
+        }
+    }
+
+    /**
+     * Subscriptions by event type, for those which are not filtered by job, and by job ID for the others
+     */
+    private static final class SubscriptionIndex {
+        private final List<Subscription> subscriptions;
+        private final EnumMap<JobEvent.JobEventType, List<Subscription>> byType = new EnumMap<>(JobEvent.JobEventType.class);
+        private final Map<UUID, List<Subscription>> byJob = new HashMap<>();
+
+        SubscriptionIndex(List<Subscription> subscriptions) {
+            this.subscriptions = subscriptions;
+            for (JobEvent.JobEventType type: JobEvent.JobEventType.values()) {
+                byType.put(type, new ArrayList<>());
+            }
+
+            for (Subscription subscription: subscriptions) {
+                if (subscription.filter != null && subscription.filter.hasJobs()) {
+                    for (UUID id: subscription.filter.getJobIDs()) {
+                        byJob.computeIfAbsent(id, k -> new ArrayList<>()).add(subscription);
+                    }
+                    continue;
+                }
+                for (JobEvent.JobEventType type: JobEvent.JobEventType.values()) {
+                    if (subscription.filter == null || subscription.filter.acceptsType(type)) {
+                        byType.get(type).add(subscription);
+                    }
+                }
+            }
+        }
+
+        List<Subscription> getByJob(UUID id) {
+            List<Subscription> jobSubscriptions = byJob.get(id);
+            return jobSubscriptions == null ? Collections.emptyList() : jobSubscriptions;
+        }
+    }
+
+    /**
+     * Ring buffer with many producers and one consumer, the thread of the lane.
+     * <p>A producer claims a sequence, writes the event in the slot of the sequence, then publishes the slot by
+     * writing the sequence in {@code published}. The consumer reads the slots in sequence order, as long as they are
+     * published.</p>
+     */
+    private final class Lane implements Runnable {
+
+        private final JobEvent[] ring;
+        private final long[] postTimes;
+        private final AtomicLongArray published;
+        private final long mask;
+        private final Thread thread;
+
+        /**
+         * Next sequence to claim
+         */
+        private final AtomicLong claimed = new AtomicLong();
+
+        /**
+         * Next sequence to deliver. Written by the thread of the lane only.
+         */
+        private volatile long consumed = 0;
+
+        private volatile boolean waiting = false;
+        private volatile long deliveredCount = 0;
+        private volatile long batchCount = 0;
+
+        Lane(int index, int capacity) {
+            ring = new JobEvent[capacity];
+            postTimes = new long[capacity];
+            published = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                published.set(i, -1);
+            }
+            mask = capacity - 1;
+
+            thread = new Thread(this, "job-events-" + index);
+            thread.setDaemon(true);
+        }
+
+        void publish(JobEvent event) {
+            long sequence;
+            while (true) {
+                sequence = claimed.get();
+                if (sequence - consumed >= ring.length) {
+                    if (Thread.currentThread() == thread) {
+                        deliver(Collections.singletonList(event));
+                        return;
+                    }
+                    if (!running) {
+                        // the ring will not be drained anymore
+                        logger.warn("Event {} dropped: the dispatcher is shut down", event.getEventType());
+                        return;
+                    }
+                    LockSupport.parkNanos(10_000);
+                    continue;
+                }
+                if (claimed.compareAndSet(sequence, sequence + 1)) {
+                    break;
+                }
+            }
+
+            int index = (int) (sequence & mask);
+            ring[index] = event;
+            postTimes[index] = System.nanoTime();
+            published.set(index, sequence);
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            List<JobEvent> batch = new ArrayList<>(MAX_BATCH);
+            while (true) {
+                long sequence = consumed;
+                int index = (int) (sequence & mask);
+                while (batch.size() < MAX_BATCH && published.get(index) == sequence) {
+                    batch.add(ring[index]);
+                    ring[index] = null;
+                    sequence++;
+                    index = (int) (sequence & mask);
+                }
+
+                if (batch.isEmpty()) {
+                    if (!running) {
+                        return;
+                    }
+                    waiting = true;
+                    if (published.get(index) != sequence) {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                    }
+                    waiting = false;
+                    continue;
+                }
+
+                // counted before the slots are released, so that an empty queue implies the count is up to date
+                deliveredCount += batch.size();
+                batchCount++;
+                consumed = sequence;
+                deliver(batch);
+                batch.clear();
+            }
+        }
+    }
+}
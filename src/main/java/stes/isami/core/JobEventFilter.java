@@ -0,0 +1,104 @@
+package stes.isami.core;
+
+import stes.isami.core.job.JobEvent;
+
+import java.util.*;
+
+/**
+ * Selects the events passed to a {@link JobListener}, see {@link Core#addJobListener(JobListener, JobEventFilter)}.
+ * <p>An event is selected if its type is one of the types, if it is about one of the jobs and, for STATE_CHANGED
+ * events, if the job has entered one of the states. An empty criterion selects everything. An event about several
+ * jobs is passed with the selected jobs only.</p>
+ * <br>Example: {@code new JobEventFilter().types(JobEventType.STATE_CHANGED).states(JobState.FINISHED, JobState.ERROR)}
+ */
+public class JobEventFilter {
+
+    private final EnumSet<JobEvent.JobEventType> types = EnumSet.noneOf(JobEvent.JobEventType.class);
+    private final Set<UUID> jobIDs = new HashSet<>();
+    private final Set<Integer> states = new HashSet<>();
+
+    public JobEventFilter() {}
+
+    private JobEventFilter(JobEventFilter filter) {
+        types.addAll(filter.types);
+        jobIDs.addAll(filter.jobIDs);
+        states.addAll(filter.states);
+    }
+
+    /**
+     * Select the events of these types
+     * @param eventTypes
+     * @return this filter
+     */
+    public JobEventFilter types(JobEvent.JobEventType... eventTypes) {
+        types.addAll(Arrays.asList(eventTypes));
+        return this;
+    }
+
+    /**
+     * Select the events of these jobs
+     * @param ids job IDs
+     * @return this filter
+     */
+    public JobEventFilter jobs(Collection<UUID> ids) {
+        jobIDs.addAll(ids);
+        return this;
+    }
+
+    /**
+     * Select the state changes to these states. The other types of events are not filtered by state.
+     * @param jobStates states from {@link stes.isami.core.job.JobState}
+     * @return this filter
+     */
+    public JobEventFilter states(int... jobStates) {
+        for (int state: jobStates) {
+            states.add(state);
+        }
+        return this;
+    }
+
+    public Set<JobEvent.JobEventType> getTypes() {
+        return Collections.unmodifiableSet(types);
+    }
+
+    public Set<UUID> getJobIDs() {
+        return Collections.unmodifiableSet(jobIDs);
+    }
+
+    public Set<Integer> getStates() {
+        return Collections.unmodifiableSet(states);
+    }
+
+    /**
+     * True if the event type is selected
+     */
+    boolean acceptsType(JobEvent.JobEventType type) {
+        return types.isEmpty() || types.contains(type);
+    }
+
+    /**
+     * True if the events are filtered by job
+     */
+    boolean hasJobs() {
+        return !jobIDs.isEmpty();
+    }
+
+    /**
+     * True if the state changes to the state are selected
+     * @param state state entered by the job or -1 if it is not known
+     */
+    boolean acceptsState(int state) {
+        return states.isEmpty() || states.contains(state);
+    }
+
+    boolean hasStates() {
+        return !states.isEmpty();
+    }
+
+    /**
+     * Copy of the filter, which is not changed by later calls on this filter
+     */
+    JobEventFilter copy() {
+        return new JobEventFilter(this);
+    }
+}
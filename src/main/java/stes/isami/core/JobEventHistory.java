@@ -0,0 +1,263 @@
+package stes.isami.core;
+
+import stes.isami.core.job.JobEvent;
+import stes.isami.core.job.JobStateChangedEvent;
+import stes.isami.core.job.ParameterUpdatedEvent;
+import stes.isami.core.journal.JobRecords;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Recent job events, kept off heap to be replayed to the listeners which attach late or fall behind.
+ * <p>Each recorded event gets the next sequence number. The events are written in a ring of bytes allocated out of
+ * the heap; the oldest events are evicted when the ring is full. The history holds the events numbered from
+ * {@link #getFirstSequence()} to {@link #getNextSequence()} - 1.</p>
+ * <p>A replayed event has the type and the job IDs of the event, the old and the new state of a STATE_CHANGED and the
+ * values of a {@link ParameterUpdatedEvent} supported by {@link JobRecords}. The job itself is not kept.</p>
+ */
+public class JobEventHistory {
+
+    private final Logger logger = LoggerFactory.getLogger(JobEventHistory.class);
+
+    private static final byte PLAIN_EVENT = 0;
+    private static final byte STATE_EVENT = 1;
+    private static final byte PARAMETER_EVENT = 2;
+
+    /**
+     * Smallest record: length, sequence, kind, type, one ID
+     */
+    private static final int MIN_RECORD_SIZE = 4 + 8 + 1 + 1 + 4 + 16;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+
+    /**
+     * Positions of the oldest and of the next record, counted since the creation
+     */
+    private long head = 0;
+    private long tail = 0;
+
+    /**
+     * Position of the records, by sequence modulo the length
+     */
+    private final long[] offsets;
+
+    private long firstSequence = 0;
+    private long nextSequence = 0;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    /**
+     * @param capacity size of the ring in bytes
+     */
+    public JobEventHistory(int capacity) {
+        if (capacity < MIN_RECORD_SIZE) {
+            throw new IllegalArgumentException("The capacity must be at least " + MIN_RECORD_SIZE + " bytes");
+        }
+
+        this.capacity = capacity;
+        buffer = ByteBuffer.allocateDirect(capacity);
+        offsets = new long[capacity / MIN_RECORD_SIZE];
+    }
+
+    /**
+     * Give the next sequence number to the event and record it
+     * @param event
+     * @return sequence number
+     */
+    public synchronized long record(JobEvent event) {
+        long sequence = nextSequence++;
+        event.setSequence(sequence);
+
+        byte[] record;
+        try {
+            record = encode(event);
+        } catch (IOException e) {
+            logger.error("Cannot record event {}: {}", sequence, e.toString());
+            record = null;
+        }
+
+        if (record == null || record.length + 4 > capacity) {
+            // the history cannot have a gap, it restarts after this event
+            head = tail;
+            firstSequence = nextSequence;
+            return sequence;
+        }
+
+        while (tail + 4 + record.length - head > capacity || nextSequence - firstSequence > offsets.length) {
+            head += 4 + readInt(head);
+            firstSequence++;
+        }
+
+        offsets[(int) (sequence % offsets.length)] = tail;
+        writeInt(tail, record.length);
+        write(tail + 4, record);
+        tail += 4 + record.length;
+        return sequence;
+    }
+
+    /**
+     * Read the events from a sequence number
+     * @param fromSequence first event to read
+     * @return events until the last one recorded, or null if some of them have been evicted
+     */
+    public synchronized List<JobEvent> read(long fromSequence) {
+        if (fromSequence < firstSequence) {
+            return null;
+        }
+
+        List<JobEvent> events = new ArrayList<>();
+        for (long sequence = fromSequence; sequence < nextSequence; sequence++) {
+            long offset = offsets[(int) (sequence % offsets.length)];
+            byte[] record = new byte[readInt(offset)];
+            read(offset + 4, record);
+            try {
+                events.add(decode(record));
+            } catch (IOException e) {
+                logger.error("Cannot read event {}: {}", sequence, e.toString());
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Sequence number of the oldest event of the history
+     */
+    public synchronized long getFirstSequence() {
+        return firstSequence;
+    }
+
+    /**
+     * Sequence number of the next event
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Number of bytes used by the events of the history
+     */
+    public synchronized long getSize() {
+        return tail - head;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /*****************************************************************************************************
+     *
+     *
+     *                                      PRIVATE
+     *
+     */
+
+    private byte[] encode(JobEvent event) throws IOException {
+        bytes.reset();
+        out.writeLong(event.getSequence());
+
+        if (event instanceof JobStateChangedEvent) {
+            out.writeByte(STATE_EVENT);
+        }
+        else if (event instanceof ParameterUpdatedEvent) {
+            out.writeByte(PARAMETER_EVENT);
+        }
+        else {
+            out.writeByte(PLAIN_EVENT);
+        }
+        out.writeByte(event.getEventType().ordinal());
+
+        List<UUID> ids = event.getId() != null ? Collections.singletonList(event.getId()) : event.getIds();
+        out.writeInt(ids == null ? 0 : ids.size());
+        if (ids != null) {
+            for (UUID id: ids) {
+                JobRecords.writeID(out, id);
+            }
+        }
+
+        if (event instanceof JobStateChangedEvent) {
+            out.writeInt(event.getOldState());
+            out.writeInt(event.getNewState());
+        }
+        else if (event instanceof ParameterUpdatedEvent) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> value: ((ParameterUpdatedEvent) event).getValues().entrySet()) {
+                if (JobRecords.isSupported(value.getValue())) {
+                    values.put(value.getKey(), value.getValue());
+                }
+            }
+            JobRecords.writeValues(out, values);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private JobEvent decode(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        long sequence = in.readLong();
+        byte kind = in.readByte();
+        JobEvent.JobEventType type = JobEvent.JobEventType.values()[in.readByte()];
+
+        int count = in.readInt();
+        List<UUID> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(JobRecords.readID(in));
+        }
+
+        JobEvent event;
+        if (kind == STATE_EVENT) {
+            event = new JobStateChangedEvent(ids.get(0), in.readInt(), in.readInt());
+        }
+        else if (kind == PARAMETER_EVENT) {
+            event = new ParameterUpdatedEvent(ids.get(0), JobRecords.readValues(in));
+        }
+        else if (count == 1) {
+            event = new JobEvent(ids.get(0), type);
+        }
+        else {
+            event = new JobEvent(ids, type);
+        }
+        event.setSequence(sequence);
+        return event;
+    }
+
+    private int readInt(long position) {
+        byte[] value = new byte[4];
+        read(position, value);
+        return ByteBuffer.wrap(value).getInt();
+    }
+
+    private void writeInt(long position, int value) {
+        write(position, ByteBuffer.allocate(4).putInt(value).array());
+    }
+
+    /**
+     * Write in the ring, in two parts if the end of the buffer is reached
+     */
+    private void write(long position, byte[] src) {
+        int index = (int) (position % capacity);
+        int first = Math.min(src.length, capacity - index);
+        buffer.position(index);
+        buffer.put(src, 0, first);
+        if (first < src.length) {
+            buffer.position(0);
+            buffer.put(src, first, src.length - first);
+        }
+    }
+
+    private void read(long position, byte[] dst) {
+        int index = (int) (position % capacity);
+        int first = Math.min(dst.length, capacity - index);
+        buffer.position(index);
+        buffer.get(dst, 0, first);
+        if (first < dst.length) {
+            buffer.position(0);
+            buffer.get(dst, first, dst.length - first);
+        }
+    }
+}
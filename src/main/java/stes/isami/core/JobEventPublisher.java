@@ -0,0 +1,104 @@
+package stes.isami.core;
+
+import stes.isami.core.flow.Flow;
+import stes.isami.core.job.JobEvent;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stream of the job events with backpressure, next to the {@link JobListener}s.
+ * <p>Each subscriber has its own bounded buffer, filled by the {@link JobEventDispatcher}, and gets the events on a
+ * thread of the publisher, as many as it requests. A slow subscriber fills its buffer only: according to its
+ * {@link JobEventSubscription.OverflowPolicy} its events are merged or dropped, or the dispatcher waits for it.</p>
+ */
+public class JobEventPublisher implements Flow.Publisher<JobEvent> {
+
+    /**
+     * Default size of the buffer of a subscriber
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final JobEventDispatcher dispatcher;
+    private final Set<JobEventSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "job-event-publisher-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * @param dispatcher dispatcher which fills the buffers of the subscribers
+     */
+    public JobEventPublisher(JobEventDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Subscribe to all the events, with a buffer of {@link #DEFAULT_CAPACITY} events which merges the updates
+     * @param subscriber
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super JobEvent> subscriber) {
+        subscribe(subscriber, null, DEFAULT_CAPACITY, JobEventSubscription.OverflowPolicy.COALESCE);
+    }
+
+    /**
+     * Subscribe to the events selected by the filter
+     * @param subscriber
+     * @param filter filter or null for all the events
+     * @param capacity size of the buffer of the subscriber
+     * @param policy what happens to the events when the buffer is full
+     * @return subscription
+     */
+    public JobEventSubscription subscribe(Flow.Subscriber<? super JobEvent> subscriber, JobEventFilter filter,
+                                          int capacity, JobEventSubscription.OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+
+        JobEventSubscription subscription = new JobEventSubscription(this, subscriber, executor, capacity, policy);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+        if (filter == null) {
+            dispatcher.addListener(subscription);
+        }
+        else {
+            dispatcher.addListener(subscription, filter);
+        }
+        return subscription;
+    }
+
+    /**
+     * Number of subscribers
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Complete the subscribers after their buffered events
+     */
+    public void close() {
+        for (JobEventSubscription subscription: subscriptions) {
+            unsubscribe(subscription);
+            subscription.complete();
+        }
+    }
+
+    void unsubscribe(JobEventSubscription subscription) {
+        if (subscriptions.remove(subscription)) {
+            dispatcher.removeListener(subscription);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package stes.isami.core;
+
+import stes.isami.core.flow.Flow;
+import stes.isami.core.job.JobEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Subscription of a subscriber of the {@link JobEventPublisher}.
+ * <p>The events selected for the subscriber are put in a bounded buffer by the threads of the
+ * {@link JobEventDispatcher}, then passed to the subscriber on a thread of the publisher, as long as it has requested
+ * them. When the buffer is full, the {@link OverflowPolicy} of the subscription applies.</p>
+ */
+public class JobEventSubscription implements Flow.Subscription, JobListener {
+
+    /**
+     * What happens to an event when the buffer of the subscriber is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * An UPDATE is merged with the UPDATE of the same job if it is the last event of the job in the buffer and it
+         * is not about other jobs.
+         * When the event cannot be merged, the oldest event is dropped.
+         */
+        COALESCE,
+        /**
+         * The oldest event is dropped
+         */
+        DROP_OLDEST,
+        /**
+         * The dispatcher waits for room in the buffer. The other listeners of the same lane wait too, and the jobs
+         * wait once the ring of the lane is full.
+         */
+        BLOCK
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(JobEventSubscription.class);
+
+    private final JobEventPublisher publisher;
+    private final Flow.Subscriber<? super JobEvent> subscriber;
+    private final Executor executor;
+    private final int capacity;
+    private final OverflowPolicy policy;
+
+    private final ArrayDeque<Slot> buffer = new ArrayDeque<>();
+
+    /**
+     * Last buffered event of each job, to merge the UPDATE events
+     */
+    private final Map<UUID, Slot> lastSlots = new HashMap<>();
+
+    private long requested = 0;
+    private long droppedCount = 0;
+    private boolean cancelled = false;
+    private boolean completed = false;
+    private boolean terminated = false;
+
+    /**
+     * Number of calls to {@link #drain()} since the last one which has found nothing to do
+     */
+    private final AtomicInteger pendingDrains = new AtomicInteger();
+
+    JobEventSubscription(JobEventPublisher publisher, Flow.Subscriber<? super JobEvent> subscriber, Executor executor,
+                         int capacity, OverflowPolicy policy) {
+        this.publisher = publisher;
+        this.subscriber = subscriber;
+        this.executor = executor;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            cancel();
+            subscriber.onError(new IllegalArgumentException("The number of requested events must be positive"));
+            return;
+        }
+
+        synchronized (this) {
+            requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+        }
+        signal();
+    }
+
+    @Override
+    public void cancel() {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            buffer.clear();
+            lastSlots.clear();
+            notifyAll();
+        }
+        publisher.unsubscribe(this);
+    }
+
+    @Override
+    public void onJobEvent(JobEvent event) {
+        onJobEvents(Collections.singletonList(event));
+    }
+
+    @Override
+    public void onJobEvents(List<JobEvent> events) {
+        synchronized (this) {
+            for (JobEvent event: events) {
+                offer(event);
+            }
+        }
+        signal();
+    }
+
+    /**
+     * Number of events dropped because the buffer was full
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Number of events waiting in the buffer
+     */
+    public synchronized int getBufferedCount() {
+        return buffer.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Pass the buffered events, then complete the subscriber
+     */
+    void complete() {
+        synchronized (this) {
+            completed = true;
+        }
+        signal();
+    }
+
+    /*****************************************************************************************************
+     *
+     *
+     *                                      PRIVATE
+     *
+     */
+
+    private void offer(JobEvent event) {
+        if (cancelled || completed) {
+            return;
+        }
+
+        UUID id = event.getId();
+        if (policy == OverflowPolicy.COALESCE && id != null && event.getEventType() == JobEvent.JobEventType.UPDATE) {
+            // an UPDATE of several jobs is kept as it is, the merged event would lose the other jobs
+            Slot lastSlot = lastSlots.get(id);
+            if (lastSlot != null && lastSlot.event.getId() != null && lastSlot.event.getEventType() == JobEvent.JobEventType.UPDATE) {
+                lastSlot.event = CoalescingJobListener.merge(lastSlot.event, event);
+                return;
+            }
+        }
+
+        while (buffer.size() >= capacity) {
+            if (policy == OverflowPolicy.BLOCK) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (cancelled) {
+                    return;
+                }
+            }
+            else {
+                removeSlot(buffer.poll());
+                droppedCount++;
+            }
+        }
+
+        Slot slot = new Slot(event);
+        buffer.add(slot);
+        if (policy == OverflowPolicy.COALESCE) {
+            for (UUID jobID: idsOf(event)) {
+                lastSlots.put(jobID, slot);
+            }
+        }
+    }
+
+    private void removeSlot(Slot slot) {
+        if (policy == OverflowPolicy.COALESCE) {
+            for (UUID jobID: idsOf(slot.event)) {
+                lastSlots.remove(jobID, slot);
+            }
+        }
+    }
+
+    private static List<UUID> idsOf(JobEvent event) {
+        if (event.getId() != null) {
+            return Collections.singletonList(event.getId());
+        }
+        return event.getIds() == null ? Collections.emptyList() : event.getIds();
+    }
+
+    private void signal() {
+        if (pendingDrains.getAndIncrement() == 0) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Pass the events to the subscriber. Only one thread drains at a time.
+     */
+    private void drain() {
+        int missed = 1;
+        do {
+            while (true) {
+                JobEvent event;
+                synchronized (this) {
+                    if (cancelled || terminated) {
+                        break;
+                    }
+                    if (buffer.isEmpty()) {
+                        if (completed) {
+                            terminated = true;
+                            event = null;
+                        }
+                        else {
+                            break;
+                        }
+                    }
+                    else if (requested == 0) {
+                        break;
+                    }
+                    else {
+                        Slot slot = buffer.poll();
+                        removeSlot(slot);
+                        event = slot.event;
+                        if (requested != Long.MAX_VALUE) {
+                            requested--;
+                        }
+                        notifyAll();
+                    }
+                }
+
+                if (event == null) {
+                    subscriber.onComplete();
+                    break;
+                }
+
+                try {
+                    subscriber.onNext(event);
+                } catch (RuntimeException e) {
+                    logger.error("Job event subscriber {}: {}", subscriber, e.toString());
+                    cancel();
+                    subscriber.onError(e);
+                    break;
+                }
+            }
+            missed = pendingDrains.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Place of an event in the buffer. The event is replaced when it is merged.
+     */
+    private static final class Slot {
+        private JobEvent event;
+
+        Slot(JobEvent event) {
+            this.event = event;
+        }
+    }
+}
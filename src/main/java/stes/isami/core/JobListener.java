@@ -2,6 +2,8 @@ package stes.isami.core;
 
 import stes.isami.core.job.JobEvent;
 
+import java.util.List;
+
 /**
  * Interface for listen to the job events.
  * The job is sending events when the status has changed or a module has been finished running
@@ -9,4 +11,15 @@ import stes.isami.core.job.JobEvent;
 public interface JobListener {
 
    void onJobEvent(JobEvent event);
+
+   /**
+    * Receive a batch of events, in the order of the events of each job.
+    * The list is reused after the call, it must not be kept.
+    * @param events
+    */
+   default void onJobEvents(List<JobEvent> events) {
+      for (JobEvent event: events) {
+         onJobEvent(event);
+      }
+   }
 }
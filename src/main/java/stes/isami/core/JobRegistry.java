@@ -0,0 +1,363 @@
+package stes.isami.core;
+
+import stes.isami.core.job.Job;
+import stes.isami.core.journal.ArchivedJob;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Thread safe registry of the jobs of the {@link CoreEngine}, keyed by the job ID.
+ * <p>A job being deleted is marked for deletion: it stays in the registry until it has stopped, but it is
+ * not returned by the lookups of active jobs anymore. The lookups are O(1). The iterations are weakly
+ * consistent: they never throw {@link java.util.ConcurrentModificationException} and they may or may not
+ * see the jobs added or removed during the iteration.</p>
+ * <p>The jobs are indexed by state, by batchID and by name. The indexes are updated by {@link #update(Job)}, which
+ * must be called after every state transition and every parameter update of the job.</p>
+ * <p>A job moved to the archive is replaced by its {@link ArchivedJob} stub. It is still counted and listed by ID,
+ * but it is not returned by the lookups until it is put back with {@link #unarchive(Job)}.</p>
+ */
+class JobRegistry {
+
+    private final ConcurrentHashMap<UUID, Job> jobs = new ConcurrentHashMap<>();
+    private final Set<UUID> markedForDeletion = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<UUID, ArchivedJob> archivedJobs = new ConcurrentHashMap<>();
+
+    /**
+     * Values under which each job is indexed
+     */
+    private final ConcurrentHashMap<UUID, IndexEntry> indexEntries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Set<UUID>> stateIndex = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, UUID> batchIDIndex = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, Set<UUID>> nameIndex = new ConcurrentSkipListMap<>();
+
+    /**
+     * Add a job
+     * @param job
+     * @return false if a job with the same ID is already registered
+     */
+    boolean add(Job job) {
+        UUID id = job.getID();
+        IndexEntry newEntry = new IndexEntry();
+
+        // the job is published under the lock of its index entry, so that a concurrent remove sees both or none
+        IndexEntry entry = indexEntries.compute(id, (k, e) -> {
+            if (e != null || archivedJobs.containsKey(id) || jobs.putIfAbsent(id, job) != null) {
+                return e;
+            }
+            return newEntry;
+        });
+        if (entry != newEntry) {
+            return false;
+        }
+
+        update(job);
+        return true;
+    }
+
+    /**
+     * Update the indexes of a job
+     * @param job
+     */
+    void update(Job job) {
+        IndexEntry entry = indexEntries.get(job.getID());
+        if (entry == null) {
+            return;
+        }
+
+        synchronized (entry) {
+            if (entry.removed) {
+                return;
+            }
+
+            int state = job.getState();
+            if (!entry.indexed || state != entry.state) {
+                if (entry.indexed) {
+                    removeFrom(stateIndex, entry.state, job.getID());
+                }
+                addTo(stateIndex, state, job.getID());
+                entry.state = state;
+            }
+
+            String batchID = job.getBatchID();
+            if (!Objects.equals(batchID, entry.batchID)) {
+                if (entry.batchID != null) {
+                    batchIDIndex.remove(entry.batchID, job.getID());
+                }
+                if (batchID != null) {
+                    batchIDIndex.put(batchID, job.getID());
+                }
+                entry.batchID = batchID;
+            }
+
+            String name = job.getName();
+            if (!Objects.equals(name, entry.name)) {
+                if (entry.name != null) {
+                    removeFrom(nameIndex, entry.name, job.getID());
+                }
+                if (name != null) {
+                    addTo(nameIndex, name, job.getID());
+                }
+                entry.name = name;
+            }
+
+            entry.indexed = true;
+        }
+    }
+
+    /**
+     * Get an active job
+     * @param id
+     * @return job or null if the job does not exist or it is marked for deletion
+     */
+    Job get(UUID id) {
+        Job job = jobs.get(id);
+        if (job == null || markedForDeletion.contains(id)) {
+            return null;
+        }
+        return job;
+    }
+
+    /**
+     * Get a job, even if it is marked for deletion
+     * @param id
+     * @return job or null
+     */
+    Job getAny(UUID id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Remove a job from the registry
+     * @param id
+     * @return removed job or null
+     */
+    Job remove(UUID id) {
+        Job[] removedJob = new Job[1];
+        indexEntries.compute(id, (k, entry) -> {
+            if (entry != null) {
+                synchronized (entry) {
+                    entry.removed = true;
+                    if (entry.indexed) {
+                        removeFrom(stateIndex, entry.state, id);
+                    }
+                    if (entry.batchID != null) {
+                        batchIDIndex.remove(entry.batchID, id);
+                    }
+                    if (entry.name != null) {
+                        removeFrom(nameIndex, entry.name, id);
+                    }
+                }
+            }
+            removedJob[0] = jobs.remove(id);
+            return null;
+        });
+
+        markedForDeletion.remove(id);
+        archivedJobs.remove(id);
+        return removedJob[0];
+    }
+
+    /**
+     * Replace the job by its archive stub. The job keeps its index entries.
+     * @param job
+     * @param archivedJob
+     * @return false if the job is not registered or it is marked for deletion
+     */
+    boolean archive(Job job, ArchivedJob archivedJob) {
+        if (markedForDeletion.contains(job.getID())) {
+            return false;
+        }
+
+        // the stub is put first so that the job is always found
+        archivedJobs.put(job.getID(), archivedJob);
+        if (!jobs.remove(job.getID(), job)) {
+            archivedJobs.remove(job.getID(), archivedJob);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Put back an archived job
+     * @param job job reloaded from the archive
+     * @return the registered job, which is another instance if the job has been put back meanwhile
+     */
+    Job unarchive(Job job) {
+        Job registeredJob = jobs.putIfAbsent(job.getID(), job);
+        archivedJobs.remove(job.getID());
+        return registeredJob == null ? job : registeredJob;
+    }
+
+    /**
+     * Get the stub of an archived job
+     * @param id
+     * @return stub or null if the job is not archived
+     */
+    ArchivedJob getArchived(UUID id) {
+        return archivedJobs.get(id);
+    }
+
+    boolean isArchived(UUID id) {
+        return archivedJobs.containsKey(id);
+    }
+
+    /**
+     * Number of archived jobs
+     */
+    int archivedCount() {
+        return archivedJobs.size();
+    }
+
+    /**
+     * Mark a job for deletion
+     * @param id
+     * @return false if the job does not exist
+     */
+    boolean markForDeletion(UUID id) {
+        if (!jobs.containsKey(id)) {
+            return false;
+        }
+        markedForDeletion.add(id);
+        return true;
+    }
+
+    boolean isMarkedForDeletion(UUID id) {
+        return markedForDeletion.contains(id);
+    }
+
+    /**
+     * True if the job exists, in memory or archived, and it is not marked for deletion
+     */
+    boolean contains(UUID id) {
+        return archivedJobs.containsKey(id) || (jobs.containsKey(id) && !markedForDeletion.contains(id));
+    }
+
+    /**
+     * Number of active jobs, archived jobs included
+     */
+    int count() {
+        return Math.max(0, jobs.size() - markedForDeletion.size()) + archivedJobs.size();
+    }
+
+    /**
+     * Get the active jobs
+     * @return snapshot of the jobs not marked for deletion
+     */
+    List<Job> getActiveJobs() {
+        List<Job> activeJobs = new ArrayList<>(jobs.size());
+        for (Job job: jobs.values()) {
+            if (!markedForDeletion.contains(job.getID())) {
+                activeJobs.add(job);
+            }
+        }
+        return activeJobs;
+    }
+
+    /**
+     * Get the active jobs in one of the states
+     * @param states
+     * @return jobs
+     */
+    List<Job> getByState(int... states) {
+        List<Job> result = new ArrayList<>();
+        for (int state: states) {
+            Set<UUID> ids = stateIndex.get(state);
+            if (ids != null) {
+                collect(ids, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the active job submitted with the batchID
+     * @param batchID
+     * @return job or null
+     */
+    Job getByBatchID(String batchID) {
+        UUID id = batchIDIndex.get(batchID);
+        return id == null ? null : get(id);
+    }
+
+    /**
+     * Get the active jobs whose name starts with the prefix
+     * @param prefix
+     * @return jobs sorted by name
+     */
+    List<Job> getByNamePrefix(String prefix) {
+        List<Job> result = new ArrayList<>();
+        for (Map.Entry<String, Set<UUID>> entry: nameIndex.tailMap(prefix).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            collect(entry.getValue(), result);
+        }
+        return result;
+    }
+
+    /**
+     * Get the IDs of the active jobs
+     * @return snapshot of the IDs of the jobs not marked for deletion, archived jobs included
+     */
+    ArrayList<UUID> getActiveIDs() {
+        ArrayList<UUID> ids = new ArrayList<>(jobs.size() + archivedJobs.size());
+        for (UUID id: jobs.keySet()) {
+            if (!markedForDeletion.contains(id)) {
+                ids.add(id);
+            }
+        }
+        for (UUID id: archivedJobs.keySet()) {
+            if (!jobs.containsKey(id)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /*****************************************************************************************************
+     *
+     *
+     *                                      PRIVATE
+     *
+     */
+
+    private void collect(Set<UUID> ids, List<Job> result) {
+        for (UUID id: ids) {
+            Job job = get(id);
+            if (job != null) {
+                result.add(job);
+            }
+        }
+    }
+
+    private static <K> void addTo(ConcurrentMap<K, Set<UUID>> index, K key, UUID id) {
+        index.compute(key, (k, ids) -> {
+            if (ids == null) {
+                ids = ConcurrentHashMap.newKeySet();
+            }
+            ids.add(id);
+            return ids;
+        });
+    }
+
+    private static <K> void removeFrom(ConcurrentMap<K, Set<UUID>> index, K key, UUID id) {
+        index.computeIfPresent(key, (k, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    /**
+     * Values under which a job is indexed
+     */
+    private static class IndexEntry {
+        boolean indexed = false;
+        boolean removed = false;
+        int state;
+        String batchID;
+        String name;
+    }
+}
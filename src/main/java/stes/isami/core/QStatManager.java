@@ -1,49 +1,110 @@
 package stes.isami.core;
 
-import com.sshtools.ssh.SshException;
 import stes.isami.core.job.Job;
+import stes.isami.core.job.JobState;
 import stes.isami.core.modules.MethodResult;
-import stes.isami.core.modules.ModuleException;
+import stes.isami.core.modules.qstat.QStatMethodResult;
 import stes.isami.core.modules.qstat.QStatModule;
+import stes.isami.core.modules.qstat.QStatParser;
+import stes.isami.core.modules.qstat.QStatRecord;
+import stes.isami.core.modules.qstat.QStatScope;
 import stes.isami.core.parameters.parametertypes.StringParameter;
 import stes.isami.core.ssh.SshRemoteFactory;
+import stes.isami.core.tasks.JobDispatcher;
 import stes.isami.core.tasks.ModuleExecutor;
-import stes.isami.core.tasks.ModuleTask;
+import stes.isami.core.tasks.SshModuleTask;
+import stes.isami.core.util.TimeSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Class to handle the qstat messages. It creates a qstat module every 10second.
- * <br>The creation of the module is conditioned by the receving the output from the last module created.
- * <br> If, after 10s, the output has not arrived from the executor delay the execution of the new module until
- * the output has arrived
+ * Class to handle the qstat messages. It executes a qstat module periodically.
+ * <br>The next module is scheduled only when the output from the last module has arrived, so two modules never run
+ * at the same time. The interval between two modules is computed by the {@link QStatPollingPolicy} from the number
+ * of jobs in flight, the last changes in the batch system and the duration of the last call.
+ * <br>The output is parsed once by the qstat method and compared with the previous one. A job in the batch system
+ * receives its record only when it has appeared, disappeared or changed. If neither the output nor the jobs
+ * have changed, nothing is done for the jobs.
+ * <br>The query is limited to the jobs of the user, or to the tracked jobs when there are only a few of them.
+ * The choice is made by the {@link QStatQueryPlanner}.
  */
 public class QStatManager {
 
-    private final int fireInterval = 10;
+    /**
+     * Run qstat in xml mode
+     */
+    private volatile boolean xmlMode = true;
+
+    /**
+     * Limit the query to the jobs of the user or to the tracked jobs
+     */
+    private volatile boolean scoped = true;
+
+    /**
+     * Time in ms during which qstat may return an empty output before the polling stops
+     */
+    public static final long MISS_WINDOW = 30000;
 
     /**
-     * Count how many empty output we received from qstat
-     * <br>If missFired = 0, stop the timer
+     * Time of the start of the polling or of the last non empty output from qstat, in ms of the {@link TimeSource}.
+     * <br>The polling stops when qstat has returned only empty outputs for {@link #MISS_WINDOW} ms.
      */
-    private int missFired = 3;
+    private volatile long lastOutputTime;
     private final CoreEngine core;
     private ModuleExecutor executor;
-    private Timer timer;
     private UUID id = UUID.randomUUID();
     private final Logger logger = LoggerFactory.getLogger(QStatManager.class);
 
     /**
-     * If the flag is set to true, a new module can be executed
+     * Marks the jobs missing from the output
      */
-    private boolean qstatFlag = false;
+    private static final QStatRecord MISSING = new QStatRecord("", "", "", 0, 0, 0);
+
+    /**
+     * Fires the batch triggers of the jobs
+     */
+    private final JobDispatcher dispatcher = new JobDispatcher("qstat-dispatcher",2,1000);
+
+    private final QStatPollingPolicy pollingPolicy = new QStatPollingPolicy();
+
+    private final QStatQueryPlanner queryPlanner = new QStatQueryPlanner();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "qstat-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private ScheduledFuture<?> nextPoll;
+    private boolean running = false;
+
+    /**
+     * True while a qstat module is executed
+     */
+    private boolean polling = false;
+
+    /**
+     * Previous qstat records, used to detect changes
+     */
+    private Map<String,QStatRecord> lastRecords = Collections.emptyMap();
+    private volatile boolean changed = false;
+
+    /**
+     * Last record delivered to each job in the batch system
+     */
+    private final Map<UUID,QStatRecord> delivered = new ConcurrentHashMap<>();
+
+    /**
+     * Set when a job has changed state since the last output
+     */
+    private final AtomicBoolean jobsChanged = new AtomicBoolean(true);
+    private volatile int lastDeltaSize = 0;
+    private volatile int jobsInFlight = 0;
+    private volatile long lastCallCost = 0;
 
     public QStatManager(CoreEngine core, ModuleExecutor executor) {
         this.executor = executor;
@@ -51,71 +112,238 @@ public class QStatManager {
     }
 
     /**
-     * Start the timer. The timer is set to fireInterval value
+     * Start the polling. If the polling is already started and waiting, the next call is brought forward
+     * to the minimum interval so the new jobs are seen quickly.
      */
-    public void start() {
-
-        if (timer == null) {
+    public synchronized void start() {
 
-            missFired = 3;
-            qstatFlag = true;
+        if (!running) {
+            running = true;
+            lastOutputTime = TimeSource.get().millis();
+            schedule(pollingPolicy.reset());
+            logger.debug("Polling started. Interval: {}ms", pollingPolicy.getCurrentInterval());
+        }
+        else if (!polling && pollingPolicy.getCurrentInterval() > pollingPolicy.getMinInterval()) {
+            schedule(pollingPolicy.reset());
+        }
+    }
 
-            timer = new Timer();
-            timer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    executeQStatModule();
-                }
-            }, fireInterval * 1000, fireInterval * 1000);
+    /**
+     * Stop the polling
+     */
+    public synchronized void stop() {
 
-            logger.debug("Timer started. Interval: {}s", fireInterval);
+        if (running) {
+            running = false;
+            if (nextPoll != null) {
+                nextPoll.cancel(false);
+                nextPoll = null;
+            }
+            logger.debug("Polling stopped");
         }
     }
 
     /**
-     * Stop the timer
+     * Select the output format of qstat. The xml output is parsed by name and does not depend on the column layout.
+     * @param xmlMode true to run {@code qstat -xml}
+     */
+    public void setXmlMode(boolean xmlMode) {
+        this.xmlMode = xmlMode;
+    }
+
+    public boolean isXmlMode() {
+        return xmlMode;
+    }
+
+    /**
+     * If true, qstat is limited to the jobs of the user or to the tracked jobs. Otherwise every job is listed.
+     * @param scoped
+     */
+    public void setScoped(boolean scoped) {
+        this.scoped = scoped;
+    }
+
+    public boolean isScoped() {
+        return scoped;
+    }
+
+    public QStatQueryPlanner getQueryPlanner() {
+        return queryPlanner;
+    }
+
+    /**
+     * Current interval between two qstat calls in ms
+     */
+    public long getCurrentInterval() {
+        return pollingPolicy.getCurrentInterval();
+    }
+
+    /**
+     * Duration of the last qstat call in ms
      */
-    public void stop() {
+    public long getLastCallCost() {
+        return lastCallCost;
+    }
 
-        if (timer != null) {
-            timer.cancel();
-            timer = null;
-            qstatFlag = false;
-            logger.debug("Timer stopped");
+    /**
+     * Number of jobs which received a record from the last output
+     */
+    public int getLastDeltaSize() {
+        return lastDeltaSize;
+    }
+
+    public QStatPollingPolicy getPollingPolicy() {
+        return pollingPolicy;
+    }
+
+    /**
+     * Stop the polling and the dispatcher
+     */
+    public void shutdown() {
+        stop();
+        scheduler.shutdownNow();
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Notify that a job has changed state. A job which has been (re)submitted will receive its next record
+     * even if the output has not changed.
+     * @param jobID
+     */
+    public void jobStateChanged(UUID jobID) {
+        Job job = core.getJob(jobID);
+        if (job == null || job.getState() == JobState.SUBMITTED) {
+            delivered.remove(jobID);
         }
+        jobsChanged.set(true);
     }
 
     /**
-     * Distribute the output from qstat to every job
+     * Distribute the output from qstat to the jobs in the batch system.
+     * <p>The output has been parsed once into a batchID - record map. Only the jobs which are in the batch system
+     * and whose record differs from the last one they received get their record, or null if their batchID is not
+     * in the output. The triggers are fired by the dispatcher.</p>
      * @param qstatOutput
      */
     public void receiveOutput(MethodResult qstatOutput) {
 
-        //rise the flag
-        qstatFlag = true;
-        for (UUID id: core.getJobIDList()) {
-            Job job = core.getJob(id);
-            job.setQstatResult(qstatOutput);
-        }
-
         //check the content
         if (qstatOutput.getExitCode() == 0) {
 
-            StringParameter qstatOutputP = qstatOutput.getResultParameters().getParameter("qstatOutput");
-            if (qstatOutputP.getValue().isEmpty()) {
-                missFired--;
+            Map<String,QStatRecord> records = getRecords(qstatOutput);
+            QStatScope scope = QStatScope.all();
+            if (qstatOutput instanceof QStatMethodResult) {
+                QStatMethodResult result = (QStatMethodResult) qstatOutput;
+                scope = result.getScope();
+                queryPlanner.record(scope, result.getOutputSize(), records.size(), result.isXml());
+            }
+
+            changed = !records.equals(lastRecords);
+            lastRecords = records;
+
+            boolean jobsHaveChanged = jobsChanged.getAndSet(false);
+            if (changed || jobsHaveChanged || hasMissingJobs()) {
+                dispatchRecords(records, scope);
             }
             else {
-                missFired = 3;
+                lastDeltaSize = 0;
+            }
+
+            if (!records.isEmpty()) {
+                lastOutputTime = TimeSource.get().millis();
+            }
+            else if (TimeSource.get().millis() - lastOutputTime >= MISS_WINDOW) {
+                stop();
             }
         }
         else {
             logger.error("QStat error. Stopping qstat modules");
             stop();
         }
+    }
 
-        if (missFired == 0) {
-            stop();
+    /**
+     * Send to the jobs in the batch system their qstat record if it has changed.
+     * <br>A job missing from the output receives null at every output, until its miss fires are consumed.
+     * A job outside the scope of the query is left untouched.
+     * @param records map batchID - qstat record
+     * @param scope scope of the query
+     */
+    private void dispatchRecords(Map<String,QStatRecord> records, QStatScope scope) {
+        int count = 0;
+        int deltaSize = 0;
+        Set<UUID> tracked = new HashSet<>();
+        for (Job job: core.getJobsByState(JobState.batchStates())) {
+            String batchID = job.getBatchID();
+            if (batchID == null) {
+                continue;
+            }
+
+            count++;
+            tracked.add(job.getID());
+            if (!scope.contains(batchID)) {
+                continue;
+            }
+
+            QStatRecord record = records.get(batchID);
+            if (record == null) {
+                delivered.put(job.getID(), MISSING);
+            }
+            else if (record.equals(delivered.get(job.getID()))) {
+                continue;
+            }
+            else {
+                delivered.put(job.getID(), record);
+            }
+
+            deltaSize++;
+            dispatcher.dispatch(job.getID(), () -> job.setBatchStatus(record));
+        }
+
+        delivered.keySet().retainAll(tracked);
+        jobsInFlight = count;
+        lastDeltaSize = deltaSize;
+    }
+
+    private boolean hasMissingJobs() {
+        return delivered.containsValue(MISSING);
+    }
+
+    private Map<String,QStatRecord> getRecords(MethodResult qstatOutput) {
+        if (qstatOutput instanceof QStatMethodResult) {
+            return ((QStatMethodResult) qstatOutput).getRecords();
+        }
+
+        StringParameter qstatOutputP = qstatOutput.getResultParameters().getParameter("qstatOutput");
+        return QStatParser.parse(qstatOutputP.getValue());
+    }
+
+    /**
+     * Schedule the next qstat module. A pending module is replaced.
+     * @param delay in ms of the {@link TimeSource}
+     */
+    private synchronized void schedule(long delay) {
+        if (!running || scheduler.isShutdown()) {
+            return;
+        }
+
+        if (nextPoll != null) {
+            nextPoll.cancel(false);
+        }
+        nextPoll = scheduler.schedule(this::executeQStatModule, TimeSource.get().toRealDelay(delay), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called when the module has completed. Compute the next interval and schedule the next module.
+     */
+    private void onModuleCompleted(long startTime) {
+        lastCallCost = TimeSource.get().millis() - startTime;
+        long delay = pollingPolicy.nextInterval(jobsInFlight, changed, lastCallCost);
+        logger.debug("QStat call took {}ms. Next call in {}ms", lastCallCost, delay);
+
+        synchronized (this) {
+            polling = false;
+            schedule(delay);
         }
     }
 
@@ -123,41 +351,64 @@ public class QStatManager {
      * Execute the module
      */
     private void executeQStatModule() {
-        if (qstatFlag) {
-            try {
-                ThreadPoolExecutor executor =  ModuleExecutor.getSshPoolExecutor();
-                QStatModule qStatModule = createModule();
-                ModuleTask task = qStatModule.runModule(UUID.randomUUID(), SshRemoteFactory.getSshClient(),null);
-
-                try {
-                    CompletableFuture<Void> completableFuture = CompletableFuture.supplyAsync(task, executor)
-                            .thenAccept(methodResult -> {
-                                receiveOutput(methodResult);
-                            });
-
-                    completableFuture.exceptionally((th) -> null);
-                }
-                catch (RejectedExecutionException ex) {
-                    logger.debug("Executor rejected execution of QStatmodule");
-                    return;
-                }
-
-                qstatFlag = false;
-            } catch (ModuleException e) {
-                e.printStackTrace();
-            } catch (SshException e) {
-                logger.error("Error executing module: {}",e.getMessage());
+        synchronized (this) {
+            if (!running || polling) {
+                return;
+            }
+            nextPoll = null;
+
+            if (SshRemoteFactory.getConnectionPool() == null) {
+                logger.error("Error executing module: the client is either not connected or not autenticated");
                 stop();
+                return;
             }
+            polling = true;
         }
-        else {
-            logger.debug("QStat flag is down. Cannot execute module");
+
+        ThreadPoolExecutor executor =  ModuleExecutor.getSshPoolExecutor();
+        QStatModule qStatModule = createModule(scoped ? queryPlanner.plan(getTrackedBatchIDs()) : QStatScope.all());
+        SshModuleTask task = new SshModuleTask(qStatModule,UUID.randomUUID(),null);
+        long startTime = TimeSource.get().millis();
+
+        try {
+            CompletableFuture.supplyAsync(task, executor)
+                    .whenComplete((methodResult, th) -> {
+                        try {
+                            if (methodResult != null) {
+                                receiveOutput(methodResult);
+                            }
+                            else {
+                                logger.error("QStat module failed: {}", th.toString());
+                            }
+                        }
+                        finally {
+                            onModuleCompleted(startTime);
+                        }
+                    });
+        }
+        catch (RejectedExecutionException ex) {
+            logger.debug("Executor rejected execution of QStatmodule");
+            onModuleCompleted(startTime);
+        }
+    }
+
+    /**
+     * Get the batchIDs of the jobs in the batch system
+     */
+    private List<String> getTrackedBatchIDs() {
+        List<String> batchIDs = new ArrayList<>();
+        for (Job job: core.getJobsByState(JobState.batchStates())) {
+            String batchID = job.getBatchID();
+            if (batchID != null) {
+                batchIDs.add(batchID);
+            }
         }
+        return batchIDs;
     }
 
-    private QStatModule createModule() {
-        logger.debug("QStat module created");
-        QStatModule qStatModule = new QStatModule("/opt/sge/bin/lx24-amd64/qstat");
+    private QStatModule createModule(QStatScope scope) {
+        logger.debug("QStat module created. Scope: {}", scope);
+        QStatModule qStatModule = new QStatModule("/opt/sge/bin/lx24-amd64/qstat", xmlMode, scope);
         return qStatModule;
     }
 }
@@ -0,0 +1,159 @@
+package stes.isami.core;
+
+import stes.isami.core.util.TimeSource;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compute the interval between two qstat calls.
+ * <p>The interval is reset to the minimum when the batch system has changed recently. Otherwise it grows by
+ * {@code backoff} after every quiet poll, up to {@code fewJobsInterval} when only a few jobs are in flight and up to
+ * {@code maxInterval} otherwise. It is never shorter than {@code costFactor} times the duration of the last call,
+ * so qstat does not take more than a fraction of the time of the submit host.</p>
+ * <p>A jitter is added to the delay returned to the scheduler, the current interval is kept without jitter.
+ * The times are read from the {@link TimeSource} of the engine.</p>
+ */
+public class QStatPollingPolicy {
+
+    public static final long DEFAULT_MIN_INTERVAL = 2000;
+    public static final long DEFAULT_FEW_JOBS_INTERVAL = 10000;
+    public static final long DEFAULT_MAX_INTERVAL = 60000;
+
+    /**
+     * Number of jobs in flight under which the interval is bounded by {@code fewJobsInterval}
+     */
+    private int fewJobs = 10;
+
+    /**
+     * A change older than this window does not keep the interval at the minimum
+     */
+    private long recentChangeWindow = 30000;
+
+    private double backoff = 1.5;
+    private int costFactor = 10;
+    private double jitter = 0.1;
+
+    private final long minInterval;
+    private final long fewJobsInterval;
+    private final long maxInterval;
+
+    private long currentInterval;
+    private long lastChangeTime = 0;
+    private int lastJobsInFlight = 0;
+
+    public QStatPollingPolicy() {
+        this(DEFAULT_MIN_INTERVAL, DEFAULT_FEW_JOBS_INTERVAL, DEFAULT_MAX_INTERVAL);
+    }
+
+    /**
+     * @param minInterval minimum interval in ms
+     * @param fewJobsInterval maximum interval in ms when only a few jobs are in flight
+     * @param maxInterval maximum interval in ms
+     */
+    public QStatPollingPolicy(long minInterval, long fewJobsInterval, long maxInterval) {
+        if (minInterval <= 0 || fewJobsInterval < minInterval || maxInterval < fewJobsInterval) {
+            throw new IllegalArgumentException("Invalid polling intervals");
+        }
+
+        this.minInterval = minInterval;
+        this.fewJobsInterval = fewJobsInterval;
+        this.maxInterval = maxInterval;
+        this.currentInterval = minInterval;
+    }
+
+    /**
+     * Compute the interval after a qstat call
+     * @param jobsInFlight number of jobs in the batch system
+     * @param changed true if the qstat output has changed since the last call
+     * @param callCost duration of the call in ms
+     * @return delay before the next call in ms, jitter included
+     */
+    public synchronized long nextInterval(int jobsInFlight, boolean changed, long callCost) {
+        long now = TimeSource.get().millis();
+        if (changed || jobsInFlight > lastJobsInFlight) {
+            lastChangeTime = now;
+        }
+        lastJobsInFlight = jobsInFlight;
+
+        long interval;
+        if (now - lastChangeTime < recentChangeWindow) {
+            interval = minInterval;
+        }
+        else {
+            long cap = jobsInFlight <= fewJobs ? fewJobsInterval : maxInterval;
+            interval = Math.min((long) (currentInterval * backoff), cap);
+        }
+
+        interval = Math.max(interval, callCost * costFactor);
+        currentInterval = Math.max(minInterval, Math.min(interval, maxInterval));
+
+        return withJitter(currentInterval);
+    }
+
+    /**
+     * Reset the interval to the minimum. It is called when new jobs are submitted.
+     * @return delay before the next call in ms, jitter included
+     */
+    public synchronized long reset() {
+        lastChangeTime = TimeSource.get().millis();
+        currentInterval = minInterval;
+        return withJitter(currentInterval);
+    }
+
+    /**
+     * Current interval in ms, without jitter
+     */
+    public synchronized long getCurrentInterval() {
+        return currentInterval;
+    }
+
+    public long getMinInterval() {
+        return minInterval;
+    }
+
+    public long getMaxInterval() {
+        return maxInterval;
+    }
+
+    public synchronized void setFewJobs(int fewJobs) {
+        this.fewJobs = fewJobs;
+    }
+
+    public synchronized void setRecentChangeWindow(long recentChangeWindow) {
+        this.recentChangeWindow = recentChangeWindow;
+    }
+
+    public synchronized void setBackoff(double backoff) {
+        if (backoff < 1) {
+            throw new IllegalArgumentException("Backoff must be greater or equal to 1");
+        }
+        this.backoff = backoff;
+    }
+
+    public synchronized void setCostFactor(int costFactor) {
+        this.costFactor = costFactor;
+    }
+
+    public synchronized void setJitter(double jitter) {
+        if (jitter < 0 || jitter >= 1) {
+            throw new IllegalArgumentException("Jitter must be in [0,1)");
+        }
+        this.jitter = jitter;
+    }
+
+    /*****************************************************************************************************
+     *
+     *
+     *                                      PRIVATE
+     *
+     */
+
+    private long withJitter(long interval) {
+        if (jitter == 0) {
+            return interval;
+        }
+
+        double factor = 1 + ThreadLocalRandom.current().nextDouble(-jitter, jitter);
+        return Math.max(1, (long) (interval * factor));
+    }
+}
@@ -0,0 +1,143 @@
+package stes.isami.core;
+
+import stes.isami.core.modules.qstat.QStatScope;
+
+import java.util.Collection;
+
+/**
+ * Choose the scope of the next qstat query.
+ * <p>By default the jobs of the user are queried. When only a few jobs are tracked, a query limited to their
+ * batchIDs is used if its estimated output is less than half the output of the user query. The estimates are
+ * updated from the measured outputs, and a user query is run every {@code refreshPolls} targeted queries
+ * to keep the estimate of the user query up to date.</p>
+ * <p>The bytes and the job lines saved by the targeted queries are recorded. The sizes are compared in the text
+ * format of the targeted queries: the size of an xml user query is estimated from its number of jobs and the
+ * measured size of a job line.</p>
+ */
+public class QStatQueryPlanner {
+
+    /**
+     * Estimated size of the output line of a job before any measure
+     */
+    private static final int DEFAULT_LINE_SIZE = 120;
+
+    /**
+     * Size added to the command by each batchID
+     */
+    private static final int ID_SIZE = 8;
+
+    /**
+     * Weight of the last measure in the estimates
+     */
+    private static final double ALPHA = 0.3;
+
+    private int maxTargetedJobs = 100;
+    private int refreshPolls = 20;
+
+    /**
+     * Estimated size of the text output of the user query
+     */
+    private double userOutputSize = -1;
+    private int userJobLines = 0;
+    private double lineSize = DEFAULT_LINE_SIZE;
+    private int targetedPolls = 0;
+
+    private long lastBytesSaved = 0;
+    private int lastLinesSaved = 0;
+    private long totalBytesSaved = 0;
+    private long totalLinesSaved = 0;
+
+    /**
+     * Choose the scope of the next query
+     * @param batchIDs batchIDs of the tracked jobs
+     * @return scope
+     */
+    public synchronized QStatScope plan(Collection<String> batchIDs) {
+        if (batchIDs.isEmpty() || batchIDs.size() > maxTargetedJobs
+                || userOutputSize < 0 || targetedPolls >= refreshPolls) {
+            return QStatScope.user();
+        }
+
+        double targetedSize = batchIDs.size() * (lineSize + ID_SIZE);
+        if (targetedSize >= userOutputSize / 2) {
+            return QStatScope.user();
+        }
+
+        try {
+            QStatScope scope = QStatScope.jobs(batchIDs);
+            targetedPolls++;
+            return scope;
+        }
+        catch (IllegalArgumentException ex) {
+            return QStatScope.user();
+        }
+    }
+
+    /**
+     * Record the size of the text output of a query
+     * @param scope scope of the query
+     * @param outputSize number of characters of the output
+     * @param jobLines number of jobs in the output
+     */
+    public void record(QStatScope scope, long outputSize, int jobLines) {
+        record(scope, outputSize, jobLines, false);
+    }
+
+    /**
+     * Record the size of the output of a query
+     * @param scope scope of the query
+     * @param outputSize number of characters of the output
+     * @param jobLines number of jobs in the output
+     * @param xml true if the output is in xml
+     */
+    public synchronized void record(QStatScope scope, long outputSize, int jobLines, boolean xml) {
+        if (scope.getType() != QStatScope.Type.JOBS) {
+            double textSize = xml ? jobLines * lineSize : outputSize;
+            userOutputSize = userOutputSize < 0 ? textSize : ALPHA * textSize + (1 - ALPHA) * userOutputSize;
+            userJobLines = jobLines;
+            targetedPolls = 0;
+            lastBytesSaved = 0;
+            lastLinesSaved = 0;
+            return;
+        }
+
+        if (jobLines > 0) {
+            lineSize = ALPHA * ((double) outputSize / jobLines) + (1 - ALPHA) * lineSize;
+        }
+
+        lastBytesSaved = Math.max(0, (long) userOutputSize - outputSize);
+        lastLinesSaved = Math.max(0, userJobLines - jobLines);
+        totalBytesSaved += lastBytesSaved;
+        totalLinesSaved += lastLinesSaved;
+    }
+
+    /**
+     * Bytes saved by the last query compared to the user query
+     */
+    public synchronized long getLastBytesSaved() {
+        return lastBytesSaved;
+    }
+
+    /**
+     * Job lines saved by the last query compared to the user query
+     */
+    public synchronized int getLastLinesSaved() {
+        return lastLinesSaved;
+    }
+
+    public synchronized long getTotalBytesSaved() {
+        return totalBytesSaved;
+    }
+
+    public synchronized long getTotalLinesSaved() {
+        return totalLinesSaved;
+    }
+
+    public synchronized void setMaxTargetedJobs(int maxTargetedJobs) {
+        this.maxTargetedJobs = maxTargetedJobs;
+    }
+
+    public synchronized void setRefreshPolls(int refreshPolls) {
+        this.refreshPolls = refreshPolls;
+    }
+}
@@ -0,0 +1,50 @@
+package stes.isami.core.flow;
+
+/**
+ * Interfaces of the reactive streams, the same as {@code java.util.concurrent.Flow} of Java 9, which is not available
+ * in Java 8. A subscriber of Java 9 is adapted by delegating each method.
+ * <p>A {@link Subscriber} gets {@link Subscriber#onSubscribe(Subscription)} first, then at most as many
+ * {@link Subscriber#onNext(Object)} as requested with {@link Subscription#request(long)}, then
+ * {@link Subscriber#onComplete()} or {@link Subscriber#onError(Throwable)}. The calls to a subscriber are never
+ * concurrent.</p>
+ */
+public final class Flow {
+
+    private Flow() {
+
+    }
+
+    public interface Publisher<T> {
+
+        /**
+         * Add a subscriber. It gets its subscription with {@link Subscriber#onSubscribe(Subscription)}.
+         * @param subscriber
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public interface Subscriber<T> {
+
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+
+        /**
+         * Ask for {@code n} more items
+         * @param n positive number of items
+         */
+        void request(long n);
+
+        /**
+         * Stop getting items. Some items may still be passed after the call.
+         */
+        void cancel();
+    }
+}
@@ -2,32 +2,54 @@ package stes.isami.core.job;
 
 import com.github.oxo42.stateless4j.StateMachine;
 import com.github.oxo42.stateless4j.StateMachineConfig;
+import com.github.oxo42.stateless4j.delegates.Action1;
+import com.github.oxo42.stateless4j.delegates.Func;
 import com.google.common.eventbus.EventBus;
 import stes.isami.core.modules.MethodResult;
+import stes.isami.core.modules.qstat.QStatRecord;
 import stes.isami.core.parameters.Parameter;
 import stes.isami.core.parameters.ParameterSet;
 import stes.isami.core.parameters.parametertypes.StringParameter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Map;
 import java.util.Observable;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.function.Consumer;
 
 /**
  * Abstract class for {@link Job}.
  * <p>It provides basic behaviour for a job like being observable by the {@link stes.isami.core.CoreEngine}.</p>
  * <p>This class provides function for consuming the Qstat messages.</p>
+ * <p>The state is kept by the job, so one state machine can be shared by all the jobs with the same configuration.
+ * The triggers are fired by a {@link JobStateMachine}, which changes the state with a compare-and-set and runs the
+ * entry actions of the job in the order of the transitions, or by a stateless4j machine created by
+ * {@link #createStateMachine}.</p>
  *
  */
 public abstract class AbstractJob  {
 
-    private final Logger logger = LoggerFactory.getLogger(AbstractJob.class);
+    private static final Logger logger = LoggerFactory.getLogger(AbstractJob.class);
+
+    /**
+     * Job whose trigger is being fired by the thread
+     */
+    private static final ThreadLocal<AbstractJob> firingJob = new ThreadLocal<>();
+
+    private static final StateMachine<Integer, Integer> EMPTY_MACHINE = createStateMachine(new StateMachineConfig<>());
 
     private UUID id = UUID.randomUUID();
 
     private int qstatMissFire = 1;
 
+    /**
+     * Last record received from qstat
+     */
+    private volatile QStatRecord batchRecord;
+
     /**
      * Parameter set
      */
@@ -35,20 +57,43 @@ public abstract class AbstractJob  {
 
     private EventBus coreEventBus;
 
+    private static final AtomicReferenceFieldUpdater<AbstractJob, JobStateMachine.Transition> transitionUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(AbstractJob.class, JobStateMachine.Transition.class, "transition");
+    private static final AtomicIntegerFieldUpdater<AbstractJob> pendingEntriesUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(AbstractJob.class, "pendingEntries");
+
+    /**
+     * Last transition of the job, which holds its state
+     */
+    private volatile JobStateMachine.Transition transition = new JobStateMachine.Transition(JobState.READY);
+
+    /**
+     * Last transition whose entry actions have run, only used by the thread running the entry actions
+     */
+    private JobStateMachine.Transition enteredTransition = transition;
+
+    /**
+     * Number of calls to {@link #enterStates} since the last one which has found no transition to enter
+     */
+    private volatile int pendingEntries = 0;
+
     /**
-     * State machine
+     * State machine, possibly shared with other jobs
      */
-    private StateMachine<Integer, Integer> jobMachine;
+    private StateMachine<Integer, Integer> jobMachine = EMPTY_MACHINE;
+
+    /**
+     * Table-driven state machine, used instead of {@code jobMachine} if set
+     */
+    private JobStateMachine<AbstractJob> jobStateMachine;
 
     public AbstractJob(ParameterSet parameterSet) {
         this.parameterSet = parameterSet;
         this.parameterSet.addParameter(createTemporaryFolderParameter(getId()));
-
-        jobMachine = new StateMachine<Integer, Integer>(JobState.READY,new StateMachineConfig<>());
     }
 
     public AbstractJob(ParameterSet parameterSet, StateMachineConfig<Integer,Integer> jobStateMachineConfig) {
-        jobMachine = new StateMachine<Integer, Integer>(JobState.READY,jobStateMachineConfig);
+        jobMachine = createStateMachine(jobStateMachineConfig);
 
         parameterSet.addParameter(createTemporaryFolderParameter(getId()));
         this.setParameterSet(parameterSet);
@@ -59,7 +104,85 @@ public abstract class AbstractJob  {
      * @param stateMachineConfiguration
      */
     public void setStateMachineConfiguration(StateMachineConfig<Integer,Integer> stateMachineConfiguration) {
-        jobMachine = new StateMachine<Integer, Integer>(JobState.READY,stateMachineConfiguration);
+        setStateMachine(createStateMachine(stateMachineConfiguration));
+    }
+
+    /**
+     * Use a state machine created by {@link #createStateMachine}, which may be shared with other jobs.
+     * The job is put in the READY state.
+     * @param stateMachine
+     */
+    protected void setStateMachine(StateMachine<Integer, Integer> stateMachine) {
+        jobMachine = stateMachine;
+        jobStateMachine = null;
+        setState(JobState.READY);
+    }
+
+    /**
+     * Use a table-driven state machine, which may be shared with other jobs. The job is put in the READY state.
+     * @param stateMachine state machine of the jobs of the class of this job
+     */
+    @SuppressWarnings("unchecked")
+    protected <J extends AbstractJob> void setStateMachine(JobStateMachine<J> stateMachine) {
+        jobStateMachine = (JobStateMachine<AbstractJob>) stateMachine;
+        setState(JobState.READY);
+    }
+
+    /**
+     * Get the table-driven state machine of the job
+     * @return state machine or null if the job uses a stateless4j machine
+     */
+    public JobStateMachine<?> getJobStateMachine() {
+        return jobStateMachine;
+    }
+
+    /**
+     * Create a state machine which fires the triggers of any job. The state is read from and written to the job
+     * whose trigger is fired, the entry actions get this job from {@link #getFiringJob()}.
+     * @param stateMachineConfiguration configuration which is not changed once the machine is in use
+     * @return
+     */
+    protected static StateMachine<Integer, Integer> createStateMachine(StateMachineConfig<Integer,Integer> stateMachineConfiguration) {
+        FiringJobState firingJobState = new FiringJobState();
+        StateMachine<Integer, Integer> stateMachine = new StateMachine<>(JobState.READY, firingJobState, firingJobState, stateMachineConfiguration);
+        firingJobState.attached = true;
+        return stateMachine;
+    }
+
+    /**
+     * Get the job whose trigger is being fired by the current thread
+     * @return job or null outside the entry actions
+     */
+    protected static AbstractJob getFiringJob() {
+        return firingJob.get();
+    }
+
+    /**
+     * Restore the job recovered from the journal.
+     * <br>The parameters missing from the parameter set are added as string parameters. The state machine is put in
+     * {@code state} without running the entry actions of the state.
+     * @param id ID of the recovered job
+     * @param values parameter values by name
+     * @param state
+     */
+    public void restore(UUID id, Map<String, Object> values, int state) {
+        this.id = id;
+
+        for (Map.Entry<String, Object> value: values.entrySet()) {
+            try {
+                parameterSet.getParameter(value.getKey()).setValue(value.getValue());
+            }
+            catch (IllegalArgumentException ex) {
+                if (value.getValue() instanceof String) {
+                    parameterSet.addParameter(new StringParameter(value.getKey(), value.getKey(), "internal", (String) value.getValue()));
+                }
+                else {
+                    logger.warn("Job {}: cannot restore parameter {}", id, value.getKey());
+                }
+            }
+        }
+
+        setState(state);
     }
 
     /**
@@ -80,11 +203,30 @@ public abstract class AbstractJob  {
     }
 
     /**
-     * Fire an event
+     * Fire an event. A trigger which is not permitted in the state of the job is rejected.
+     * <br>May be called by several threads: with a {@link JobStateMachine}, the state changes atomically and the entry
+     * actions run once per transition.
      * @param trigger to be fired
      */
     public void fireTrigger(Integer trigger) {
-        jobMachine.fire(trigger);
+        JobStateMachine<AbstractJob> stateMachine = jobStateMachine;
+        if (stateMachine != null) {
+            stateMachine.fire(this, trigger);
+            return;
+        }
+
+        AbstractJob previousJob = firingJob.get();
+        firingJob.set(this);
+        try {
+            if (jobMachine.canFire(trigger)) {
+                jobMachine.fire(trigger);
+            }
+            else {
+                logger.debug("Job {}: trigger {} rejected in state {}", getId(), trigger, getState());
+            }
+        } finally {
+            firingJob.set(previousJob);
+        }
     }
 
     /**
@@ -92,7 +234,44 @@ public abstract class AbstractJob  {
      * @return
      */
     public int getState() {
-        return jobMachine.getState();
+        return transition.state;
+    }
+
+    /**
+     * Get the last transition of the job
+     */
+    JobStateMachine.Transition getTransition() {
+        return transition;
+    }
+
+    /**
+     * Make a transition if the last transition of the job is {@code expectedTransition}
+     * @return true if the transition has been made
+     */
+    boolean compareAndSetTransition(JobStateMachine.Transition expectedTransition, JobStateMachine.Transition newTransition) {
+        return transitionUpdater.compareAndSet(this, expectedTransition, newTransition);
+    }
+
+    /**
+     * Run the entry actions of the transitions made by the state machine, one transition at a time and in the order
+     * of the transitions. If another thread is running them, it runs the new transitions too and this call returns.
+     */
+    void enterStates(JobStateMachine<AbstractJob> stateMachine) {
+        if (pendingEntriesUpdater.getAndIncrement(this) != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            JobStateMachine.Transition entered = enteredTransition;
+            JobStateMachine.Transition next;
+            while ((next = entered.next) != null) {
+                stateMachine.enter(this, next, entered.state);
+                entered = next;
+            }
+            enteredTransition = entered;
+            missed = pendingEntriesUpdater.addAndGet(this, -missed);
+        } while (missed != 0);
     }
 
     /**
@@ -145,11 +324,57 @@ public abstract class AbstractJob  {
         StringParameter qstatOutputS = qstatOutput.getResultParameters().getParameter("qstatOutput");
         String statusString = parseQStatOutput(qstatOutputS.getValue());
 
-        if (!statusString.isEmpty()) {
+        consumeBatchStatus(statusString.isEmpty() ? null : statusString);
+    }
+
+    /**
+     * Keep the qstat record of the job and trigger the batch event associated with its state.
+     * <br>If the queue, the slots or the start time have changed, an UPDATE event is posted on the core event bus.
+     * @param record qstat record or null if the batchID is not in the output
+     */
+    public void consumeBatchRecord(QStatRecord record) {
+
+        if (getQstatMissFire() < 0) {
+            return;
+        }
+
+        if (record != null) {
+            QStatRecord lastRecord = batchRecord;
+            batchRecord = record;
+
+            if (lastRecord != null && isPlacementChanged(lastRecord, record) && coreEventBus != null) {
+                coreEventBus.post(new JobEvent(getId(), JobEvent.JobEventType.UPDATE));
+            }
+        }
+
+        consumeBatchStatus(record == null ? null : record.getState());
+    }
+
+    /**
+     * Get the last record received from qstat
+     * @return record or null
+     */
+    public QStatRecord getBatchRecord() {
+        return batchRecord;
+    }
+
+    /**
+     * Trigger the batch event associated with the qstat state of the job.
+     * <br>If the job is not found in the qstat output, the job is considered finished once the
+     * allowed miss fires are consumed.
+     * @param statusString qstat state or null if the batchID is not in the output
+     */
+    public void consumeBatchStatus(String statusString) {
+
+        if (getQstatMissFire() < 0) {
+            return;
+        }
+
+        if (statusString != null) {
             fireTrigger(getBatchTrigger(statusString));
 
         } else {
-            logger.debug("Job ID:{} Name:{} BatchID not found in qstat output");
+            logger.debug("Job ID:{} Name:{} BatchID not found in qstat output", getId(), getName());
             if (getQstatMissFire() == 0) {
                 fireTrigger(Trigger.evDone);
             } else {
@@ -159,6 +384,20 @@ public abstract class AbstractJob  {
         }
     }
 
+    /**
+     * Get the batch ID without copying the parameter set
+     * @return batchID or null if not set
+     */
+    public String getBatchID() {
+        try {
+            StringParameter batchID = parameterSet.getParameter("batchID");
+            return batchID.getValue();
+        }
+        catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
 
     public EventBus getCoreEventBus() {
         return coreEventBus;
@@ -176,6 +415,23 @@ public abstract class AbstractJob  {
      *
      */
 
+    /**
+     * Put the job in a state without transition
+     */
+    private void setState(int state) {
+        JobStateMachine.Transition initialTransition = new JobStateMachine.Transition(state);
+        enteredTransition = initialTransition;
+        transition = initialTransition;
+    }
+
+    /**
+     * True if the queue, the slots or the start time of the job differ between the two records
+     */
+    private boolean isPlacementChanged(QStatRecord lastRecord, QStatRecord record) {
+        return !lastRecord.getQueue().equals(record.getQueue()) ||
+                lastRecord.getSlots() != record.getSlots() ||
+                lastRecord.getStartTime() != record.getStartTime();
+    }
 
     /**
      * Parse the qstat output to get the status of the job in the batch system
@@ -255,10 +511,30 @@ public abstract class AbstractJob  {
         @Override
         public void accept(Boolean aBoolean) {
             if (aBoolean) {
-                jobMachine.fire(okTrigger);
+                fireTrigger(okTrigger);
             }
             else {
-                jobMachine.fire(errorTrigger);
+                fireTrigger(errorTrigger);
+            }
+        }
+    }
+
+    /**
+     * State of the job being fired. The initial state given to the state machine is ignored, the jobs start in READY.
+     */
+    private static final class FiringJobState implements Func<Integer>, Action1<Integer> {
+
+        private boolean attached = false;
+
+        @Override
+        public Integer call() {
+            return firingJob.get().getState();
+        }
+
+        @Override
+        public void doIt(Integer newState) {
+            if (attached) {
+                firingJob.get().setState(newState);
             }
         }
     }
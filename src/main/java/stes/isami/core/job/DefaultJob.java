@@ -1,28 +1,26 @@
 package stes.isami.core.job;
 
 import com.github.oxo42.stateless4j.StateMachineConfig;
-import com.github.oxo42.stateless4j.delegates.Action;
 import com.google.common.eventbus.EventBus;
-import com.sshtools.ssh.SshException;
 import stes.isami.core.modules.MethodResult;
 import stes.isami.core.modules.Module;
-import stes.isami.core.modules.ModuleException;
 import stes.isami.core.modules.clean.CleaningModule;
 import stes.isami.core.modules.qdel.QDelModule;
+import stes.isami.core.modules.qstat.QStatRecord;
 import stes.isami.core.parameters.Parameter;
 import stes.isami.core.parameters.ParameterSet;
-import stes.isami.core.ssh.SshRemoteFactory;
 import stes.isami.core.tasks.ModuleExecutor;
-import stes.isami.core.tasks.ModuleTask;
+import stes.isami.core.tasks.SshModuleTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 /**
@@ -58,22 +56,245 @@ import java.util.function.Function;
  * For each trigger, the user must specify which module will be executed upon the entry in the state.
  */
 public class DefaultJob extends AbstractJob implements Job {
-    private final Logger logger = LoggerFactory.getLogger(DefaultJob.class);
+    private static final Logger logger = LoggerFactory.getLogger(DefaultJob.class);
+
+    /**
+     * State machines shared by the jobs, by module layout
+     */
+    private static final Map<Integer, JobStateMachine<DefaultJob>> sharedStateMachines = new ConcurrentHashMap<>();
+
+    /**
+     * States which may have a module
+     */
+    private static final int[] MODULE_STATES = {JobState.PREPROCESSING, JobState.SUBMITTING, JobState.POSTPROCESSING};
 
     /**
      * Submitted flag. If is true, the output from batch is consumed
      */
-    private boolean submitted = false;
+    private volatile boolean submitted = false;
 
     /**
-     * Keeps the references to modules
+     * Modules by state
      */
-    private List<ModuleAction> moduleActionList = new ArrayList<>();
+    private final Map<Integer,Module> modules;
 
+    /**
+     * Module running for the job, stopped on entry in STOP
+     */
+    private volatile ModuleAction moduleAction;
+
+    /**
+     * Create a job which runs the modules upon the entry in their state.
+     * <br>The state machine is shared by all the jobs having modules for the same states.
+     * @param parameterSet
+     * @param modules modules by state: PREPROCESSING, SUBMITTING or POSTPROCESSING
+     */
     public DefaultJob(ParameterSet parameterSet, Map<Integer,Module> modules) {
         super(parameterSet);
+        this.modules = modules;
+
+        setStateMachine(sharedStateMachines.computeIfAbsent(getModuleLayout(modules), DefaultJob::createDefaultStateMachine));
+    }
+
+    public DefaultJob(ParameterSet parameterSet, StateMachineConfig<Integer, Integer> jobStateMachineConfig) {
+        super(parameterSet, jobStateMachineConfig);
+        this.modules = Collections.emptyMap();
+    }
+
+    //<editor-fold desc="Job Interface">
+    @Override
+    public String getName() {
+        return super.getName();
+    }
+
+    @Override
+    public UUID getID() {
+        return super.getId();
+    }
+
+    @Override
+    public boolean isEditable() {
+        return isRunning() ? false : true;
+    }
+
+    @Override
+    public ParameterSet getParameters() {
+        return getParameterSet().clone();
+    }
+
+    @Override
+    public void restart() {
+
+        if (canRestart()) {
+            fireTrigger(Trigger.doRestart);
+        }
+    }
+
+    /**
+     * Stop the job
+     */
+    @Override
+    public void stop() {
+        fireTrigger(Trigger.doStop);
+    }
+
+    @Override
+    public boolean updateParameter(Parameter<?> newParameter) throws JobException {
+        throw new NotImplementedException();
+    }
 
-        StateMachineConfig<Integer,Integer> defaultConfiguration = new StateMachineConfig<>();
+    @Override
+    public boolean updateParameter(String parameterName, Object parameterValue) throws IllegalArgumentException,JobException {
+        if (isEditable()) {
+            Parameter parameterToUpdate = getParameterSet().getParameter(parameterName);
+            parameterToUpdate.setValue(parameterValue);
+
+            if (getCoreEventBus() != null) {
+                getCoreEventBus().post(new ParameterUpdatedEvent(getID(), parameterName, parameterValue));
+            }
+
+            return true;
+        }
+        else {
+            throw new JobException(JobException.UPDATE_EXCEPTION,"Job is not editable");
+        }
+    }
+
+    @Override
+    public boolean updateParameters(Map<String, Object> values) throws IllegalArgumentException,JobException {
+        if (isEditable()) {
+            // all the parameters are looked up before the first one is changed
+            Map<Parameter<?>, Object> parameters = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> value: values.entrySet()) {
+                parameters.put(getParameterSet().getParameter(value.getKey()), value.getValue());
+            }
+
+            // the listeners get the values applied, even if a value is rejected by its parameter
+            Map<String, Object> updatedValues = new LinkedHashMap<>();
+            try {
+                for (Map.Entry<Parameter<?>, Object> value: parameters.entrySet()) {
+                    value.getKey().setValue(value.getValue());
+                    updatedValues.put(value.getKey().getName(), value.getValue());
+                }
+            } finally {
+                if (getCoreEventBus() != null && !updatedValues.isEmpty()) {
+                    getCoreEventBus().post(new ParameterUpdatedEvent(getID(), updatedValues));
+                }
+            }
+
+            return true;
+        }
+        else {
+            throw new JobException(JobException.UPDATE_EXCEPTION,"Job is not editable");
+        }
+    }
+
+    @Override
+    public boolean updateParametes(ParameterSet parameters) throws JobException {
+        if (isEditable()) {
+            setParameterSet(parameters);
+
+            if (getCoreEventBus() != null) {
+                Map<String, Object> values = new LinkedHashMap<>();
+                for (Parameter<?> parameter: getParameterSet()) {
+                    values.put(parameter.getName(), parameter.getValue());
+                }
+                getCoreEventBus().post(new ParameterUpdatedEvent(getID(), values));
+            }
+            
+            return true;
+        }
+        else {
+            throw new JobException(JobException.UPDATE_EXCEPTION,"Job is not editable");
+        }
+    }
+
+    @Override
+    public int getState() {
+        return super.getState();
+    }
+
+    @Override
+    public void setQstatResult(MethodResult qstatOutput) {
+
+        Thread t = new Thread() {
+
+            public void run() {
+                if (isSubmitted()) {
+                    consumeQStatOutput(qstatOutput);
+                }
+            }
+        };
+
+        t.start();
+    }
+
+    @Override
+    public void setBatchStatus(QStatRecord record) {
+        if (isSubmitted()) {
+            consumeBatchRecord(record);
+        }
+    }
+
+    @Override
+    public void setEventBus(EventBus coreEventBus) {
+        setCoreEventBus(coreEventBus);
+    }
+
+    @Override
+    public void execute() throws JobException {
+        fireTrigger(Trigger.doPreprocessing);
+    }
+
+
+    /**
+     * Restore the job recovered from the journal. A job restored in a batch state consumes the qstat output.
+     */
+    @Override
+    public void restore(UUID id, Map<String, Object> values, int state) {
+        super.restore(id, values, state);
+        setSubmitted(JobState.isBatchState(state));
+    }
+
+    /**
+     * True if the job has been submitted
+     */
+    public boolean isSubmitted() {
+        return submitted;
+    }
+
+    /**
+     * Set the submitted flag
+     * @param submitted
+     */
+    public void setSubmitted(boolean submitted) {
+        this.submitted = submitted;
+    }
+
+    /**
+     * Forget the batchID of the job, once it is deleted from batch
+     */
+    void removeBatchID() {
+        getParameterSet().removeParameter("batchID");
+    }
+    //</editor-fold>
+
+    /**************************************************************************************************************
+     *
+     *
+     *                                                  PRIVATE
+     *
+     *
+     ***************************************************************************************************************/
+
+    /**
+     * Create the state machine of the jobs having modules for the states of the layout
+     * @param moduleLayout states having a module, see {@link #getModuleLayout(Map)}
+     * @return
+     */
+    private static JobStateMachine<DefaultJob> createDefaultStateMachine(int moduleLayout) {
+
+        JobStateMachine.Builder<DefaultJob> defaultConfiguration = JobStateMachine.builder();
 
         /**
          * Configure READY state
@@ -87,12 +308,10 @@ public class DefaultJob extends AbstractJob implements Job {
         /**
          * Configure PREPROCESSING state
          */
-         if (modules.containsKey(JobState.PREPROCESSING)) {
-             ModuleAction preprocessingModuleAction = new ModuleAction(this,modules.get(JobState.PREPROCESSING),new FutureCallback(),new StageCompletion(Trigger.doSubmit,Trigger.doError));
-             moduleActionList.add(preprocessingModuleAction);
+         if (hasModule(moduleLayout, JobState.PREPROCESSING)) {
              defaultConfiguration.configure(JobState.PREPROCESSING)
                     .onEntry(new StateChangedNotification())
-                    .onEntry(preprocessingModuleAction)
+                    .onEntry((job, oldState, newState) -> job.runModule(JobState.PREPROCESSING, Trigger.doSubmit, Trigger.doError))
                     .permit(Trigger.doSubmit,JobState.SUBMITTING)
                     .permit(Trigger.doStop,JobState.STOP)
                     .permit(Trigger.doError,JobState.ERROR);
@@ -101,12 +320,10 @@ public class DefaultJob extends AbstractJob implements Job {
         /**
          * Configure SUBMITTING state
          */
-        if (modules.containsKey(JobState.SUBMITTING)) {
-            ModuleAction processingModuleAction = new ModuleAction(this,modules.get(JobState.SUBMITTING),new FutureCallback(),new StageCompletion(Trigger.doProcessing,Trigger.doError));
-            moduleActionList.add(processingModuleAction);
+        if (hasModule(moduleLayout, JobState.SUBMITTING)) {
             defaultConfiguration.configure(JobState.SUBMITTING)
                     .onEntry(new StateChangedNotification())
-                    .onEntry(processingModuleAction)
+                    .onEntry((job, oldState, newState) -> job.runModule(JobState.SUBMITTING, Trigger.doProcessing, Trigger.doError))
                     .permit(Trigger.doProcessing,JobState.SUBMITTED)
                     .permit(Trigger.doStop,JobState.STOP)
                     .permit(Trigger.doError,JobState.ERROR);
@@ -118,7 +335,7 @@ public class DefaultJob extends AbstractJob implements Job {
          */
         defaultConfiguration.configure(JobState.SUBMITTED)
                 .onEntry(new StateChangedNotification())
-                .onEntry(() -> setSubmitted(true))
+                .onEntry((job, oldState, newState) -> job.setSubmitted(true))
                 .ignore(Trigger.evUnknown)
                 .permit(Trigger.evWaiting,JobState.WAITING)
                 .permit(Trigger.evRunning,JobState.RUN)
@@ -195,13 +412,11 @@ public class DefaultJob extends AbstractJob implements Job {
         /**
          * Configure Processing state
          */
-         if (modules.containsKey(JobState.POSTPROCESSING)) {
-             ModuleAction postProcessingModuleAction = new ModuleAction(this,modules.get(JobState.POSTPROCESSING),new FutureCallback(),new StageCompletion(Trigger.doFinish,Trigger.doError));
-             moduleActionList.add(postProcessingModuleAction);
+         if (hasModule(moduleLayout, JobState.POSTPROCESSING)) {
              defaultConfiguration.configure(JobState.POSTPROCESSING)
                     .onEntry(new StateChangedNotification())
-                    .onEntry(() -> setSubmitted(false))
-                    .onEntry(postProcessingModuleAction)
+                    .onEntry((job, oldState, newState) -> job.setSubmitted(false))
+                    .onEntry((job, oldState, newState) -> job.runModule(JobState.POSTPROCESSING, Trigger.doFinish, Trigger.doError))
                     .permit(Trigger.doFinish,JobState.FINISHED)
                     .permit(Trigger.doStop,JobState.STOP)
                     .permit(Trigger.doError,JobState.ERROR);
@@ -214,31 +429,7 @@ public class DefaultJob extends AbstractJob implements Job {
          */
         defaultConfiguration.configure(JobState.STOP)
                 .onEntry(new StateChangedNotification())
-                .onEntry(() -> {
-
-                    /**
-                     * Try to stop all the CancelableFuture
-                     */
-                    moduleActionList.forEach(ModuleAction::cancel);
-
-                    /**
-                     * Remove the job from batch. Create qDelTask and execute it
-                     */
-                    ModuleTask qDelTask = createQDelTask();
-                    if (qDelTask != null) {
-                        CompletableFuture.supplyAsync(qDelTask, ModuleExecutor.getSshPoolExecutor()).thenApply(methodResult -> {
-                            if (methodResult.getExitCode() == 0) {
-                                logger.debug("Job {} deleted successfully from batch system", getID());
-                                this.getParameters().removeParameter("batchID");
-                            } else {
-                                logger.debug("Error removing job {} from batch system: {}", getID(), methodResult.getErrorMessages().get(0));
-                            }
-
-                            return null;
-                        });
-                    }
-                    setSubmitted(false);
-                })
+                .onEntry((job, oldState, newState) -> job.stopJob())
                 .permit(Trigger.doRestart,JobState.RESTARTING)
                 .permit(Trigger.doFinish,JobState.FINISHED);
 
@@ -247,8 +438,8 @@ public class DefaultJob extends AbstractJob implements Job {
          */
         defaultConfiguration.configure(JobState.RESTARTING)
                 .onEntry(new StateChangedNotification())
-                .onEntry(new ModuleAction(this,new CleaningModule(),new FutureCallback(),new StageCompletion(Trigger.doPreprocessing,Trigger.doError)))
-                .onEntry(() -> setSubmitted(false))
+                .onEntry((job, oldState, newState) -> job.runModule(JobState.RESTARTING, new CleaningModule(), Trigger.doPreprocessing, Trigger.doError))
+                .onEntry((job, oldState, newState) -> job.setSubmitted(false))
                 .ignore(Trigger.doRestart)
                 .permit(Trigger.doPreprocessing,JobState.PREPROCESSING);
 
@@ -257,7 +448,7 @@ public class DefaultJob extends AbstractJob implements Job {
          */
         defaultConfiguration.configure(JobState.ERROR)
                 .onEntry(new StateChangedNotification())
-                .onEntry(() -> setSubmitted(false))
+                .onEntry((job, oldState, newState) -> job.setSubmitted(false))
                 .permit(Trigger.doRestart,JobState.RESTARTING);
 
         /**
@@ -265,145 +456,90 @@ public class DefaultJob extends AbstractJob implements Job {
          */
         defaultConfiguration.configure(JobState.FINISHED)
                 .onEntry(new StateChangedNotification())
-                .onEntry(() -> setSubmitted(false))
+                .onEntry((job, oldState, newState) -> job.setSubmitted(false))
                 .permit(Trigger.doRestart,JobState.RESTARTING);
 
-        setStateMachineConfiguration(defaultConfiguration);
-
-    }
-    public DefaultJob(ParameterSet parameterSet, StateMachineConfig<Integer, Integer> jobStateMachineConfig) {
-        super(parameterSet, jobStateMachineConfig);
-    }
-
-    //<editor-fold desc="Job Interface">
-    @Override
-    public String getName() {
-        return super.getName();
-    }
-
-    @Override
-    public UUID getID() {
-        return super.getId();
-    }
-
-    @Override
-    public boolean isEditable() {
-        return isRunning() ? false : true;
-    }
-
-    @Override
-    public ParameterSet getParameters() {
-        return getParameterSet().clone();
-    }
-
-    @Override
-    public void restart() {
-
-        if (canRestart()) {
-            fireTrigger(Trigger.doRestart);
-        }
+        return defaultConfiguration.build();
     }
 
     /**
-     * Stop the job
+     * Get the states having a module, one bit per state of {@link #MODULE_STATES}
      */
-    @Override
-    public void stop() {
-        fireTrigger(Trigger.doStop);
-    }
-
-    @Override
-    public boolean updateParameter(Parameter<?> newParameter) throws JobException {
-        throw new NotImplementedException();
-    }
-
-    @Override
-    public boolean updateParameter(String parameterName, Object parameterValue) throws IllegalArgumentException,JobException {
-        if (isEditable()) {
-            Parameter parameterToUpdate = getParameterSet().getParameter(parameterName);
-            parameterToUpdate.setValue(parameterValue);
-
-            if (getCoreEventBus() != null) {
-                getCoreEventBus().post(new JobEvent(getID(), JobEvent.JobEventType.UPDATE));
+    private static int getModuleLayout(Map<Integer,Module> modules) {
+        int moduleLayout = 0;
+        for (int i = 0; i < MODULE_STATES.length; i++) {
+            if (modules.containsKey(MODULE_STATES[i])) {
+                moduleLayout |= 1 << i;
             }
-
-            return true;
-        }
-        else {
-            throw new JobException(JobException.UPDATE_EXCEPTION,"Job is not editable");
         }
+        return moduleLayout;
     }
 
-    @Override
-    public boolean updateParametes(ParameterSet parameters) throws JobException {
-        if (isEditable()) {
-            setParameterSet(parameters);
-
-            if (getCoreEventBus() != null) {
-                getCoreEventBus().post(new JobEvent(getID(), JobEvent.JobEventType.UPDATE));
+    private static boolean hasModule(int moduleLayout, int state) {
+        for (int i = 0; i < MODULE_STATES.length; i++) {
+            if (MODULE_STATES[i] == state) {
+                return (moduleLayout & (1 << i)) != 0;
             }
-            
-            return true;
         }
-        else {
-            throw new JobException(JobException.UPDATE_EXCEPTION,"Job is not editable");
-        }
-    }
-
-    @Override
-    public int getState() {
-        return super.getState();
-    }
-
-    @Override
-    public void setQstatResult(MethodResult qstatOutput) {
-
-        Thread t = new Thread() {
-
-            public void run() {
-                if (isSubmitted()) {
-                    consumeQStatOutput(qstatOutput);
-                }
-            }
-        };
-
-        t.start();
-    }
-
-    @Override
-    public void setEventBus(EventBus coreEventBus) {
-        setCoreEventBus(coreEventBus);
+        return false;
     }
 
-    @Override
-    public void execute() throws JobException {
-        fireTrigger(Trigger.doPreprocessing);
+    /**
+     * Run the module of the state
+     */
+    private void runModule(int state, Integer okTrigger, Integer errorTrigger) {
+        runModule(state, modules.get(state), okTrigger, errorTrigger);
     }
 
-
     /**
-     * True if the job has been submitted
+     * Run a module upon the entry in a state, then fire the {@code okTrigger} or the {@code errorTrigger}.
+     * <br>The module is not run if the job has already left the state, for instance when it has been stopped
+     * before the entry actions of the state have run.
      */
-    public boolean isSubmitted() {
-        return submitted;
+    private void runModule(int state, Module module, Integer okTrigger, Integer errorTrigger) {
+        if (getState() != state) {
+            logger.debug("Job {}: module {} not run, the job has left state {}", getID(), module.getName(), state);
+            return;
+        }
+
+        ModuleAction action = new ModuleAction(this, module, new FutureCallback(), new StageCompletion(okTrigger, errorTrigger));
+        moduleAction = action;
+        action.doIt();
     }
 
     /**
-     * Set the submitted flag
-     * @param submitted
+     * Stop the running module and remove the job from batch
      */
-    public void setSubmitted(boolean submitted) {
-        this.submitted = submitted;
-    }
-    //</editor-fold>
+    private void stopJob() {
+        /**
+         * Try to stop the CancelableFuture
+         */
+        ModuleAction action = moduleAction;
+        if (action != null) {
+            action.cancel();
+        }
 
-    /**************************************************************************************************************
-     *
-     *
-     *                                                  PRIVATE
-     *
-     *
-     ***************************************************************************************************************/
+        /**
+         * Remove the job from batch. If the job is stopped with other jobs, the qdel is grouped
+         * by the QDelBatch, otherwise create qDelTask and execute it
+         */
+        String batchID = getBatchID();
+        SshModuleTask qDelTask = batchID != null && QDelBatch.defer(this, batchID) ? null : createQDelTask();
+        if (qDelTask != null) {
+            CompletableFuture.supplyAsync(qDelTask, ModuleExecutor.getSshPoolExecutor()).thenApply(methodResult -> {
+                if (methodResult.getExitCode() == 0) {
+                    logger.debug("Job {} deleted successfully from batch system", getID());
+                    removeBatchID();
+                } else {
+                    logger.debug("Error removing job {} from batch system: {}", getID(),
+                            methodResult.getErrorMessages().isEmpty() ? methodResult.getExitCode() : methodResult.getErrorMessages().get(0));
+                }
+
+                return null;
+            });
+        }
+        setSubmitted(false);
+    }
 
     /**
      * Check if a job can be restarted
@@ -434,30 +570,30 @@ public class DefaultJob extends AbstractJob implements Job {
      * This class has to be put in every {@code onEntry}.
      * At the entrance of a state, the observer will be notified
      */
-    private class StateChangedNotification implements Action {
+    private static class StateChangedNotification implements JobStateMachine.EntryAction<DefaultJob> {
 
         @Override
-        public void doIt() {
-           if (getCoreEventBus() != null) {
-               getCoreEventBus().post(new JobEvent(getID(), JobEvent.JobEventType.STATE_CHANGED));
+        public void enter(DefaultJob job, int oldState, int newState) {
+           if (job.getCoreEventBus() != null) {
+               job.getCoreEventBus().post(new JobStateChangedEvent(job, oldState, newState));
            }
         }
     }
 
     /**
      * Create the qdel Task
-     * @return
+     * @return task or null if the job has no batchID
      */
-    private ModuleTask createQDelTask() {
+    private SshModuleTask createQDelTask() {
 
-        QDelModule module = new QDelModule();
+        ParameterSet parameters = getParameters();
         try {
-            ModuleTask qdelTask = module.runModule(getId(), SshRemoteFactory.getSshClient(),getParameters());
-            return qdelTask;
-        } catch (ModuleException | SshException e) {
+            parameters.getParameter("batchID");
+        } catch (IllegalArgumentException e) {
             return null;
         }
 
+        return new SshModuleTask(new QDelModule(), getId(), parameters);
     }
     /**
      * This callback is called when a module has finished running.
@@ -479,6 +615,8 @@ public class DefaultJob extends AbstractJob implements Job {
                 return true;
             }
 
+            // one UPDATE event for all the parameters of the result
+            Map<String, Object> values = new LinkedHashMap<>();
             for (Parameter<?> parameter: methodResult.getResultParameters().getParameters()) {
                 try {
                     logger.info("Method {} Parameter updated: {}",methodResult.getMethodName(),parameter.getName());
@@ -489,11 +627,11 @@ public class DefaultJob extends AbstractJob implements Job {
                     logger.info("Method {} New parameter found: {}",methodResult.getMethodName(),parameter.getName());
                     getParameterSet().addParameter(parameter);
                 }
-                finally {
-                    if (getCoreEventBus() != null) {
-                        getCoreEventBus().post(new JobEvent(getID(), JobEvent.JobEventType.UPDATE));
-                    }
-                }
+                values.put(parameter.getName(), parameter.getValue());
+            }
+
+            if (getCoreEventBus() != null) {
+                getCoreEventBus().post(new ParameterUpdatedEvent(getID(), values));
             }
             return true;
         }
@@ -2,9 +2,11 @@ package stes.isami.core.job;
 
 import com.google.common.eventbus.EventBus;
 import stes.isami.core.modules.MethodResult;
+import stes.isami.core.modules.qstat.QStatRecord;
 import stes.isami.core.parameters.Parameter;
 import stes.isami.core.parameters.ParameterSet;
 
+import java.util.Map;
 import java.util.Observer;
 import java.util.UUID;
 
@@ -74,6 +76,14 @@ public interface Job extends Executable {
      */
     public boolean updateParametes(ParameterSet parameters) throws JobException;
 
+    /**
+     * Update several parameters in one operation. The listeners get one UPDATE event for all the values.
+     * @param values new values by parameter name
+     * @throws IllegalArgumentException if a parameter is not found or it cannot be updated
+     * @throws JobException if the job is not editable
+     */
+    public boolean updateParameters(Map<String, Object> values) throws IllegalArgumentException,JobException;
+
 
     /**
      * Get the current status of the job
@@ -88,6 +98,33 @@ public interface Job extends Executable {
      */
     public void setQstatResult(MethodResult qstatOutput);
 
+    /**
+     * Set the status of the job in the batch system
+     * @param record qstat record of the job or null if the batchID is not in the qstat output
+     */
+    public void setBatchStatus(QStatRecord record);
+
+    /**
+     * Get the last status of the job reported by the batch system
+     * @return qstat record or null if the job has not been seen by qstat
+     */
+    public QStatRecord getBatchRecord();
+
+    /**
+     * Get the ID of the job in the batch system
+     * @return batchID or null if the job has not been submitted
+     */
+    public String getBatchID();
+
+    /**
+     * Restore the job recovered from the journal: ID, parameter values and state.
+     * <br>The entry actions of the state are not run, so a job recovered in a batch state is not submitted again.
+     * @param id
+     * @param values parameter values by name
+     * @param state
+     */
+    public void restore(UUID id, Map<String, Object> values, int state);
+
     /**
      * Set the core event bus
      * @param coreEventBus
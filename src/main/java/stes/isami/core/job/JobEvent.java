@@ -1,32 +1,62 @@
 package stes.isami.core.job;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
  * Job event class. Describes the events for a job
+ * <br>An event about one job may carry a delta: the old and the new state of a state change, the changed parameter
+ * values of an update. The listeners can then update their views without reading the job.
  */
 public class JobEvent {
 
      private final JobEventType eventType;
      private final List<UUID> ids;
      private UUID id;
+     private volatile long sequence = -1;
+
+     /**
+      * Delta of the event
+      */
+     private final int oldState;
+     private final int newState;
+     private final Map<String, Object> changedValues;
 
      public JobEvent(JobEventType eventType) {
           this(UUID.randomUUID(),eventType);
      }
 
      public  JobEvent(UUID id,JobEventType eventType) {
-          this.eventType = eventType;
-          this.id = id;
-          ids = new ArrayList<>();
-          getIds().add(id);
+          this(id, eventType, -1, -1, Collections.emptyMap());
      }
 
      public JobEvent(List<UUID> ids, JobEventType eventType) {
           this.eventType = eventType;
           this.ids = ids;
+          this.oldState = -1;
+          this.newState = -1;
+          this.changedValues = Collections.emptyMap();
+     }
+
+     /**
+      * Event with a delta
+      * @param id
+      * @param eventType
+      * @param oldState state before the event or -1
+      * @param newState state after the event or -1
+      * @param changedValues immutable map of the changed values by parameter name
+      */
+     protected JobEvent(UUID id, JobEventType eventType, int oldState, int newState, Map<String, Object> changedValues) {
+          this.eventType = eventType;
+          this.id = id;
+          ids = new ArrayList<>();
+          getIds().add(id);
+          this.oldState = oldState;
+          this.newState = newState;
+          this.changedValues = changedValues;
      }
 
      public UUID getId() {
@@ -41,6 +71,54 @@ public class JobEvent {
           return ids;
      }
 
+     /**
+      * Get the state of the job before the event
+      * @return state or -1 if not known
+      */
+     public int getOldState() {
+          return oldState;
+     }
+
+     /**
+      * Get the state of the job after the event
+      * @return state or -1 if not known
+      */
+     public int getNewState() {
+          return newState;
+     }
+
+     /**
+      * Get the parameter values changed by the event
+      * @return immutable map of the values by parameter name, empty if the event carries no values
+      */
+     public Map<String, Object> getChangedValues() {
+          return changedValues;
+     }
+
+     /**
+      * True if the event carries a new state or changed values
+      */
+     public boolean hasDelta() {
+          return newState != -1 || !changedValues.isEmpty();
+     }
+
+     /**
+      * Get the number given to the event when it was dispatched to the listeners. The numbers increase with the order
+      * of dispatch.
+      * @return sequence number or -1 if the event has not been dispatched
+      */
+     public long getSequence() {
+          return sequence;
+     }
+
+     /**
+      * Set by the dispatcher of the events
+      * @param sequence
+      */
+     public void setSequence(long sequence) {
+          this.sequence = sequence;
+     }
+
      public enum JobEventType {
           CREATE,
           START_DELETE,
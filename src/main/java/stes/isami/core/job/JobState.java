@@ -74,6 +74,33 @@ public class JobState {
         statusMap.put(STOPPING,"Stopping");
     }
 
+    /**
+     * Return true if the job is in the batch system: submitted and not yet in post processing
+     * @param stateCode
+     * @return
+     */
+    public static boolean isBatchState(int stateCode) {
+        return stateCode == SUBMITTED || (stateCode >= WAITING && stateCode <= DONE);
+    }
+
+    /**
+     * Return true if the job has stopped running: finished, stopped or in error
+     * @param stateCode
+     * @return
+     */
+    public static boolean isTerminalState(int stateCode) {
+        return stateCode == FINISHED || stateCode == STOP || stateCode == ERROR;
+    }
+
+    /**
+     * Get the states of a job in the batch system
+     * @return states accepted by {@link #isBatchState(int)}
+     */
+    public static int[] batchStates() {
+        return new int[] {SUBMITTED, WAITING, RUN, DELETION, RESTARTED, SUSPENDED, TRANSFERRING,
+                THRESHOLD, HOLD, UNKNOWN, DELETED, DONE};
+    }
+
     /**
      * Return the description of a state
      * @param stateCode
@@ -1,5 +1,6 @@
 package stes.isami.core.job;
 
+import java.util.Collections;
 import java.util.UUID;
 
 /**
@@ -7,7 +8,59 @@ import java.util.UUID;
  */
 public class JobStateChangedEvent extends JobEvent {
 
+    private final Job job;
+
     public JobStateChangedEvent(UUID id) {
         super(id,JobEventType.STATE_CHANGED);
+        this.job = null;
+    }
+
+    /**
+     * State change without the job
+     * @param id
+     * @param oldState state left by the job or -1
+     * @param newState state entered by the job
+     */
+    public JobStateChangedEvent(UUID id, int oldState, int newState) {
+        super(id,JobEventType.STATE_CHANGED,oldState,newState,Collections.emptyMap());
+        this.job = null;
+    }
+
+    public JobStateChangedEvent(Job job) {
+        this(job, -1);
+    }
+
+    /**
+     * @param job job which has entered its current state
+     * @param oldState state left by the job or -1
+     */
+    public JobStateChangedEvent(Job job, int oldState) {
+        this(job, oldState, job.getState());
+    }
+
+    /**
+     * @param job job which has changed state
+     * @param oldState state left by the job or -1
+     * @param newState state entered by the job, which may have changed since
+     */
+    public JobStateChangedEvent(Job job, int oldState, int newState) {
+        super(job.getID(),JobEventType.STATE_CHANGED,oldState,newState,Collections.emptyMap());
+        this.job = job;
+    }
+
+    /**
+     * Get the job which has changed state
+     * @return job or null if the event was created with the ID only
+     */
+    public Job getJob() {
+        return job;
+    }
+
+    /**
+     * Get the state entered by the job
+     * @return state when the event was created or -1 if the event was created with the ID only
+     */
+    public int getState() {
+        return getNewState();
     }
 }
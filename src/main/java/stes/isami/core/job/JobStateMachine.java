@@ -0,0 +1,317 @@
+package stes.isami.core.job;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * State machine of the jobs, driven by a table of transitions over the {@link JobState} and {@link Trigger} codes.
+ * <p>The table is built once by a {@link Builder} and shared by all the jobs of the same kind. The state is kept by
+ * the job and a trigger changes it with a compare-and-set, so the triggers may be fired by several threads without
+ * lock: each trigger applies to the state left by the other ones. The entry actions of a state run once per
+ * transition. The entry actions of a job run one transition at a time, in the order of the transitions: the thread
+ * which makes a transition while the entry actions of the job are running leaves its transition to the running
+ * thread, which is also the case of a trigger fired by an entry action.</p>
+ * <p>A trigger which is not permitted in the state of the job is rejected without exception. A trigger declared
+ * with {@link StateConfiguration#ignore(int)} leaves the state as it is.</p>
+ * <pre>{@code
+ * JobStateMachine<DefaultJob> machine = JobStateMachine.<DefaultJob>builder()
+ *         .configure(JobState.READY)
+ *             .onEntry((job, oldState, newState) -> ...)
+ *             .permit(Trigger.doPreprocessing, JobState.PREPROCESSING)
+ *             .ignore(Trigger.doStop)
+ *         .build();
+ * }</pre>
+ * @param <J> type of the jobs
+ */
+public final class JobStateMachine<J extends AbstractJob> {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobStateMachine.class);
+
+    /**
+     * Action run upon the entry in a state
+     * @param <J> type of the jobs
+     */
+    @FunctionalInterface
+    public interface EntryAction<J> {
+
+        /**
+         * @param job job which has entered the state
+         * @param oldState state left by the job
+         * @param newState state entered by the job
+         */
+        void enter(J job, int oldState, int newState);
+    }
+
+    private static final int REJECT = -1;
+    private static final int IGNORE = -2;
+
+    /**
+     * State and trigger codes, sorted
+     */
+    private final int[] states;
+    private final int[] triggers;
+
+    /**
+     * Index of the target state, IGNORE or REJECT, by state index * number of triggers + trigger index
+     */
+    private final int[] transitions;
+
+    /**
+     * Entry actions, by state index. The actions have been added as {@code EntryAction<? super J>}.
+     */
+    private final EntryAction<?>[][] entryActions;
+
+    private JobStateMachine(int[] states, int[] triggers, int[] transitions, EntryAction<?>[][] entryActions) {
+        this.states = states;
+        this.triggers = triggers;
+        this.transitions = transitions;
+        this.entryActions = entryActions;
+    }
+
+    public static <J extends AbstractJob> Builder<J> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Fire a trigger. If the trigger is permitted in the state of the job, the state is changed and the entry actions
+     * of the new state are run, by this thread unless the entry actions of an earlier transition are running.
+     * @param job
+     * @param trigger
+     * @return true if the job has changed state, false if the trigger has been ignored or rejected
+     */
+    @SuppressWarnings("unchecked")
+    public boolean fire(J job, int trigger) {
+        int triggerIndex = Arrays.binarySearch(triggers, trigger);
+
+        while (true) {
+            Transition transition = job.getTransition();
+            int target = getTarget(transition.state, triggerIndex);
+            if (target < 0) {
+                if (target == REJECT) {
+                    logger.debug("Job {}: trigger {} rejected in state {}", job.getId(), trigger, transition.state);
+                }
+                return false;
+            }
+
+            Transition newTransition = new Transition(states[target], target);
+            if (job.compareAndSetTransition(transition, newTransition)) {
+                transition.next = newTransition;
+                job.enterStates((JobStateMachine<AbstractJob>) this);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * True if the trigger is permitted or ignored in the state
+     */
+    public boolean canFire(int state, int trigger) {
+        return getTarget(state, Arrays.binarySearch(triggers, trigger)) != REJECT;
+    }
+
+    /**
+     * Get the state reached by firing a trigger
+     * @param state
+     * @param trigger
+     * @return new state, the same state if the trigger is ignored or -1 if it is rejected
+     */
+    public int getNextState(int state, int trigger) {
+        int target = getTarget(state, Arrays.binarySearch(triggers, trigger));
+        if (target == IGNORE) {
+            return state;
+        }
+        return target == REJECT ? -1 : states[target];
+    }
+
+    /**
+     * Get the triggers permitted or ignored in a state
+     */
+    public List<Integer> getPermittedTriggers(int state) {
+        List<Integer> permittedTriggers = new ArrayList<>();
+        for (int i = 0; i < triggers.length; i++) {
+            if (getTarget(state, i) != REJECT) {
+                permittedTriggers.add(triggers[i]);
+            }
+        }
+        return permittedTriggers;
+    }
+
+    /*****************************************************************************************************
+     *
+     *
+     *                                      PRIVATE
+     *
+     */
+
+    private int getTarget(int state, int triggerIndex) {
+        int stateIndex = Arrays.binarySearch(states, state);
+        if (stateIndex < 0 || triggerIndex < 0) {
+            return REJECT;
+        }
+        return transitions[stateIndex * triggers.length + triggerIndex];
+    }
+
+    /**
+     * Run the entry actions of a transition, see {@link AbstractJob#enterStates}. An action which fails does not
+     * prevent the next ones.
+     */
+    @SuppressWarnings("unchecked")
+    void enter(AbstractJob job, Transition transition, int oldState) {
+        for (EntryAction<?> action: entryActions[transition.target]) {
+            try {
+                ((EntryAction<? super J>) action).enter((J) job, oldState, transition.state);
+            } catch (RuntimeException e) {
+                logger.error("Job {}: entry action of state {} failed", job.getId(), transition.state, e);
+            }
+        }
+    }
+
+    /**
+     * Transition of a job. The transitions of a job are linked in the order they have been made.
+     */
+    static final class Transition {
+
+        final int state;
+
+        /**
+         * Index of the state in the table or -1 if the state has been set without transition
+         */
+        final int target;
+
+        /**
+         * Next transition of the job, set once the next transition has been made
+         */
+        volatile Transition next;
+
+        Transition(int state) {
+            this(state, -1);
+        }
+
+        private Transition(int state, int target) {
+            this.state = state;
+            this.target = target;
+        }
+    }
+
+    /**
+     * Builds the table of a {@link JobStateMachine}
+     */
+    public static final class Builder<J extends AbstractJob> {
+
+        private final Map<Integer, StateConfiguration<J>> configurations = new LinkedHashMap<>();
+
+        private Builder() {}
+
+        /**
+         * Configure a state
+         * @param state
+         * @return configuration of the state
+         */
+        public StateConfiguration<J> configure(int state) {
+            return configurations.computeIfAbsent(state, s -> new StateConfiguration<>(this));
+        }
+
+        public JobStateMachine<J> build() {
+            SortedSet<Integer> stateSet = new TreeSet<>(configurations.keySet());
+            SortedSet<Integer> triggerSet = new TreeSet<>();
+            for (StateConfiguration<J> configuration: configurations.values()) {
+                triggerSet.addAll(configuration.transitions.keySet());
+                for (int target: configuration.transitions.values()) {
+                    if (target != IGNORE) {
+                        stateSet.add(target);
+                    }
+                }
+            }
+
+            int[] states = toArray(stateSet);
+            int[] triggers = toArray(triggerSet);
+            int[] transitions = new int[states.length * triggers.length];
+            EntryAction<?>[][] entryActions = new EntryAction<?>[states.length][];
+            Arrays.fill(transitions, REJECT);
+
+            for (int s = 0; s < states.length; s++) {
+                StateConfiguration<J> configuration = configurations.get(states[s]);
+                if (configuration == null) {
+                    entryActions[s] = new EntryAction<?>[0];
+                    continue;
+                }
+
+                entryActions[s] = configuration.entryActions.toArray(new EntryAction<?>[0]);
+                for (Map.Entry<Integer, Integer> transition: configuration.transitions.entrySet()) {
+                    int target = transition.getValue();
+                    transitions[s * triggers.length + Arrays.binarySearch(triggers, transition.getKey())] =
+                            target == IGNORE ? IGNORE : Arrays.binarySearch(states, target);
+                }
+            }
+
+            return new JobStateMachine<>(states, triggers, transitions, entryActions);
+        }
+
+        private static int[] toArray(Set<Integer> codes) {
+            int[] array = new int[codes.size()];
+            int i = 0;
+            for (int code: codes) {
+                array[i++] = code;
+            }
+            return array;
+        }
+    }
+
+    /**
+     * Transitions and entry actions of a state
+     */
+    public static final class StateConfiguration<J extends AbstractJob> {
+
+        private final Builder<J> builder;
+        private final List<EntryAction<? super J>> entryActions = new ArrayList<>();
+
+        /**
+         * Target state or IGNORE, by trigger
+         */
+        private final Map<Integer, Integer> transitions = new LinkedHashMap<>();
+
+        private StateConfiguration(Builder<J> builder) {
+            this.builder = builder;
+        }
+
+        /**
+         * Run an action upon the entry in the state. The actions run in the order they are added.
+         */
+        public StateConfiguration<J> onEntry(EntryAction<? super J> action) {
+            entryActions.add(action);
+            return this;
+        }
+
+        /**
+         * Move to another state when the trigger is fired
+         */
+        public StateConfiguration<J> permit(int trigger, int state) {
+            if (state < 0) {
+                throw new IllegalArgumentException("Invalid state " + state);
+            }
+            transitions.put(trigger, state);
+            return this;
+        }
+
+        /**
+         * Stay in the state when the trigger is fired
+         */
+        public StateConfiguration<J> ignore(int trigger) {
+            transitions.put(trigger, IGNORE);
+            return this;
+        }
+
+        /**
+         * Configure another state
+         */
+        public StateConfiguration<J> configure(int state) {
+            return builder.configure(state);
+        }
+
+        public JobStateMachine<J> build() {
+            return builder.build();
+        }
+    }
+}
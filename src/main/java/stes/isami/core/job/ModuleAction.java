@@ -1,12 +1,10 @@
 package stes.isami.core.job;
 
 import com.github.oxo42.stateless4j.delegates.Action;
-import com.sshtools.ssh.SshException;
 import stes.isami.core.modules.*;
 import stes.isami.core.parameters.ParameterSet;
-import stes.isami.core.ssh.SshRemoteFactory;
 import stes.isami.core.tasks.ModuleExecutor;
-import stes.isami.core.tasks.ModuleTask;
+import stes.isami.core.tasks.SshModuleTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,6 +12,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Implementation of the Action interface of the state machine.
@@ -62,7 +61,7 @@ public class ModuleAction implements Action {
     @Override
     public void doIt() {
         try {
-            ModuleTask moduleTask = null;
+            Supplier<MethodResult> moduleTask = null;
             ThreadPoolExecutor executor = null;
 
             if (moduleInstance instanceof LocalModule) {
@@ -72,14 +71,14 @@ public class ModuleAction implements Action {
             }
             else if (moduleInstance instanceof SshModule) {
                 SshModule sshModule = (SshModule) moduleInstance;
-                moduleTask = sshModule.runModule(getParameterSet().getID(), SshRemoteFactory.getSshClient(),getParameterSet());
-                 executor = ModuleExecutor.getSshPoolExecutor();
+                moduleTask = new SshModuleTask(sshModule,getParameterSet().getID(),getParameterSet());
+                executor = ModuleExecutor.getSshPoolExecutor();
             }
 
             methodFuture = new CancelableFuture(moduleTask,executor);
             CompletableFuture<Boolean> booleanCompletableFuture =  methodFuture.thenApply(methodResult -> callbackFunction.apply(methodResult));
-            booleanCompletableFuture.thenAccept(t -> consumer.accept(t));
 
+            // the consumer is called once, with false if the module has failed
             booleanCompletableFuture.exceptionally( (th) -> {
                 //error
                 logger.error("Future exceptionally: {} ",th.getMessage());
@@ -90,9 +89,6 @@ public class ModuleAction implements Action {
         } catch (ModuleException e) {
             logger.error(String.format("Module {} : {}",moduleInstance.getName(),e.getMessage()));
             consumer.accept(false);
-        } catch (SshException e) {
-           logger.error(String.format("Module {} : {}",moduleInstance.getName(),e.getMessage()));
-            consumer.accept(false);
         }
         finally {
 
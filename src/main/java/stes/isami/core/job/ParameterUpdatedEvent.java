@@ -0,0 +1,28 @@
+package stes.isami.core.job;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * UPDATE event posted when parameters of a job have changed. It carries the new values, by parameter name.
+ */
+public class ParameterUpdatedEvent extends JobEvent {
+
+    public ParameterUpdatedEvent(UUID id, String name, Object value) {
+        super(id, JobEventType.UPDATE, -1, -1, Collections.singletonMap(name, value));
+    }
+
+    public ParameterUpdatedEvent(UUID id, Map<String, Object> values) {
+        super(id, JobEventType.UPDATE, -1, -1, Collections.unmodifiableMap(new LinkedHashMap<>(values)));
+    }
+
+    /**
+     * Get the new values
+     * @return values by parameter name
+     */
+    public Map<String, Object> getValues() {
+        return getChangedValues();
+    }
+}
@@ -0,0 +1,114 @@
+package stes.isami.core.job;
+
+import stes.isami.core.modules.qdel.QDelModule;
+import stes.isami.core.tasks.ModuleExecutor;
+import stes.isami.core.tasks.SshModuleTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Groups the qdel calls of the jobs stopped by the current thread.
+ * <p>Between {@link #begin()} and {@link #submit()}, the jobs entering the STOP state hand their batchID to the batch
+ * instead of running their own qdel. {@link #submit()} deletes them with one qdel call per {@code maxBatchIDs} jobs
+ * and removes the batchID of the jobs of each successful call.</p>
+ */
+public final class QDelBatch {
+
+    private static final Logger logger = LoggerFactory.getLogger(QDelBatch.class);
+
+    private static final ThreadLocal<QDelBatch> current = new ThreadLocal<>();
+
+    /**
+     * Maximum number of batchIDs per qdel call, to keep the command line short
+     */
+    private static final int maxBatchIDs = 500;
+
+    /**
+     * Jobs to delete, by batchID
+     */
+    private final Map<String, DefaultJob> jobs = new LinkedHashMap<>();
+
+    private QDelBatch() {
+
+    }
+
+    /**
+     * Start grouping the qdel calls of the current thread
+     * @return batch
+     * @throws IllegalStateException if a batch is already open on the thread
+     */
+    public static QDelBatch begin() {
+        if (current.get() != null) {
+            throw new IllegalStateException("A qdel batch is already open");
+        }
+
+        QDelBatch batch = new QDelBatch();
+        current.set(batch);
+        return batch;
+    }
+
+    /**
+     * Close the batch and delete the collected jobs from the batch system
+     * @return completion of the qdel calls
+     */
+    public CompletableFuture<Void> submit() {
+        if (current.get() == this) {
+            current.remove();
+        }
+
+        List<String> batchIDs = new ArrayList<>(jobs.keySet());
+        List<CompletableFuture<?>> qDelCalls = new ArrayList<>();
+        for (int i = 0; i < batchIDs.size(); i += maxBatchIDs) {
+            List<String> ids = new ArrayList<>(batchIDs.subList(i, Math.min(batchIDs.size(), i + maxBatchIDs)));
+            List<DefaultJob> deletedJobs = new ArrayList<>(ids.size());
+            for (String id: ids) {
+                deletedJobs.add(jobs.get(id));
+            }
+
+            SshModuleTask qDelTask = new SshModuleTask(new QDelModule(ids), UUID.randomUUID(), null);
+            qDelCalls.add(CompletableFuture.supplyAsync(qDelTask, ModuleExecutor.getSshPoolExecutor()).thenAccept(methodResult -> {
+                if (methodResult.getExitCode() == 0) {
+                    logger.debug("{} jobs deleted successfully from batch system", ids.size());
+                    for (DefaultJob job: deletedJobs) {
+                        job.removeBatchID();
+                    }
+                } else {
+                    logger.debug("Error removing {} jobs from batch system: {}", ids.size(),
+                            methodResult.getErrorMessages().isEmpty() ? methodResult.getExitCode() : methodResult.getErrorMessages().get(0));
+                }
+            }));
+        }
+        jobs.clear();
+        return CompletableFuture.allOf(qDelCalls.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Number of collected batchIDs
+     */
+    public int size() {
+        return jobs.size();
+    }
+
+    /**
+     * Hand the job to the batch open on the current thread
+     * @param job
+     * @param batchID batchID of the job
+     * @return false if no batch is open, the caller runs qdel itself
+     */
+    static boolean defer(DefaultJob job, String batchID) {
+        QDelBatch batch = current.get();
+        if (batch == null) {
+            return false;
+        }
+
+        batch.jobs.put(batchID, job);
+        return true;
+    }
+}
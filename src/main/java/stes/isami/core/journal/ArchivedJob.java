@@ -0,0 +1,53 @@
+package stes.isami.core.journal;
+
+import java.util.UUID;
+
+/**
+ * Stub left in memory for a job moved to the {@link JobArchive}. It keeps what is needed to list the job and the
+ * location of the job in the archive.
+ */
+public final class ArchivedJob {
+
+    private final UUID id;
+    private final String name;
+    private final int state;
+    private final String batchID;
+    private final long offset;
+    private final int length;
+
+    ArchivedJob(UUID id, String name, int state, String batchID, long offset, int length) {
+        this.id = id;
+        this.name = name;
+        this.state = state;
+        this.batchID = batchID;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * State of the job when it was archived
+     */
+    public int getState() {
+        return state;
+    }
+
+    public String getBatchID() {
+        return batchID;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    int getLength() {
+        return length;
+    }
+}
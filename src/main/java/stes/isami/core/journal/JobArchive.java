@@ -0,0 +1,121 @@
+package stes.isami.core.journal;
+
+import stes.isami.core.job.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Disk store for the jobs which have stopped running.
+ * <p>A job is appended to the archive file as a compressed record and an {@link ArchivedJob} stub gives its
+ * location. The record holds the class, the state and the parameter values of the job, so the job can be made again
+ * by the factory which recovers the jobs of the {@link JobJournal}. The archive belongs to the session: the file is
+ * emptied when the archive is opened. A job archived again is appended, the old record is not reused.</p>
+ */
+public class JobArchive implements Closeable {
+
+    static final String ARCHIVE_FILE = "jobs.archive";
+
+    private final Logger logger = LoggerFactory.getLogger(JobArchive.class);
+
+    private final Path archivePath;
+    private final FileChannel channel;
+    private long size = 0;
+
+    private JobArchive(Path directory) throws IOException {
+        archivePath = directory.resolve(ARCHIVE_FILE);
+        channel = FileChannel.open(archivePath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Open an empty archive in the directory. The directory is created if needed.
+     * @param directory
+     * @return archive
+     * @throws IOException
+     */
+    public static JobArchive open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new JobArchive(directory);
+    }
+
+    /**
+     * Append the job to the archive
+     * @param job
+     * @return stub of the archived job
+     * @throws IOException
+     */
+    public ArchivedJob write(Job job) throws IOException {
+        Map<String, Object> values = JobRecords.getValues(job);
+        int state = job.getState();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            JobRecords.writeID(out, job.getID());
+            out.writeUTF(job.getClass().getName());
+            out.writeInt(state);
+            JobRecords.writeValues(out, values);
+        }
+        byte[] record = bytes.toByteArray();
+
+        long offset;
+        synchronized (this) {
+            offset = size;
+            size += record.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+
+        Object batchID = values.get("batchID");
+        return new ArchivedJob(job.getID(), job.getName(), state, batchID instanceof String ? (String) batchID : null,
+                offset, record.length);
+    }
+
+    /**
+     * Read an archived job
+     * @param archivedJob stub returned by {@link #write(Job)}
+     * @return class, state and parameter values of the job
+     * @throws IOException
+     */
+    public RecoveredJob read(ArchivedJob archivedJob) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(archivedJob.getLength());
+        long position = archivedJob.getOffset();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Job " + archivedJob.getId() + " is not in the archive " + archivePath);
+            }
+            position += read;
+        }
+
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(buffer.array())))) {
+            return new RecoveredJob(JobRecords.readID(in), in.readUTF(), in.readInt(), JobRecords.readValues(in));
+        }
+    }
+
+    /**
+     * Size of the archive file in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        logger.info("Archive {}: {} bytes", archivePath, getSize());
+        channel.close();
+    }
+}
@@ -0,0 +1,396 @@
+package stes.isami.core.journal;
+
+import stes.isami.core.job.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the jobs, used to recover them after a restart of the JVM.
+ * <p>The journal file is memory-mapped. A record is written as its length, its content and the CRC32 of the content.
+ * The length is written last, so a record cut by a crash is ignored by the replay. The records are the creation of a
+ * job, new parameter values, a state transition and the deletion of a job. All the records survive a crash of the JVM.
+ * The file is forced to the disk after a state transition, after a new batchID and at each snapshot, so these records
+ * and the ones written before them also survive a crash of the system.</p>
+ * <p>The journal keeps the last known state of each job. Every {@code snapshotInterval} records, this state is written
+ * to the snapshot file and the journal is emptied. At opening, the snapshot is loaded and the journal is replayed on
+ * top of it.</p>
+ * <p>The parameter values which are journaled are listed in {@link JobRecords}.</p>
+ */
+public class JobJournal implements Closeable {
+
+    static final String JOURNAL_FILE = "jobs.journal";
+    static final String SNAPSHOT_FILE = "jobs.snapshot";
+
+    private static final byte CREATE = 1;
+    private static final byte PARAMETERS = 2;
+    private static final byte STATE = 3;
+    private static final byte DELETE = 4;
+
+    private static final int SNAPSHOT_MAGIC = 0x4A4F4231;
+
+    /**
+     * Parameter which links a job to the batch system, forced to the disk
+     */
+    private static final String BATCH_ID = "batchID";
+
+    /**
+     * The mapping grows by segments of 4 MB
+     */
+    private static final int SEGMENT_SIZE = 4 << 20;
+
+    private final Logger logger = LoggerFactory.getLogger(JobJournal.class);
+
+    private final Path journalPath;
+    private final Path snapshotPath;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    /**
+     * Last known state of the jobs
+     */
+    private final Map<UUID, RecoveredJob> jobs = new LinkedHashMap<>();
+
+    /**
+     * Jobs found at opening
+     */
+    private final List<RecoveredJob> recoveredJobs = new ArrayList<>();
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final CRC32 crc = new CRC32();
+
+    private int snapshotInterval = 10000;
+    private int recordCount = 0;
+    private boolean closed = false;
+
+    private JobJournal(Path directory) throws IOException {
+        journalPath = directory.resolve(JOURNAL_FILE);
+        snapshotPath = directory.resolve(SNAPSHOT_FILE);
+
+        loadSnapshot();
+
+        channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(channel.size(), SEGMENT_SIZE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        replay();
+
+        for (RecoveredJob job: jobs.values()) {
+            recoveredJobs.add(job.copy());
+        }
+        logger.info("Journal {}: {} jobs recovered", directory, recoveredJobs.size());
+    }
+
+    /**
+     * Open the journal of the directory. The directory is created if needed.
+     * @param directory
+     * @return journal
+     * @throws IOException if the journal cannot be opened or the snapshot is not valid
+     */
+    public static JobJournal open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new JobJournal(directory);
+    }
+
+    /**
+     * Get the jobs found in the journal when it was opened
+     * @return copies of the recovered jobs
+     */
+    public synchronized List<RecoveredJob> getRecoveredJobs() {
+        return new ArrayList<>(recoveredJobs);
+    }
+
+    /**
+     * Journal a new job with its parameter values and its state
+     * @param job
+     */
+    public synchronized void jobCreated(Job job) {
+        Map<String, Object> values = JobRecords.getValues(job);
+        String jobClass = job.getClass().getName();
+        int state = job.getState();
+        jobs.put(job.getID(), new RecoveredJob(job.getID(), jobClass, state, values));
+        append(CREATE, job.getID(), false, out -> {
+            out.writeUTF(jobClass);
+            out.writeInt(state);
+            JobRecords.writeValues(out, values);
+        });
+    }
+
+    /**
+     * Journal new parameter values. The values of unsupported types are ignored.
+     * @param id
+     * @param values by parameter name
+     */
+    public synchronized void parameterUpdated(UUID id, Map<String, Object> values) {
+        RecoveredJob job = jobs.get(id);
+        if (job == null) {
+            return;
+        }
+
+        Map<String, Object> journaledValues = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> value: values.entrySet()) {
+            if (JobRecords.isSupported(value.getValue()) && !Objects.equals(job.getValues().get(value.getKey()), value.getValue())) {
+                journaledValues.put(value.getKey(), value.getValue());
+                job.putValue(value.getKey(), value.getValue());
+            }
+        }
+
+        if (!journaledValues.isEmpty()) {
+            append(PARAMETERS, id, journaledValues.containsKey(BATCH_ID), out -> JobRecords.writeValues(out, journaledValues));
+        }
+    }
+
+    /**
+     * Journal a state transition
+     * @param id
+     * @param state
+     */
+    public synchronized void stateChanged(UUID id, int state) {
+        RecoveredJob job = jobs.get(id);
+        if (job == null || job.getState() == state) {
+            return;
+        }
+
+        job.setState(state);
+        append(STATE, id, true, out -> out.writeInt(state));
+    }
+
+    /**
+     * Journal the deletion of a job
+     * @param id
+     */
+    public synchronized void jobDeleted(UUID id) {
+        if (jobs.remove(id) != null) {
+            append(DELETE, id, false, out -> {});
+        }
+    }
+
+    /**
+     * Write the state of the jobs to the snapshot file and empty the journal
+     * @throws IOException
+     */
+    public synchronized void snapshot() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        Path tmpPath = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream fileStream = new FileOutputStream(tmpPath.toFile());
+             DataOutputStream snapshot = new DataOutputStream(new BufferedOutputStream(fileStream))) {
+            snapshot.writeInt(SNAPSHOT_MAGIC);
+            snapshot.writeInt(jobs.size());
+            for (RecoveredJob job: jobs.values()) {
+                JobRecords.writeID(snapshot, job.getId());
+                snapshot.writeUTF(job.getJobClass());
+                snapshot.writeInt(job.getState());
+                JobRecords.writeValues(snapshot, job.getValues());
+            }
+            snapshot.flush();
+            fileStream.getFD().sync();
+        }
+        Files.move(tmpPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // the first length is cleared first, so a crash while clearing leaves an empty journal
+        byte[] zeros = new byte[8192];
+        int used = buffer.position();
+        buffer.position(0);
+        while (buffer.position() < used) {
+            buffer.put(zeros, 0, Math.min(zeros.length, used - buffer.position()));
+        }
+        buffer.position(0);
+        buffer.force();
+        recordCount = 0;
+    }
+
+    /**
+     * Number of records written since the last snapshot
+     */
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    public synchronized int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /**
+     * Set the number of records between two snapshots
+     * @param snapshotInterval
+     */
+    public synchronized void setSnapshotInterval(int snapshotInterval) {
+        if (snapshotInterval < 1) {
+            throw new IllegalArgumentException("The snapshot interval must be positive");
+        }
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Write a snapshot and close the journal
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            snapshot();
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    /*****************************************************************************************************
+     *
+     *
+     *                                      PRIVATE
+     *
+     */
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Write a record to the journal
+     * @param force true to force the journal to the disk after the record
+     */
+    private void append(byte type, UUID id, boolean force, RecordWriter writer) {
+        if (closed) {
+            return;
+        }
+
+        try {
+            bytes.reset();
+            out.writeByte(type);
+            JobRecords.writeID(out, id);
+            writer.write(out);
+            out.flush();
+            byte[] record = bytes.toByteArray();
+
+            ensureCapacity(record.length + 8);
+            crc.reset();
+            crc.update(record, 0, record.length);
+            int start = buffer.position();
+            buffer.position(start + 4);
+            buffer.put(record);
+            buffer.putInt((int) crc.getValue());
+            buffer.putInt(start, record.length);
+
+            if (++recordCount >= snapshotInterval) {
+                snapshot();
+            }
+            else if (force) {
+                buffer.force();
+            }
+        } catch (IOException e) {
+            logger.error("Journal {}: {}", journalPath, e.toString());
+        }
+    }
+
+    /**
+     * Map a larger part of the file if the record does not fit. Four bytes are kept free for the end of the journal.
+     */
+    private void ensureCapacity(int recordSize) throws IOException {
+        if (buffer.remaining() >= recordSize + 4) {
+            return;
+        }
+
+        int position = buffer.position();
+        long size = (long) buffer.capacity() + Math.max(SEGMENT_SIZE, recordSize + 4);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Journal is full");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.position(position);
+    }
+
+    /**
+     * Apply the records of the journal to the jobs, until the first empty or invalid record
+     */
+    private void replay() throws IOException {
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining() - 4) {
+                buffer.position(start);
+                break;
+            }
+
+            byte[] record = new byte[length];
+            buffer.get(record);
+            crc.reset();
+            crc.update(record, 0, length);
+            if (buffer.getInt() != (int) crc.getValue()) {
+                logger.warn("Journal {}: invalid record at {}, the rest of the journal is ignored", journalPath, start);
+                buffer.position(start);
+                break;
+            }
+
+            apply(new DataInputStream(new ByteArrayInputStream(record)));
+            recordCount++;
+        }
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        UUID id = JobRecords.readID(in);
+        RecoveredJob job = jobs.get(id);
+
+        switch (type) {
+            case CREATE:
+                String jobClass = in.readUTF();
+                int state = in.readInt();
+                jobs.put(id, new RecoveredJob(id, jobClass, state, JobRecords.readValues(in)));
+                break;
+            case PARAMETERS:
+                Map<String, Object> values = JobRecords.readValues(in);
+                if (job != null) {
+                    values.forEach(job::putValue);
+                }
+                break;
+            case STATE:
+                int newState = in.readInt();
+                if (job != null) {
+                    job.setState(newState);
+                }
+                break;
+            case DELETE:
+                jobs.remove(id);
+                break;
+            default:
+                throw new IOException("Unknown journal record: " + type);
+        }
+    }
+
+    private void loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotPath)) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Invalid snapshot " + snapshotPath);
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                UUID id = JobRecords.readID(in);
+                String jobClass = in.readUTF();
+                int state = in.readInt();
+                jobs.put(id, new RecoveredJob(id, jobClass, state, JobRecords.readValues(in)));
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package stes.isami.core.journal;
+
+import stes.isami.core.job.Job;
+import stes.isami.core.parameters.Parameter;
+import stes.isami.core.parameters.parametertypes.Aircraft;
+import stes.isami.core.parameters.parametertypes.CodeParameter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Binary encoding of the jobs shared by the {@link JobJournal}, the {@link JobArchive} and the history of the job
+ * events.
+ * <p>Only the values of the string, integer, double, boolean and aircraft parameters are encoded. The code templates
+ * are not, they come back with the job made by the creator.</p>
+ */
+public final class JobRecords {
+
+    private static final byte NULL_VALUE = 0;
+    private static final byte STRING_VALUE = 1;
+    private static final byte INTEGER_VALUE = 2;
+    private static final byte DOUBLE_VALUE = 3;
+    private static final byte BOOLEAN_VALUE = 4;
+    private static final byte AIRCRAFT_VALUE = 5;
+
+    private JobRecords() {
+
+    }
+
+    /**
+     * Get the values of the parameters of the job which can be encoded
+     * @param job
+     * @return values by parameter name
+     */
+    static Map<String, Object> getValues(Job job) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (Parameter<?> parameter: job.getParameters()) {
+            if (!(parameter instanceof CodeParameter) && isSupported(parameter.getValue())) {
+                values.put(parameter.getName(), parameter.getValue());
+            }
+        }
+        return values;
+    }
+
+    public static boolean isSupported(Object value) {
+        return value == null || value instanceof String || value instanceof Integer || value instanceof Double
+                || value instanceof Boolean || value instanceof Aircraft;
+    }
+
+    public static void writeID(DataOutputStream out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    public static UUID readID(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    public static void writeValues(DataOutputStream out, Map<String, Object> values) throws IOException {
+        out.writeInt(values.size());
+        for (Map.Entry<String, Object> value: values.entrySet()) {
+            out.writeUTF(value.getKey());
+            Object v = value.getValue();
+            if (v == null) {
+                out.writeByte(NULL_VALUE);
+            }
+            else if (v instanceof String) {
+                // writeUTF is limited to 64 KB
+                byte[] string = ((String) v).getBytes(StandardCharsets.UTF_8);
+                out.writeByte(STRING_VALUE);
+                out.writeInt(string.length);
+                out.write(string);
+            }
+            else if (v instanceof Integer) {
+                out.writeByte(INTEGER_VALUE);
+                out.writeInt((Integer) v);
+            }
+            else if (v instanceof Double) {
+                out.writeByte(DOUBLE_VALUE);
+                out.writeDouble((Double) v);
+            }
+            else if (v instanceof Boolean) {
+                out.writeByte(BOOLEAN_VALUE);
+                out.writeBoolean((Boolean) v);
+            }
+            else {
+                out.writeByte(AIRCRAFT_VALUE);
+                out.writeUTF(((Aircraft) v).name());
+            }
+        }
+    }
+
+    public static Map<String, Object> readValues(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            byte type = in.readByte();
+            switch (type) {
+                case NULL_VALUE:
+                    values.put(name, null);
+                    break;
+                case STRING_VALUE:
+                    byte[] string = new byte[in.readInt()];
+                    in.readFully(string);
+                    values.put(name, new String(string, StandardCharsets.UTF_8));
+                    break;
+                case INTEGER_VALUE:
+                    values.put(name, in.readInt());
+                    break;
+                case DOUBLE_VALUE:
+                    values.put(name, in.readDouble());
+                    break;
+                case BOOLEAN_VALUE:
+                    values.put(name, in.readBoolean());
+                    break;
+                case AIRCRAFT_VALUE:
+                    values.put(name, Aircraft.valueOf(in.readUTF()));
+                    break;
+                default:
+                    throw new IOException("Unknown value type: " + type);
+            }
+        }
+        return values;
+    }
+}
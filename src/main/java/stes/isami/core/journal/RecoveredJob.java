@@ -0,0 +1,111 @@
+package stes.isami.core.journal;
+
+import stes.isami.core.job.JobState;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Last known state of a job, as written in the {@link JobJournal}.
+ * <p>The job itself cannot be rebuilt by the core because its modules come from the creator which made it. The
+ * application builds a new job from the class and the parameter values, then the core restores it with
+ * {@link stes.isami.core.job.Job#restore(UUID, Map, int)}.</p>
+ */
+public final class RecoveredJob {
+
+    private final UUID id;
+    private final String jobClass;
+    private int state;
+    private final Map<String, Object> values;
+
+    RecoveredJob(UUID id, String jobClass, int state, Map<String, Object> values) {
+        this.id = id;
+        this.jobClass = jobClass;
+        this.state = state;
+        this.values = values;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    /**
+     * Class name of the job
+     */
+    public String getJobClass() {
+        return jobClass;
+    }
+
+    /**
+     * Name of the job or null if the name is not journaled
+     */
+    public String getName() {
+        Object name = values.get("name");
+        return name == null ? null : name.toString();
+    }
+
+    /**
+     * Last state journaled
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * State in which the job is restored.
+     * <br>A submitted job is restored in its batch state, or in SUBMITTED if it was in another state, so that the next
+     * qstat tells whether it is still in the batch system. A job which was preparing its submission is restored READY
+     * and a stopping job is restored STOP.
+     */
+    public int getRecoveryState() {
+        boolean submitted = getBatchID() != null;
+
+        switch (state) {
+            case JobState.WAITING:
+            case JobState.RUN:
+            case JobState.SUSPENDED:
+            case JobState.TRANSFERRING:
+                return submitted ? state : JobState.READY;
+            case JobState.PREPROCESSING:
+            case JobState.RESTARTING:
+            case JobState.NONE:
+                return JobState.READY;
+            case JobState.STOPPING:
+                return JobState.STOP;
+            default:
+                if (JobState.isBatchState(state) || state == JobState.SUBMITTING || state == JobState.POSTPROCESSING) {
+                    return submitted ? JobState.SUBMITTED : JobState.READY;
+                }
+                return state;
+        }
+    }
+
+    /**
+     * Batch ID or null if the job has not been submitted
+     */
+    public String getBatchID() {
+        Object batchID = values.get("batchID");
+        return batchID instanceof String ? (String) batchID : null;
+    }
+
+    /**
+     * Values of the journaled parameters, by name
+     */
+    public Map<String, Object> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    void setState(int state) {
+        this.state = state;
+    }
+
+    void putValue(String name, Object value) {
+        values.put(name, value);
+    }
+
+    RecoveredJob copy() {
+        return new RecoveredJob(id, jobClass, state, new LinkedHashMap<>(values));
+    }
+}
@@ -27,8 +27,9 @@ public interface MethodResult {
     public String getModuleName();
 
     /**
-     * Return the exit code of the methods
-     * @return 0 OK, 1 KO
+     * Return the exit code of the methods.
+     * <br>For the methods executing a remote command, it is the exit code of the command.
+     * @return 0 OK, otherwise KO
      */
     public  int getExitCode();
 
@@ -3,6 +3,7 @@ package stes.isami.core.modules;
 import com.sshtools.ssh.SshClient;
 import com.sshtools.ssh.SshException;
 import stes.isami.core.parameters.parametertypes.StringParameter;
+import stes.isami.core.ssh.CommandResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,9 +33,18 @@ public class SimpleCommandMethod extends SshSessionMethod implements Method {
     public MethodResult execute() {
 
         try {
-            String outString = executeSessionCommand(createCommand(command));
+            CommandResult commandResult = executeBatchCommand(command);
+            String outString = getOutputText(commandResult);
+            int exitCode = getExitCode(commandResult);
+
             StringParameter commandOutput = new StringParameter("SimpleCommandMethod","Output from SimpleCommandMethod", "stes/isami/core",outString);
-            StandardMethodResult result = new StandardMethodResult("stes/isami/core",METHOD_NAME, UUID.randomUUID(), StandardMethodResult.OK, "");
+            StandardMethodResult result;
+            if (exitCode != StandardMethodResult.OK) {
+                result = new StandardMethodResult("stes/isami/core",METHOD_NAME, UUID.randomUUID(), exitCode, getErrorMessage(commandResult,outString));
+            }
+            else {
+                result = new StandardMethodResult("stes/isami/core",METHOD_NAME, UUID.randomUUID(), StandardMethodResult.OK, "");
+            }
             result.addParameter(commandOutput);
             return  result;
         } catch (SshException e) {
@@ -51,11 +61,4 @@ public class SimpleCommandMethod extends SshSessionMethod implements Method {
     public void cancel() {
 
     }
-
-    private String createCommand(String command) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(". /opt/sge/default/common/settings.sh;").append(command);
-
-        return sb.toString();
-    }
 }
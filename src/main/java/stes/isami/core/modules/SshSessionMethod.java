@@ -3,12 +3,22 @@ package stes.isami.core.modules;
 import com.sshtools.ssh.SshClient;
 import com.sshtools.ssh.SshException;
 import com.sshtools.ssh.SshSession;
+import stes.isami.core.ssh.BackendSshClient;
+import stes.isami.core.ssh.BatchBackend;
+import stes.isami.core.ssh.ChunkedOutputReader;
+import stes.isami.core.ssh.CommandNotSentException;
+import stes.isami.core.ssh.CommandResult;
+import stes.isami.core.ssh.OutputConsumer;
+import stes.isami.core.ssh.RemoteShell;
+import stes.isami.core.ssh.SessionOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.CharBuffer;
+import java.util.concurrent.*;
 
 /**
  * Implement the basic method for executing a command on the remote host
@@ -18,11 +28,202 @@ public class SshSessionMethod {
     private final Logger logger = LoggerFactory.getLogger(this.getClass().getName());
     private final SshClient sshClient;
 
+    /**
+     * Time in ms to wait for the exit status and the error output after the end of the output
+     */
+    private static final long EXIT_STATUS_TIMEOUT = 5000;
+
+    /**
+     * Drains the standard error while the standard output is read
+     */
+    private static final ExecutorService stderrExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "ssh-stderr-reader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Number of characters kept in memory by {@link #executeSessionOutput(String)}
+     */
+    private int spillThreshold = SessionOutput.DEFAULT_SPILL_THRESHOLD;
+
     public SshSessionMethod(SshClient sshClient) {
         this.sshClient = sshClient;
     }
 
+    public SshClient getSshClient() {
+        return sshClient;
+    }
+
+    /**
+     * Execute a batch system command. The SGE settings are sourced before the command.
+     * <p>If the persistent shell is enabled (see {@link RemoteShell#setEnabled(boolean)}), the command is
+     * pipelined into the shell of the connection. Otherwise, or if the shell cannot be opened or is closed before
+     * the command is written, a new session without pseudo terminal is opened for the command. If the shell fails
+     * after the command has been written, the exception is thrown: the command may have run and is not repeated.</p>
+     * <p>The caller must call {@link SessionOutput#dispose()} on the output when done.</p>
+     * @param command batch system command
+     * @return output and exit code of the command
+     * @throws SshException
+     * @throws IOException
+     */
+    public CommandResult executeBatchCommand(String command) throws SshException, IOException {
+
+        BatchBackend backend = BackendSshClient.getBackend(sshClient);
+        if (backend != null) {
+            return backend.execute(command);
+        }
+
+        if (RemoteShell.isEnabled()) {
+            RemoteShell shell;
+            try {
+                shell = RemoteShell.forClient(sshClient);
+            } catch (SshException e) {
+                logger.warn("Cannot open the remote shell: {}. Executing the command in a new session", e.getMessage());
+                shell = null;
+            }
+
+            if (shell != null) {
+                // once written, the command may have run: it is not executed again
+                try {
+                    return shell.execute(command);
+                } catch (CommandNotSentException e) {
+                    logger.warn("Remote shell closed: {}. Executing the command in a new session", e.getMessage());
+                }
+            }
+        }
+
+        return executeCommand(RemoteShell.SGE_SETTINGS + ";" + command);
+    }
+
+    /**
+     * Execute the command in a new session without pseudo terminal.
+     * <p>The standard output and the standard error are read separately and the exit status sent by
+     * the remote host is returned. The lines end with {@code \n}.
+     * The caller must call {@link SessionOutput#dispose()} on the output when done.</p>
+     * @param command
+     * @return output, error output and exit code of the command
+     * @throws SshException
+     * @throws IOException
+     */
+    public CommandResult executeCommand(String command) throws SshException, IOException {
+
+        BatchBackend backend = BackendSshClient.getBackend(sshClient);
+        if (backend != null) {
+            return backend.execute(command);
+        }
+
+        SessionOutput output = new SessionOutput(spillThreshold);
+        SshSession sshSession = null;
+        try {
+            sshSession = sshClient.openSessionChannel();
+            if (!sshSession.executeCommand(command)) {
+                throw new SshException("Cannot execute command", SshException.CHANNEL_FAILURE);
+            }
+
+            InputStream errorStream = sshSession.getStderrInputStream();
+            SessionOutput errorOutput = new SessionOutput();
+            Future<?> errorFuture = stderrExecutor.submit(() -> {
+                new ChunkedOutputReader().read(errorStream, errorOutput);
+                return null;
+            });
+
+            InputStream in = sshSession.getInputStream();
+            new ChunkedOutputReader().read(in, output);
+
+            String errorText;
+            try {
+                errorFuture.get(EXIT_STATUS_TIMEOUT, TimeUnit.MILLISECONDS);
+                errorText = errorOutput.getText();
+            } catch (ExecutionException | TimeoutException e) {
+                errorFuture.cancel(true);
+                errorText = "";
+            }
+            finally {
+                errorOutput.dispose();
+            }
+
+            int exitCode = waitExitCode(sshSession);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Command exit code: {} Output: {} characters", exitCode, output.length());
+            }
+
+            return new CommandResult(output, errorText, exitCode);
+        }
+        catch (SshException | IOException e) {
+            output.dispose();
+            throw e;
+        }
+        catch (InterruptedException e) {
+            output.dispose();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the command output");
+        }
+        catch (Throwable t) {
+            output.dispose();
+            throw new SshException(t);
+        } finally {
+            if (sshSession != null)
+                sshSession.close();
+        }
+    }
+
+    /**
+     * Execute the command and return the output as a String
+     * @param command
+     * @return output of the command
+     * @throws SshException
+     * @throws IOException
+     */
     public String executeSessionCommand (String command) throws SshException, IOException {
+        SessionOutput output = executeSessionOutput(command);
+        try {
+            return output.getText();
+        }
+        finally {
+            output.dispose();
+        }
+    }
+
+    /**
+     * Execute the command and keep the output in a {@link SessionOutput}.
+     * <p>The output larger than the spill threshold is written to a temporary file.
+     * The caller must call {@link SessionOutput#dispose()} when done.</p>
+     * @param command
+     * @return output of the command
+     * @throws SshException
+     * @throws IOException
+     */
+    public SessionOutput executeSessionOutput(String command) throws SshException, IOException {
+        SessionOutput output = new SessionOutput(spillThreshold);
+        executeSessionCommand(command, output);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Output command: {} characters. Spilled: {}", output.length(), output.isSpilled());
+        }
+        return output;
+    }
+
+    /**
+     * Execute the command and stream the output to {@code consumer} as it arrives
+     * @param command
+     * @param consumer receives the output chunks
+     * @throws SshException
+     * @throws IOException
+     */
+    public void executeSessionCommand(String command, OutputConsumer consumer) throws SshException, IOException {
+
+        BatchBackend backend = BackendSshClient.getBackend(sshClient);
+        if (backend != null) {
+            SessionOutput output = backend.execute(command).getOutput();
+            try {
+                output.readTo(consumer);
+            }
+            finally {
+                output.dispose();
+            }
+            return;
+        }
 
         SshSession sshSession = null;
         try {
@@ -34,20 +235,14 @@ public class SshSessionMethod {
                 sshSession.executeCommand(command);
                 InputStream in = sshSession.getInputStream();
 
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                int read;
-                while ((read = in.read()) > -1) {
-                    if (read > 0)
-                        out.write(read);
-                }
+                new ChunkedOutputReader().read(in, consumer);
 
                 in.close();
                 sshSession.close();
-                logger.debug("Output command: {}", new String(out.toByteArray()));
-                return new String(out.toByteArray());
             }
             else {
-                return "Failed to allocate pseudo terminal";
+                consumer.onChunk(CharBuffer.wrap("Failed to allocate pseudo terminal"));
+                consumer.onEnd();
             }
         }
         catch (Throwable t) {
@@ -57,4 +252,68 @@ public class SshSessionMethod {
                 sshSession.close();
         }
     }
+
+    /**
+     * Read the output of the command as a String and delete its temporary file
+     * @param result
+     * @return output
+     * @throws IOException
+     */
+    protected String getOutputText(CommandResult result) throws IOException {
+        try {
+            return result.getOutput().getText();
+        }
+        finally {
+            result.getOutput().dispose();
+        }
+    }
+
+    /**
+     * Get the exit code to be set in the {@link MethodResult}. If the host did not send the exit status,
+     * the command is considered successful.
+     * @param result
+     * @return remote exit code
+     */
+    protected int getExitCode(CommandResult result) {
+        return result.hasExitCode() ? result.getExitCode() : MethodResult.OK;
+    }
+
+    /**
+     * Get the error message of a failed command: the error output, or the output if the error output is empty
+     * @param result
+     * @param outString output of the command
+     * @return error message
+     */
+    protected String getErrorMessage(CommandResult result, String outString) {
+        String error = result.getErrorOutput().trim();
+        return error.isEmpty() ? outString.trim() : error;
+    }
+
+    /**
+     * The exit status is sent by the host after the end of the output. Wait for it at most
+     * {@link #EXIT_STATUS_TIMEOUT} ms.
+     */
+    private int waitExitCode(SshSession sshSession) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + EXIT_STATUS_TIMEOUT;
+        while (sshSession.exitCode() == SshSession.EXITCODE_NOT_RECEIVED
+                && !sshSession.isClosed()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        int exitCode = sshSession.exitCode();
+        return exitCode == SshSession.EXITCODE_NOT_RECEIVED ? CommandResult.UNKNOWN_EXIT_CODE : exitCode;
+    }
+
+    public int getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * Set the number of characters kept in memory before the output is written to a temporary file
+     * @param spillThreshold
+     */
+    public void setSpillThreshold(int spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
 }
@@ -10,20 +10,33 @@ import stes.isami.core.tasks.ModuleTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.UUID;
 
 /**
  * This module creates the qstat method which execute the batch system
- * qstat command.
+ * qdel command.
  * <br>This is a internal module and it will be created externally of ModuleExecutor.
+ * <br>The module deletes the job with the batchID parameter or, if it is created with a list of batchIDs, all the
+ * jobs of the list with one qdel call.
  */
 public class QDelModule implements SshModule {
 
     private Logger logger = LoggerFactory.getLogger(QDelModule.class);
     private static final String MODULE_NAME = "QDelModule";
 
+    private final List<String> batchIDs;
+
     public QDelModule() {
+        this.batchIDs = null;
+    }
 
+    /**
+     * Create a module which deletes all the jobs in one call
+     * @param batchIDs
+     */
+    public QDelModule(List<String> batchIDs) {
+        this.batchIDs = batchIDs;
     }
 
     @Override
@@ -35,6 +48,13 @@ public class QDelModule implements SshModule {
     public ModuleTask runModule(UUID jobID, SshClient sshClient, ParameterSet parameterSet) throws ModuleException {
 
 
+        if (batchIDs != null) {
+            if (batchIDs.isEmpty()) {
+                throw new ModuleException("Cannot create qdel command: no batchID");
+            }
+            return new ModuleTask("qdelMethod",new SimpleCommandMethod(sshClient,"qdel ".concat(String.join(",", batchIDs))));
+        }
+
         try {
             Parameter batchId = parameterSet.getParameter("batchID");
 
@@ -6,25 +6,53 @@ import stes.isami.core.modules.Method;
 import stes.isami.core.modules.MethodResult;
 import stes.isami.core.modules.SshSessionMethod;
 import stes.isami.core.modules.StandardMethodResult;
-import stes.isami.core.parameters.parametertypes.StringParameter;
+import stes.isami.core.ssh.CommandResult;
+import stes.isami.core.ssh.SessionOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.util.UUID;
 
 /**
- * This method runs the qstat command and return the output
+ * This method runs the qstat command and returns the record of the jobs found in the output.
+ * <br>In xml mode, {@code qstat -xml} is executed and the output is read by a StAX parser. Otherwise the text
+ * output is parsed line by line. In both cases the output is never kept as one String.
  */
 public class QStatMethod extends SshSessionMethod implements Method {
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass().getName());
     private static final String METHOD_NAME = "QStatMethod";
+    private static final String XML_OPTION = " -xml";
     private final String command;
+    private final boolean xml;
+    private final QStatScope scope;
 
     public QStatMethod(SshClient sshClient, String command) {
+        this(sshClient, command, false);
+    }
+
+    /**
+     * @param sshClient
+     * @param command qstat command
+     * @param xml true to run qstat in xml mode
+     */
+    public QStatMethod(SshClient sshClient, String command, boolean xml) {
+        this(sshClient, command, xml, QStatScope.all());
+    }
+
+    /**
+     * @param sshClient
+     * @param command qstat command
+     * @param xml true to run qstat in xml mode. It is ignored by the JOBS scope which filters the text output.
+     * @param scope jobs queried
+     */
+    public QStatMethod(SshClient sshClient, String command, boolean xml, QStatScope scope) {
         super(sshClient);
         this.command = command;
+        this.xml = xml && scope.getType() != QStatScope.Type.JOBS;
+        this.scope = scope;
     }
 
     @Override
@@ -36,16 +64,33 @@ public class QStatMethod extends SshSessionMethod implements Method {
     public MethodResult execute() {
 
         try {
-            String outString = executeSessionCommand(createQStatCommand(command));
-            StringParameter qstatOutput = new StringParameter("qstatOutput","Output from qstat", "stes/isami/core",outString);
+            String qstatCommand = xml ? command + XML_OPTION : command;
+            CommandResult commandResult = executeBatchCommand(scope.buildCommand(qstatCommand, getSshClient().getUsername()));
+            int exitCode = getExitCode(commandResult);
+
+            if (exitCode != StandardMethodResult.OK) {
+                String outString = getOutputText(commandResult);
+                return new StandardMethodResult("stes/isami/core",METHOD_NAME,UUID.randomUUID(),exitCode,getErrorMessage(commandResult,outString));
+            }
+
+            SessionOutput output = commandResult.getOutput();
+            try {
+                if (xml) {
+                    QStatXmlParser parser = new QStatXmlParser();
+                    try (Reader reader = output.openReader()) {
+                        parser.read(reader);
+                    }
+                    return new QStatMethodResult("stes/isami/core", METHOD_NAME, UUID.randomUUID(), parser.getRecords(),
+                            output.length(), 0, scope, true);
+                }
 
-            if (outString.contains("No such file or directory")) {
-                return new StandardMethodResult("stes/isami/core",METHOD_NAME,UUID.randomUUID(),StandardMethodResult.ERROR,outString);
+                QStatParser parser = new QStatParser();
+                output.readLines(parser);
+                return new QStatMethodResult("stes/isami/core", METHOD_NAME, UUID.randomUUID(), parser.getRecords(),
+                        output.length(), parser.getLines(), scope);
             }
-            else {
-                StandardMethodResult result = new StandardMethodResult("stes/isami/core", METHOD_NAME, UUID.randomUUID(), StandardMethodResult.OK, "");
-                result.addParameter(qstatOutput);
-                return result;
+            finally {
+                output.dispose();
             }
         } catch (SshException e) {
             logger.error(e.getMessage());
@@ -61,11 +106,4 @@ public class QStatMethod extends SshSessionMethod implements Method {
     public void cancel() {
 
     }
-
-    private String createQStatCommand(String command) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(". /opt/sge/default/common/settings.sh;").append(command);
-
-        return sb.toString();
-    }
 }
@@ -0,0 +1,78 @@
+package stes.isami.core.modules.qstat;
+
+import stes.isami.core.modules.StandardMethodResult;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Result of the {@link QStatMethod}. It holds the record of every job found in the qstat output.
+ */
+public class QStatMethodResult extends StandardMethodResult {
+
+    private final Map<String, QStatRecord> records;
+    private final long outputSize;
+    private final int outputLines;
+    private final QStatScope scope;
+    private final boolean xml;
+
+    public QStatMethodResult(String moduleName, String methodName, UUID jobID, Map<String, QStatRecord> records,
+                             long outputSize, int outputLines) {
+        this(moduleName, methodName, jobID, records, outputSize, outputLines, QStatScope.all());
+    }
+
+    public QStatMethodResult(String moduleName, String methodName, UUID jobID, Map<String, QStatRecord> records,
+                             long outputSize, int outputLines, QStatScope scope) {
+        this(moduleName, methodName, jobID, records, outputSize, outputLines, scope, false);
+    }
+
+    /**
+     * @param xml true if the output is the xml output of qstat
+     */
+    public QStatMethodResult(String moduleName, String methodName, UUID jobID, Map<String, QStatRecord> records,
+                             long outputSize, int outputLines, QStatScope scope, boolean xml) {
+        super(moduleName, methodName, jobID, OK, "");
+        this.xml = xml;
+        this.records = Collections.unmodifiableMap(records);
+        this.outputSize = outputSize;
+        this.outputLines = outputLines;
+        this.scope = scope;
+    }
+
+    /**
+     * Get the scope of the query. A job outside the scope is not missing from the batch system.
+     */
+    public QStatScope getScope() {
+        return scope;
+    }
+
+    /**
+     * Get the qstat record of the jobs
+     * @return map batchID - record
+     */
+    public Map<String, QStatRecord> getRecords() {
+        return records;
+    }
+
+    /**
+     * Number of characters of the qstat output
+     */
+    public long getOutputSize() {
+        return outputSize;
+    }
+
+    /**
+     * Number of lines of the qstat output, 0 for the xml output
+     */
+    public int getOutputLines() {
+        return outputLines;
+    }
+
+    /**
+     * True if the output is the xml output of qstat
+     */
+    public boolean isXml() {
+        return xml;
+    }
+}
@@ -18,11 +18,32 @@ import java.util.UUID;
 public class QStatModule implements SshModule {
 
     private final String command;
+    private final boolean xml;
+    private final QStatScope scope;
     private Logger logger = LoggerFactory.getLogger(QStatModule.class);
     private static final String MODULE_NAME = "QStatModule";
 
     public QStatModule(String command) {
+        this(command, false);
+    }
+
+    /**
+     * @param command qstat command
+     * @param xml true to parse the output of {@code qstat -xml}
+     */
+    public QStatModule(String command, boolean xml) {
+        this(command, xml, QStatScope.all());
+    }
+
+    /**
+     * @param command qstat command
+     * @param xml true to parse the output of {@code qstat -xml}
+     * @param scope jobs queried
+     */
+    public QStatModule(String command, boolean xml, QStatScope scope) {
         this.command = command;
+        this.xml = xml;
+        this.scope = scope;
     }
 
     @Override
@@ -32,7 +53,7 @@ public class QStatModule implements SshModule {
 
     @Override
     public ModuleTask runModule(UUID jobID, SshClient sshClient, ParameterSet parameterSet) throws ModuleException {
-        QStatMethod qStatMethod = new QStatMethod(sshClient,command);
+        QStatMethod qStatMethod = new QStatMethod(sshClient,command,xml,scope);
         return new ModuleTask("qstatMethod",qStatMethod);
     }
 
@@ -0,0 +1,149 @@
+package stes.isami.core.modules.qstat;
+
+import stes.isami.core.ssh.LineConsumer;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Single pass parser for the text output of qstat.
+ * <pre>
+ * job-ID  prior   name       user         state submit/start at     queue                          slots ja-task-ID
+ * -----------------------------------------------------------------------------------------------------------------
+ *  938880 0.60000 LR-54-51-5 xizac        r     04/25/2017 13:05:47 isami_noon.q@aec-afr-cal-05        1
+ * </pre>
+ * <p>Every job line is split once into a {@link QStatRecord} stored under the job ID.
+ * The header and the separator lines are skipped. Prefer {@link QStatXmlParser} which does not depend on
+ * the layout of the columns.</p>
+ */
+public class QStatParser extends LineConsumer {
+
+    private static final int JOB_ID_FIELD = 0;
+    private static final int STATE_FIELD = 4;
+    private static final int DATE_FIELD = 5;
+    private static final int TIME_FIELD = 6;
+    private static final int MAX_FIELDS = 9;
+
+    private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm:ss");
+
+    private final Map<String, QStatRecord> records = new HashMap<>();
+    private final String[] fields = new String[MAX_FIELDS];
+    private int lines = 0;
+
+    @Override
+    public void onLine(CharSequence line) {
+        lines++;
+
+        int fieldCount = 0;
+        int length = line.length();
+        int i = 0;
+        while (i < length && fieldCount < MAX_FIELDS) {
+            while (i < length && Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && !Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            if (start == i) {
+                break;
+            }
+
+            if (fieldCount == JOB_ID_FIELD && !Character.isDigit(line.charAt(start))) {
+                // header or separator line
+                return;
+            }
+            fields[fieldCount++] = line.subSequence(start, i).toString();
+        }
+
+        if (fieldCount <= STATE_FIELD) {
+            return;
+        }
+
+        String jobID = fields[JOB_ID_FIELD];
+        if (!records.containsKey(jobID)) {
+            records.put(jobID, createRecord(fieldCount));
+        }
+    }
+
+    /**
+     * Get the records of the jobs found in the output
+     * @return map batchID - record
+     */
+    public Map<String, QStatRecord> getRecords() {
+        return records;
+    }
+
+    /**
+     * Number of lines parsed
+     */
+    public int getLines() {
+        return lines;
+    }
+
+    /**
+     * Parse a complete qstat output
+     * @param output
+     * @return map batchID - record
+     */
+    public static Map<String, QStatRecord> parse(String output) {
+        QStatParser parser = new QStatParser();
+        int start = 0;
+        int end;
+        while ((end = output.indexOf('\n', start)) > -1) {
+            int lineEnd = end > start && output.charAt(end - 1) == '\r' ? end - 1 : end;
+            parser.onLine(output.subSequence(start, lineEnd));
+            start = end + 1;
+        }
+        if (start < output.length()) {
+            parser.onLine(output.subSequence(start, output.length()));
+        }
+        return parser.getRecords();
+    }
+
+    /*****************************************************************************************************
+     *
+     *
+     *                                      PRIVATE
+     *
+     */
+
+    /**
+     * The queue column is empty for the pending jobs, so the field after the time is either the queue
+     * or the slots. The date is the start time of the jobs in a queue and the submit time of the others.
+     */
+    private QStatRecord createRecord(int fieldCount) {
+        String queue = "";
+        int slots = 0;
+        int slotsField = TIME_FIELD + 1;
+        if (fieldCount > slotsField && fields[slotsField].indexOf('@') > -1) {
+            queue = fields[slotsField];
+            slotsField++;
+        }
+        if (fieldCount > slotsField) {
+            try {
+                slots = Integer.parseInt(fields[slotsField]);
+            }
+            catch (NumberFormatException ex) {
+                slots = 0;
+            }
+        }
+
+        long time = fieldCount > TIME_FIELD ? parseTime(fields[DATE_FIELD] + " " + fields[TIME_FIELD]) : 0;
+        return queue.isEmpty() ? new QStatRecord(fields[JOB_ID_FIELD], fields[STATE_FIELD], queue, slots, time, 0)
+                : new QStatRecord(fields[JOB_ID_FIELD], fields[STATE_FIELD], queue, slots, 0, time);
+    }
+
+    private static long parseTime(String value) {
+        try {
+            return LocalDateTime.parse(value, dateFormatter).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+        catch (DateTimeParseException ex) {
+            return 0;
+        }
+    }
+}
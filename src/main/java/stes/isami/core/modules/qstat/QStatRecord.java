@@ -0,0 +1,85 @@
+package stes.isami.core.modules.qstat;
+
+/**
+ * Status of one job in the batch system as reported by qstat.
+ * <p>The times are in milliseconds since the epoch, 0 if qstat did not report them.
+ * The queue is empty for the pending jobs.</p>
+ */
+public final class QStatRecord {
+
+    private final String jobNumber;
+    private final String state;
+    private final String queue;
+    private final int slots;
+    private final long submitTime;
+    private final long startTime;
+
+    public QStatRecord(String jobNumber, String state, String queue, int slots, long submitTime, long startTime) {
+        this.jobNumber = jobNumber;
+        this.state = state;
+        this.queue = queue == null ? "" : queue;
+        this.slots = slots;
+        this.submitTime = submitTime;
+        this.startTime = startTime;
+    }
+
+    /**
+     * Get the job number. It is the batchID of the job
+     */
+    public String getJobNumber() {
+        return jobNumber;
+    }
+
+    /**
+     * Get the qstat state: r, qw, t, Eqw...
+     */
+    public String getState() {
+        return state;
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    public long getSubmitTime() {
+        return submitTime;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof QStatRecord)) return false;
+
+        QStatRecord that = (QStatRecord) o;
+        return slots == that.slots &&
+                submitTime == that.submitTime &&
+                startTime == that.startTime &&
+                jobNumber.equals(that.jobNumber) &&
+                state.equals(that.state) &&
+                queue.equals(that.queue);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = jobNumber.hashCode();
+        result = 31 * result + state.hashCode();
+        result = 31 * result + queue.hashCode();
+        result = 31 * result + slots;
+        result = 31 * result + (int) (submitTime ^ (submitTime >>> 32));
+        result = 31 * result + (int) (startTime ^ (startTime >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return jobNumber + " " + state + " " + queue + " " + slots;
+    }
+}
@@ -0,0 +1,103 @@
+package stes.isami.core.modules.qstat;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Scope of a qstat query.
+ * <ul>
+ *     <li>ALL: every job of the batch system</li>
+ *     <li>USER: the jobs of the ssh user ({@code qstat -u user})</li>
+ *     <li>JOBS: the given jobs of the ssh user. qstat has no option to list only some jobs, so the listing of the
+ *     user is filtered on the remote host and only the lines of the given jobs are sent back. The command exits
+ *     with the status of qstat, so a failing qstat is not taken for an empty listing.</li>
+ * </ul>
+ */
+public final class QStatScope {
+
+    public enum Type {
+        ALL,
+        USER,
+        JOBS
+    }
+
+    private static final QStatScope ALL = new QStatScope(Type.ALL, Collections.emptySet());
+    private static final QStatScope USER = new QStatScope(Type.USER, Collections.emptySet());
+
+    private final Type type;
+    private final Set<String> jobIDs;
+
+    private QStatScope(Type type, Set<String> jobIDs) {
+        this.type = type;
+        this.jobIDs = jobIDs;
+    }
+
+    public static QStatScope all() {
+        return ALL;
+    }
+
+    public static QStatScope user() {
+        return USER;
+    }
+
+    /**
+     * @param jobIDs batchIDs of the jobs. They must be numeric.
+     * @throws IllegalArgumentException if a batchID is not numeric
+     */
+    public static QStatScope jobs(Collection<String> jobIDs) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (String jobID: jobIDs) {
+            if (jobID.isEmpty() || !jobID.chars().allMatch(Character::isDigit)) {
+                throw new IllegalArgumentException("Invalid batchID: " + jobID);
+            }
+            ids.add(jobID);
+        }
+        return new QStatScope(Type.JOBS, Collections.unmodifiableSet(ids));
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the batchIDs of a JOBS scope
+     * @return batchIDs, empty for the other scopes
+     */
+    public Set<String> getJobIDs() {
+        return jobIDs;
+    }
+
+    /**
+     * True if the job is queried by this scope
+     * @param jobID batchID
+     */
+    public boolean contains(String jobID) {
+        return type != Type.JOBS || jobIDs.contains(jobID);
+    }
+
+    /**
+     * Build the command for this scope
+     * @param command qstat command
+     * @param user ssh user
+     * @return command line
+     */
+    public String buildCommand(String command, String user) {
+        user = user.replace("'", "'\\''");
+        switch (type) {
+            case USER:
+                return command + " -u '" + user + "'";
+            case JOBS:
+                return "qstat_output=$(" + command + " -u '" + user + "') && printf '%s\\n' \"$qstat_output\" | awk '$1 ~ /^("
+                        + String.join("|", jobIDs) + ")$/'";
+            default:
+                return command;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.JOBS ? type + " " + jobIDs.size() : type.toString();
+    }
+}
@@ -0,0 +1,195 @@
+package stes.isami.core.modules.qstat;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming parser for the output of {@code qstat -xml}.
+ * <pre>
+ * &lt;job_info&gt;
+ *   &lt;queue_info&gt;
+ *     &lt;job_list state="running"&gt;
+ *       &lt;JB_job_number&gt;938880&lt;/JB_job_number&gt;
+ *       &lt;state&gt;r&lt;/state&gt;
+ *       &lt;JAT_start_time&gt;2017-04-25T13:05:47&lt;/JAT_start_time&gt;
+ *       &lt;queue_name&gt;isami_noon.q@aec-afr-cal-05&lt;/queue_name&gt;
+ *       &lt;slots&gt;1&lt;/slots&gt;
+ *     &lt;/job_list&gt;
+ *   &lt;/queue_info&gt;
+ *   &lt;job_info&gt;
+ *     &lt;job_list state="pending"&gt;...&lt;/job_list&gt;
+ *   &lt;/job_info&gt;
+ * &lt;/job_info&gt;
+ * </pre>
+ * <p>The document is read with a StAX cursor: a {@link QStatRecord} is built for every {@code job_list} element
+ * and nothing else is kept. The tasks of an array job share the job number, only the first one is kept.</p>
+ */
+public class QStatXmlParser {
+
+    private static final String JOB_LIST = "job_list";
+    private static final String JOB_NUMBER = "JB_job_number";
+    private static final String STATE = "state";
+    private static final String QUEUE_NAME = "queue_name";
+    private static final String SLOTS = "slots";
+    private static final String SUBMISSION_TIME = "JB_submission_time";
+    private static final String START_TIME = "JAT_start_time";
+
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    private final Map<String, QStatRecord> records = new HashMap<>();
+
+    /**
+     * Read the whole document
+     * @param reader
+     * @throws IOException if the document cannot be read or it is not well formed
+     */
+    public void read(Reader reader) throws IOException {
+        XMLStreamReader xml = null;
+        try {
+            xml = inputFactory.createXMLStreamReader(reader);
+            while (xml.hasNext()) {
+                if (xml.next() == XMLStreamConstants.START_ELEMENT && JOB_LIST.equals(xml.getLocalName())) {
+                    QStatRecord record = readJob(xml);
+                    if (record != null) {
+                        records.putIfAbsent(record.getJobNumber(), record);
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed qstat output: " + e.getMessage(), e);
+        }
+        finally {
+            if (xml != null) {
+                try {
+                    xml.close();
+                } catch (XMLStreamException e) {
+                    ;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the records of the jobs found in the output
+     * @return map batchID - record
+     */
+    public Map<String, QStatRecord> getRecords() {
+        return records;
+    }
+
+    /**
+     * Parse a complete qstat -xml output
+     * @param reader
+     * @return map batchID - record
+     * @throws IOException
+     */
+    public static Map<String, QStatRecord> parse(Reader reader) throws IOException {
+        QStatXmlParser parser = new QStatXmlParser();
+        parser.read(reader);
+        return parser.getRecords();
+    }
+
+    /*****************************************************************************************************
+     *
+     *
+     *                                      PRIVATE
+     *
+     */
+
+    /**
+     * Read the children of a job_list element. The cursor is left on the end of the element.
+     * @return record or null if the job has no number or no state
+     */
+    private QStatRecord readJob(XMLStreamReader xml) throws XMLStreamException {
+        String jobNumber = null;
+        String state = null;
+        String queue = "";
+        int slots = 0;
+        long submitTime = 0;
+        long startTime = 0;
+
+        int depth = 1;
+        while (depth > 0 && xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                continue;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            if (depth > 1) {
+                depth++;
+                continue;
+            }
+
+            switch (xml.getLocalName()) {
+                case JOB_NUMBER:
+                    jobNumber = xml.getElementText().trim();
+                    break;
+                case STATE:
+                    state = xml.getElementText().trim();
+                    break;
+                case QUEUE_NAME:
+                    queue = xml.getElementText().trim();
+                    break;
+                case SLOTS:
+                    slots = parseInt(xml.getElementText());
+                    break;
+                case SUBMISSION_TIME:
+                    submitTime = parseTime(xml.getElementText());
+                    break;
+                case START_TIME:
+                    startTime = parseTime(xml.getElementText());
+                    break;
+                default:
+                    depth++;
+            }
+        }
+
+        if (jobNumber == null || jobNumber.isEmpty() || state == null) {
+            return null;
+        }
+
+        return new QStatRecord(jobNumber, state, queue, slots, submitTime, startTime);
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Parse a local time like 2017-04-25T13:05:47 or 2017-04-25T13:05:47.123
+     */
+    private static long parseTime(String value) {
+        try {
+            return LocalDateTime.parse(value.trim()).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+        catch (DateTimeParseException ex) {
+            return 0;
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
@@ -0,0 +1,575 @@
+package stes.isami.core.sim;
+
+import stes.isami.core.ssh.BatchBackend;
+import stes.isami.core.ssh.CommandResult;
+import stes.isami.core.ssh.SessionOutput;
+import stes.isami.core.util.TimeSource;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.CharBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process batch system with the semantics of SGE qsub, qstat and qdel.
+ * <p>The jobs wait in the queue, run on the slots of the cluster and leave the batch system when they end,
+ * following the {@link SimulationProfile}. The state of the batch system is computed on the {@link TimeSource}
+ * given at creation, usually a {@link VirtualClock}, when a command is executed.</p>
+ * <p>Supported commands:</p>
+ * <ul>
+ *     <li>qsub [-N name] [-terse] [options] script</li>
+ *     <li>qstat [-xml] [-u user], optionally captured in a variable and printed to the awk filter on job numbers
+ *     used by the scoped queries</li>
+ *     <li>qdel job_number[,job_number...]</li>
+ * </ul>
+ * <p>Other commands succeed without output. The commands can be chained with ; or &amp;&amp;.</p>
+ */
+public class SimulatedBatchSystem implements BatchBackend {
+
+    private static final String FOREIGN_USER = "other";
+    private static final String HEADER = "job-ID  prior   name       user         state submit/start at     queue                          slots ja-task-ID \n" +
+            "-----------------------------------------------------------------------------------------------------------------\n";
+    private static final DateTimeFormatter textDateFormatter = DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm:ss");
+    private static final DateTimeFormatter xmlDateFormatter = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+    private static final Pattern AWK_FILTER = Pattern.compile("\\^\\(([0-9|]+)\\)\\$");
+    private static final Pattern CAPTURE = Pattern.compile("^(\\w+)=\\$\\((.*)\\)$");
+    private static final Pattern PRINT_VARIABLE = Pattern.compile("^printf '%s\\\\n' \"\\$(\\w+)\"$");
+    private static final Set<String> FLAG_OPTIONS = new HashSet<>(Arrays.asList("-terse", "-V", "-cwd", "-notify", "-h"));
+
+    private final SimulationProfile profile;
+    private final TimeSource clock;
+    private final String user;
+    private final Random random;
+
+    /**
+     * Jobs in the batch system: pending, running or in error, by job number
+     */
+    private final Map<String, SimJob> jobs = new LinkedHashMap<>();
+    private final PriorityQueue<SimJob> pending = new PriorityQueue<>(
+            Comparator.comparingLong((SimJob j) -> j.eligibleAt).thenComparingLong(j -> j.number));
+    private final PriorityQueue<SimJob> running = new PriorityQueue<>(
+            Comparator.comparingLong((SimJob j) -> j.endTime).thenComparingLong(j -> j.number));
+    private final List<SimJob> foreignJobs = new ArrayList<>();
+
+    /**
+     * Jobs ended since the last qstat call
+     */
+    private final List<SimJob> endedJobs = new ArrayList<>();
+
+    private long nextNumber = 1000000;
+    private long cursor;
+    private int freeSlots;
+
+    private long submitted = 0;
+    private long rejected = 0;
+    private long completed = 0;
+    private long errors = 0;
+    private long deleted = 0;
+    private long started = 0;
+    private long queueWaitSum = 0;
+    private long qstatCalls = 0;
+    private long qstatOutputSize = 0;
+    private long detected = 0;
+    private long detectionLatencySum = 0;
+    private long maxDetectionLatency = 0;
+    private long firstSubmitTime = -1;
+
+    /**
+     * @param profile behaviour of the batch system
+     * @param clock clock of the simulation
+     * @param user owner of the submitted jobs
+     */
+    public SimulatedBatchSystem(SimulationProfile profile, TimeSource clock, String user) {
+        this.profile = profile;
+        this.clock = clock;
+        this.user = user;
+        this.random = new Random(profile.getSeed());
+        this.freeSlots = profile.getSlots();
+        this.cursor = clock.millis();
+    }
+
+    /**
+     * Add jobs of other users. They run for ever and they are listed by the qstat calls not limited to the user.
+     * @param count number of jobs
+     */
+    public synchronized void addForeignJobs(int count) {
+        long now = clock.millis();
+        for (int i = 0; i < count; i++) {
+            SimJob job = new SimJob(nextNumber++, "foreign", FOREIGN_USER, now);
+            job.startTime = now;
+            job.queue = queueName(job.number);
+            foreignJobs.add(job);
+        }
+    }
+
+    @Override
+    public CommandResult execute(String command) throws IOException {
+        Response response;
+        synchronized (this) {
+            response = executeCommandLine(command);
+        }
+
+        long realDelay = clock.toRealDelay(response.latency);
+        if (realDelay > 0) {
+            try {
+                Thread.sleep(realDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while executing " + command);
+            }
+        }
+
+        SessionOutput output = new SessionOutput();
+        output.onChunk(CharBuffer.wrap(response.output));
+        output.onEnd();
+        return new CommandResult(output, response.error.toString(), response.exitCode);
+    }
+
+    /**
+     * Get the qstat state of a job
+     * @param jobNumber
+     * @return state or null if the job is not in the batch system anymore
+     */
+    public synchronized String getState(String jobNumber) {
+        advance(clock.millis());
+        SimJob job = jobs.get(jobNumber);
+        return job == null ? null : job.getState();
+    }
+
+    /**
+     * Number of jobs of the user in the batch system
+     */
+    public synchronized int getJobCount() {
+        advance(clock.millis());
+        return jobs.size();
+    }
+
+    public synchronized SimulationStats getStats() {
+        advance(clock.millis());
+        long elapsed = firstSubmitTime < 0 ? 0 : clock.millis() - firstSubmitTime;
+        return new SimulationStats(submitted, rejected, completed, errors, deleted, qstatCalls, qstatOutputSize,
+                started == 0 ? 0 : (double) queueWaitSum / started,
+                detected == 0 ? 0 : (double) detectionLatencySum / detected,
+                maxDetectionLatency,
+                elapsed == 0 ? 0 : completed * 3600000.0 / elapsed);
+    }
+
+    /*****************************************************************************************************
+     *
+     *
+     *                                      PRIVATE
+     *
+     */
+
+    private Response executeCommandLine(String commandLine) {
+        Response response = new Response();
+        response.latency = profile.getCommandLatency();
+        Map<String, String> capturedCommands = new HashMap<>();
+
+        for (String segment: commandLine.split(";|&&|\n")) {
+            segment = segment.trim();
+            if (segment.isEmpty()) {
+                continue;
+            }
+
+            // the captured command runs when its variable is printed
+            Matcher capture = CAPTURE.matcher(segment);
+            if (capture.matches()) {
+                capturedCommands.put(capture.group(1), capture.group(2));
+                continue;
+            }
+
+            String[] pipeline = segment.split("\\s\\|\\s");
+            Matcher print = PRINT_VARIABLE.matcher(pipeline[0].trim());
+            if (print.matches() && capturedCommands.containsKey(print.group(1))) {
+                pipeline[0] = capturedCommands.get(print.group(1));
+            }
+            List<String> args = tokenize(pipeline[0]);
+            if (args.isEmpty()) {
+                continue;
+            }
+
+            String program = args.get(0).substring(args.get(0).lastIndexOf('/') + 1);
+            switch (program) {
+                case "qsub":
+                    qsub(args, response);
+                    break;
+                case "qstat":
+                    qstat(args, pipeline, response);
+                    break;
+                case "qdel":
+                    qdel(args, response);
+                    break;
+                default:
+                    response.exitCode = 0;
+            }
+
+            if (response.exitCode != 0) {
+                break;
+            }
+        }
+
+        return response;
+    }
+
+    private void qsub(List<String> args, Response response) {
+        long now = clock.millis();
+        advance(now);
+
+        String name = null;
+        String script = "STDIN";
+        boolean terse = false;
+        for (int i = 1; i < args.size(); i++) {
+            String arg = args.get(i);
+            if (arg.equals("-N") && i + 1 < args.size()) {
+                name = args.get(++i);
+            }
+            else if (arg.equals("-terse")) {
+                terse = true;
+            }
+            else if (arg.startsWith("-")) {
+                if (!FLAG_OPTIONS.contains(arg)) {
+                    i++;
+                }
+            }
+            else {
+                script = arg;
+            }
+        }
+        if (name == null) {
+            name = script.substring(script.lastIndexOf('/') + 1);
+        }
+
+        if (random.nextDouble() < profile.getSubmitFailureRate()) {
+            rejected++;
+            response.error.append("Unable to run job: job rejected by the simulated batch system.\nExiting.\n");
+            response.exitCode = 1;
+            return;
+        }
+
+        SimJob job = new SimJob(nextNumber++, name, user, now);
+        job.eligibleAt = now + uniform(profile.getMinQueueWait(), profile.getMaxQueueWait());
+        job.runTime = uniform(profile.getMinRunTime(), profile.getMaxRunTime());
+        job.error = random.nextDouble() < profile.getErrorRate();
+        jobs.put(String.valueOf(job.number), job);
+        pending.add(job);
+
+        submitted++;
+        if (firstSubmitTime < 0) {
+            firstSubmitTime = now;
+        }
+
+        if (terse) {
+            response.output.append(job.number).append('\n');
+        }
+        else {
+            response.output.append("Your job ").append(job.number).append(" (\"").append(name)
+                    .append("\") has been submitted\n");
+        }
+        response.exitCode = 0;
+    }
+
+    private void qstat(List<String> args, String[] pipeline, Response response) {
+        long now = clock.millis();
+        advance(now);
+
+        boolean xml = args.contains("-xml");
+        int userIndex = args.indexOf("-u");
+        String owner = userIndex > -1 && userIndex + 1 < args.size() ? args.get(userIndex + 1) : null;
+
+        Set<String> filter = null;
+        for (int i = 1; i < pipeline.length; i++) {
+            Matcher matcher = AWK_FILTER.matcher(pipeline[i]);
+            if (matcher.find()) {
+                filter = new HashSet<>(Arrays.asList(matcher.group(1).split("\\|")));
+            }
+        }
+
+        List<SimJob> listed = new ArrayList<>();
+        if (owner == null || owner.equals(FOREIGN_USER)) {
+            listed.addAll(foreignJobs);
+        }
+        if (owner == null || owner.equals(user)) {
+            for (SimJob job: jobs.values()) {
+                if (job.startTime >= 0) {
+                    listed.add(job);
+                }
+            }
+            for (SimJob job: jobs.values()) {
+                if (job.startTime < 0) {
+                    listed.add(job);
+                }
+            }
+        }
+        if (filter != null) {
+            Set<String> ids = filter;
+            listed.removeIf(job -> !ids.contains(String.valueOf(job.number)));
+        }
+
+        int start = response.output.length();
+        if (xml) {
+            writeXml(listed, response.output);
+        }
+        else if (filter == null) {
+            writeText(listed, response.output);
+        }
+        else {
+            // the awk filter drops the header
+            for (SimJob job: listed) {
+                writeTextLine(job, response.output);
+            }
+        }
+
+        qstatCalls++;
+        qstatOutputSize += response.output.length() - start;
+        response.latency += (long) (listed.size() * profile.getQstatLatencyPerJob());
+
+        for (SimJob job: endedJobs) {
+            long latency = now - job.endTime;
+            detected++;
+            detectionLatencySum += latency;
+            maxDetectionLatency = Math.max(maxDetectionLatency, latency);
+        }
+        endedJobs.clear();
+        response.exitCode = 0;
+    }
+
+    private void qdel(List<String> args, Response response) {
+        advance(clock.millis());
+
+        response.exitCode = 0;
+        for (int i = 1; i < args.size(); i++) {
+            for (String number: args.get(i).split(",")) {
+                if (number.isEmpty() || number.startsWith("-")) {
+                    continue;
+                }
+
+                SimJob job = jobs.remove(number);
+                if (job == null) {
+                    response.error.append("denied: job \"").append(number).append("\" does not exist\n");
+                    response.exitCode = 1;
+                    continue;
+                }
+
+                if (running.remove(job)) {
+                    freeSlots++;
+                    response.output.append(user).append(" has registered the job ").append(number)
+                            .append(" for deletion\n");
+                }
+                else {
+                    pending.remove(job);
+                    response.output.append(user).append(" has deleted job ").append(number).append('\n');
+                }
+                deleted++;
+            }
+        }
+    }
+
+    /**
+     * Process the starts and the ends of the jobs up to {@code now}
+     */
+    private void advance(long now) {
+        for (;;) {
+            SimJob next = pending.peek();
+            long startAt = next == null || (freeSlots == 0 && !next.error) ? Long.MAX_VALUE : Math.max(next.eligibleAt, cursor);
+            SimJob first = running.peek();
+            long endAt = first == null ? Long.MAX_VALUE : first.endTime;
+
+            if (endAt <= now && endAt <= startAt) {
+                running.poll();
+                freeSlots++;
+                cursor = Math.max(cursor, endAt);
+                jobs.remove(String.valueOf(first.number));
+                endedJobs.add(first);
+                completed++;
+            }
+            else if (startAt <= now) {
+                pending.poll();
+                cursor = startAt;
+                if (next.error) {
+                    next.inError = true;
+                    errors++;
+                    continue;
+                }
+
+                next.startTime = startAt;
+                next.endTime = startAt + next.runTime;
+                next.queue = queueName(next.number);
+                running.add(next);
+                freeSlots--;
+                started++;
+                queueWaitSum += startAt - next.submitTime;
+            }
+            else {
+                break;
+            }
+        }
+    }
+
+    private void writeText(List<SimJob> listed, StringBuilder out) {
+        if (listed.isEmpty()) {
+            return;
+        }
+        out.append(HEADER);
+        for (SimJob job: listed) {
+            writeTextLine(job, out);
+        }
+    }
+
+    private void writeTextLine(SimJob job, StringBuilder out) {
+        String name = job.name.length() > 10 ? job.name.substring(0, 10) : job.name;
+        long time = job.startTime >= 0 ? job.startTime : job.submitTime;
+        pad(out, String.valueOf(job.number), 7, true).append(" 0.50000 ");
+        pad(out, name, 10, false).append(' ');
+        pad(out, job.owner, 12, false).append(' ');
+        pad(out, job.getState(), 5, false).append(' ');
+        out.append(formatTime(time, textDateFormatter)).append(' ');
+        pad(out, job.queue, 30, false).append("     1\n");
+    }
+
+    private static StringBuilder pad(StringBuilder out, String value, int width, boolean right) {
+        if (right) {
+            for (int i = value.length(); i < width; i++) {
+                out.append(' ');
+            }
+        }
+        out.append(value);
+        if (!right) {
+            for (int i = value.length(); i < width; i++) {
+                out.append(' ');
+            }
+        }
+        return out;
+    }
+
+    private void writeXml(List<SimJob> listed, StringBuilder out) {
+        out.append("<?xml version='1.0'?>\n<job_info>\n  <queue_info>\n");
+        for (SimJob job: listed) {
+            if (job.startTime >= 0) {
+                writeXmlJob(job, "running", out);
+            }
+        }
+        out.append("  </queue_info>\n  <job_info>\n");
+        for (SimJob job: listed) {
+            if (job.startTime < 0) {
+                writeXmlJob(job, "pending", out);
+            }
+        }
+        out.append("  </job_info>\n</job_info>\n");
+    }
+
+    private void writeXmlJob(SimJob job, String listState, StringBuilder out) {
+        out.append("    <job_list state=\"").append(listState).append("\">\n");
+        out.append("      <JB_job_number>").append(job.number).append("</JB_job_number>\n");
+        out.append("      <JAT_prio>0.50000</JAT_prio>\n");
+        out.append("      <JB_name>").append(escape(job.name)).append("</JB_name>\n");
+        out.append("      <JB_owner>").append(job.owner).append("</JB_owner>\n");
+        out.append("      <state>").append(job.getState()).append("</state>\n");
+        if (job.startTime >= 0) {
+            out.append("      <JAT_start_time>").append(formatTime(job.startTime, xmlDateFormatter)).append("</JAT_start_time>\n");
+        }
+        else {
+            out.append("      <JB_submission_time>").append(formatTime(job.submitTime, xmlDateFormatter)).append("</JB_submission_time>\n");
+        }
+        out.append("      <queue_name>").append(job.queue).append("</queue_name>\n");
+        out.append("      <slots>1</slots>\n");
+        out.append("    </job_list>\n");
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static String formatTime(long time, DateTimeFormatter formatter) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(time / 1000 * 1000), ZoneId.systemDefault()).format(formatter);
+    }
+
+    private static String queueName(long number) {
+        return String.format("all.q@node%03d", number % 100);
+    }
+
+    private long uniform(long min, long max) {
+        return max == min ? min : min + (long) (random.nextDouble() * (max - min));
+    }
+
+    /**
+     * Split the arguments of a command, the single and double quotes are removed
+     */
+    private static List<String> tokenize(String command) {
+        List<String> args = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        char quote = 0;
+        boolean inToken = false;
+        for (int i = 0; i < command.length(); i++) {
+            char c = command.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+                else {
+                    current.append(c);
+                }
+            }
+            else if (c == '\'' || c == '"') {
+                quote = c;
+                inToken = true;
+            }
+            else if (Character.isWhitespace(c)) {
+                if (inToken) {
+                    args.add(current.toString());
+                    current.setLength(0);
+                    inToken = false;
+                }
+            }
+            else {
+                current.append(c);
+                inToken = true;
+            }
+        }
+        if (inToken) {
+            args.add(current.toString());
+        }
+        return args;
+    }
+
+    private static class Response {
+        final StringBuilder output = new StringBuilder();
+        final StringBuilder error = new StringBuilder();
+        int exitCode = 0;
+        long latency;
+    }
+
+    private static class SimJob {
+        final long number;
+        final String name;
+        final String owner;
+        final long submitTime;
+        long eligibleAt;
+        long runTime;
+        long startTime = -1;
+        long endTime;
+        boolean error;
+        boolean inError;
+        String queue = "";
+
+        SimJob(long number, String name, String owner, long submitTime) {
+            this.number = number;
+            this.name = name;
+            this.owner = owner;
+            this.submitTime = submitTime;
+        }
+
+        String getState() {
+            if (inError) {
+                return "Eqw";
+            }
+            return startTime >= 0 ? "r" : "qw";
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package stes.isami.core.sim;
+
+/**
+ * Behaviour of a {@link SimulatedBatchSystem}.
+ * <p>The queue wait and the run time of a job are drawn uniformly between their minimum and maximum. The durations
+ * are in virtual ms. The latencies are spent by every command, qstat spends in addition a latency per listed job.</p>
+ */
+public class SimulationProfile {
+
+    private int slots = 1000;
+    private long minQueueWait = 5000;
+    private long maxQueueWait = 60000;
+    private long minRunTime = 60000;
+    private long maxRunTime = 600000;
+
+    /**
+     * Probability that qsub rejects a job
+     */
+    private double submitFailureRate = 0;
+
+    /**
+     * Probability that a job goes into the error state instead of running
+     */
+    private double errorRate = 0;
+
+    private long commandLatency = 50;
+    private double qstatLatencyPerJob = 0.05;
+    private long seed = 42;
+
+    /**
+     * Number of slots of the cluster. Every job takes one slot.
+     */
+    public int getSlots() {
+        return slots;
+    }
+
+    public void setSlots(int slots) {
+        this.slots = slots;
+    }
+
+    public long getMinQueueWait() {
+        return minQueueWait;
+    }
+
+    public long getMaxQueueWait() {
+        return maxQueueWait;
+    }
+
+    public void setQueueWait(long minQueueWait, long maxQueueWait) {
+        if (minQueueWait < 0 || maxQueueWait < minQueueWait) {
+            throw new IllegalArgumentException("Invalid queue wait");
+        }
+        this.minQueueWait = minQueueWait;
+        this.maxQueueWait = maxQueueWait;
+    }
+
+    public long getMinRunTime() {
+        return minRunTime;
+    }
+
+    public long getMaxRunTime() {
+        return maxRunTime;
+    }
+
+    public void setRunTime(long minRunTime, long maxRunTime) {
+        if (minRunTime < 0 || maxRunTime < minRunTime) {
+            throw new IllegalArgumentException("Invalid run time");
+        }
+        this.minRunTime = minRunTime;
+        this.maxRunTime = maxRunTime;
+    }
+
+    public double getSubmitFailureRate() {
+        return submitFailureRate;
+    }
+
+    public void setSubmitFailureRate(double submitFailureRate) {
+        this.submitFailureRate = submitFailureRate;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public long getCommandLatency() {
+        return commandLatency;
+    }
+
+    public void setCommandLatency(long commandLatency) {
+        this.commandLatency = commandLatency;
+    }
+
+    public double getQstatLatencyPerJob() {
+        return qstatLatencyPerJob;
+    }
+
+    public void setQstatLatencyPerJob(double qstatLatencyPerJob) {
+        this.qstatLatencyPerJob = qstatLatencyPerJob;
+    }
+
+    /**
+     * Seed of the random generator. The same seed gives the same campaign.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+}
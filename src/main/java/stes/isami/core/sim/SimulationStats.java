@@ -0,0 +1,113 @@
+package stes.isami.core.sim;
+
+/**
+ * Snapshot of the counters of a {@link SimulatedBatchSystem}.
+ * <p>The detection latency is the virtual time between the end of a job and the first qstat call which
+ * does not list it anymore. It measures how fast the engine sees the jobs finish.</p>
+ */
+public final class SimulationStats {
+
+    private final long submitted;
+    private final long rejected;
+    private final long completed;
+    private final long errors;
+    private final long deleted;
+    private final long qstatCalls;
+    private final long qstatOutputSize;
+    private final double averageQueueWait;
+    private final double averageDetectionLatency;
+    private final long maxDetectionLatency;
+    private final double throughput;
+
+    SimulationStats(long submitted, long rejected, long completed, long errors, long deleted,
+                    long qstatCalls, long qstatOutputSize, double averageQueueWait,
+                    double averageDetectionLatency, long maxDetectionLatency, double throughput) {
+        this.submitted = submitted;
+        this.rejected = rejected;
+        this.completed = completed;
+        this.errors = errors;
+        this.deleted = deleted;
+        this.qstatCalls = qstatCalls;
+        this.qstatOutputSize = qstatOutputSize;
+        this.averageQueueWait = averageQueueWait;
+        this.averageDetectionLatency = averageDetectionLatency;
+        this.maxDetectionLatency = maxDetectionLatency;
+        this.throughput = throughput;
+    }
+
+    /**
+     * Number of jobs accepted by qsub
+     */
+    public long getSubmitted() {
+        return submitted;
+    }
+
+    /**
+     * Number of jobs rejected by qsub
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * Number of jobs which went into the error state
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    public long getQstatCalls() {
+        return qstatCalls;
+    }
+
+    /**
+     * Number of characters sent by qstat
+     */
+    public long getQstatOutputSize() {
+        return qstatOutputSize;
+    }
+
+    /**
+     * Average virtual time in ms between the submission and the start of the jobs
+     */
+    public double getAverageQueueWait() {
+        return averageQueueWait;
+    }
+
+    /**
+     * Average detection latency in virtual ms
+     */
+    public double getAverageDetectionLatency() {
+        return averageDetectionLatency;
+    }
+
+    /**
+     * Maximum detection latency in virtual ms
+     */
+    public long getMaxDetectionLatency() {
+        return maxDetectionLatency;
+    }
+
+    /**
+     * Completed jobs per virtual hour since the first submission
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("submitted=%d rejected=%d completed=%d errors=%d deleted=%d qstat=%d (%d chars) " +
+                        "queueWait=%.0fms detection=%.0fms (max %dms) throughput=%.1f jobs/h",
+                submitted, rejected, completed, errors, deleted, qstatCalls, qstatOutputSize,
+                averageQueueWait, averageDetectionLatency, maxDetectionLatency, throughput);
+    }
+}
@@ -0,0 +1,66 @@
+package stes.isami.core.sim;
+
+import stes.isami.core.util.TimeSource;
+
+/**
+ * Clock of a simulation.
+ * <p>The clock runs {@code speed} times faster than the system clock and can be moved forward with
+ * {@link #advance(long)}. With a speed of 3600, a 24-hour campaign runs in 24 seconds. With a speed of 0, the clock
+ * only moves with {@link #advance(long)} and the delays of the engine are not shortened.</p>
+ * <p>Install the clock with {@link TimeSource#set(TimeSource)} so that the engine schedules qstat on it.</p>
+ */
+public class VirtualClock extends TimeSource {
+
+    private final double speed;
+    private final long origin;
+    private final long realOrigin = System.nanoTime();
+    private volatile long offset = 0;
+
+    /**
+     * @param origin virtual time at creation in ms
+     * @param speed number of virtual ms per real ms
+     */
+    public VirtualClock(long origin, double speed) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("Speed must be positive");
+        }
+        this.origin = origin;
+        this.speed = speed;
+    }
+
+    /**
+     * Create a clock starting at the current system time
+     * @param speed number of virtual ms per real ms
+     */
+    public VirtualClock(double speed) {
+        this(System.currentTimeMillis(), speed);
+    }
+
+    @Override
+    public long millis() {
+        return origin + offset + (long) ((System.nanoTime() - realOrigin) / 1e6 * speed);
+    }
+
+    @Override
+    public long toRealDelay(long delay) {
+        if (speed == 0) {
+            return delay;
+        }
+        return (long) Math.ceil(delay / speed);
+    }
+
+    /**
+     * Move the clock forward
+     * @param delay in ms
+     */
+    public synchronized void advance(long delay) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("The clock cannot go back");
+        }
+        offset += delay;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+}
@@ -0,0 +1,160 @@
+package stes.isami.core.ssh;
+
+import com.sshtools.ssh.*;
+
+/**
+ * {@link SshClient} bound to a {@link BatchBackend}.
+ * <p>The client is always authenticated until it is disconnected. The methods of
+ * {@link stes.isami.core.modules.SshSessionMethod} send the commands to the backend returned by
+ * {@link #getBackend(SshClient)}. The other users of the client get session channels which execute their command
+ * on the backend. The client does not forward ports nor open remote clients.</p>
+ */
+public final class BackendSshClient implements SshClient {
+
+    private final BatchBackend backend;
+    private final String user;
+    private volatile boolean connected = true;
+
+    private BackendSshClient(BatchBackend backend, String user) {
+        this.backend = backend;
+        this.user = user;
+    }
+
+    /**
+     * Create a client bound to the backend
+     * @param backend
+     * @param user user name returned by {@link SshClient#getUsername()}
+     * @return client
+     */
+    public static SshClient create(BatchBackend backend, String user) {
+        return new BackendSshClient(backend, user);
+    }
+
+    /**
+     * Get the backend of a client
+     * @param client
+     * @return backend or null if the client is not bound to a backend
+     */
+    public static BatchBackend getBackend(SshClient client) {
+        return client instanceof BackendSshClient ? ((BackendSshClient) client).backend : null;
+    }
+
+    @Override
+    public void connect(SshTransport transport, SshContext context, SshConnector connector, String username,
+                        String localIdentification, String remoteIdentification, boolean buffered) {
+        connected = true;
+    }
+
+    @Override
+    public int authenticate(SshAuthentication authentication) {
+        return SshAuthentication.COMPLETE;
+    }
+
+    @Override
+    public SshSession openSessionChannel() throws SshException {
+        return openSessionChannel(null);
+    }
+
+    @Override
+    public SshSession openSessionChannel(ChannelEventListener listener) throws SshException {
+        if (!connected) {
+            throw new SshException("The client is disconnected", SshException.CHANNEL_FAILURE);
+        }
+        return new BackendSshSession(this, backend);
+    }
+
+    @Override
+    public SshTunnel openForwardingChannel(String hostname, int port, String listeningAddress, int listeningPort,
+                                           String originatingHost, int originatingPort, SshTransport transport,
+                                           ChannelEventListener listener) throws SshException {
+        throw new SshException("The batch backend does not forward ports", SshException.CHANNEL_FAILURE);
+    }
+
+    @Override
+    public SshClient openRemoteClient(String hostname, int port, String username, SshConnector connector) throws SshException {
+        throw new SshException("The batch backend does not open remote clients", SshException.CHANNEL_FAILURE);
+    }
+
+    @Override
+    public SshClient openRemoteClient(String hostname, int port, String username) throws SshException {
+        return openRemoteClient(hostname, port, username, null);
+    }
+
+    @Override
+    public boolean requestRemoteForwarding(String addressToBind, int portToBind, String hostToConnect, int portToConnect,
+                                           ForwardingRequestListener listener) {
+        return false;
+    }
+
+    @Override
+    public boolean cancelRemoteForwarding(String bindAddress, int bindPort) {
+        return false;
+    }
+
+    @Override
+    public void disconnect() {
+        connected = false;
+    }
+
+    @Override
+    public void exit() {
+        disconnect();
+    }
+
+    @Override
+    public boolean isAuthenticated() {
+        return connected;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public String getRemoteIdentification() {
+        return "BatchBackend";
+    }
+
+    @Override
+    public String getUsername() {
+        return user;
+    }
+
+    /**
+     * Create another client bound to the same backend
+     */
+    @Override
+    public SshClient duplicate() {
+        return new BackendSshClient(backend, user);
+    }
+
+    /**
+     * The client has no ssh context
+     * @return null
+     */
+    @Override
+    public SshContext getContext() {
+        return null;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return 0;
+    }
+
+    @Override
+    public int getVersion() {
+        return 2;
+    }
+
+    @Override
+    public boolean isBuffered() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchBackend client " + user;
+    }
+}
@@ -0,0 +1,147 @@
+package stes.isami.core.ssh;
+
+import com.sshtools.ssh.*;
+import com.sshtools.ssh.message.SshMessageRouter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Session channel of a {@link BackendSshClient}. The command is executed by the backend when it is sent, and its
+ * output, error output and exit code are then read from the session. The input of the session is discarded and
+ * no interactive shell can be started.
+ */
+class BackendSshSession implements SshSession {
+
+    private static final InputStream EMPTY = new ByteArrayInputStream(new byte[0]);
+
+    private final SshClient client;
+    private final BatchBackend backend;
+
+    private InputStream in = EMPTY;
+    private InputStream err = EMPTY;
+    private final OutputStream out = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+    };
+    private volatile int exitCode = EXITCODE_NOT_RECEIVED;
+    private volatile boolean commandSent = false;
+    private volatile boolean closed = false;
+
+    BackendSshSession(SshClient client, BatchBackend backend) {
+        this.client = client;
+        this.backend = backend;
+    }
+
+    @Override
+    public boolean startShell() {
+        return false;
+    }
+
+    @Override
+    public SshClient getClient() {
+        return client;
+    }
+
+    @Override
+    public synchronized boolean executeCommand(String command) throws SshException {
+        if (closed || commandSent) {
+            return false;
+        }
+        commandSent = true;
+
+        try {
+            CommandResult result = backend.execute(command);
+            try {
+                in = new ByteArrayInputStream(result.getOutput().getText().getBytes(Charset.defaultCharset()));
+            } finally {
+                result.getOutput().dispose();
+            }
+            err = new ByteArrayInputStream(result.getErrorOutput().getBytes(Charset.defaultCharset()));
+            exitCode = result.hasExitCode() ? result.getExitCode() : EXITCODE_NOT_RECEIVED;
+            return true;
+        } catch (IOException e) {
+            throw new SshException(e);
+        }
+    }
+
+    @Override
+    public boolean executeCommand(String command, String charset) throws SshException {
+        return executeCommand(command);
+    }
+
+    @Override
+    public boolean requestPseudoTerminal(String term, int cols, int rows, int width, int height, byte[] modes) {
+        return true;
+    }
+
+    @Override
+    public boolean requestPseudoTerminal(String term, int cols, int rows, int width, int height, PseudoTerminalModes modes) {
+        return true;
+    }
+
+    @Override
+    public boolean requestPseudoTerminal(String term, int cols, int rows, int width, int height) {
+        return true;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public synchronized InputStream getStderrInputStream() {
+        return err;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public int exitCode() {
+        return exitCode;
+    }
+
+    @Override
+    public void changeTerminalDimensions(int cols, int rows, int width, int height) {
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public int getChannelId() {
+        return 0;
+    }
+
+    @Override
+    public void addChannelEventListener(ChannelEventListener listener) {
+    }
+
+    @Override
+    public void setAutoConsumeInput(boolean autoConsume) {
+    }
+
+    /**
+     * The session has no message router
+     * @return null
+     */
+    @Override
+    public SshMessageRouter getMessageRouter() {
+        return null;
+    }
+}
@@ -0,0 +1,19 @@
+package stes.isami.core.ssh;
+
+import java.io.IOException;
+
+/**
+ * Host executing the batch system commands in place of a remote host.
+ * <p>A backend is connected with {@link SshFactory#connect(BatchBackend, String)}. The ssh modules then receive
+ * clients bound to the backend (see {@link BackendSshClient}) and their commands are executed by it.</p>
+ */
+public interface BatchBackend {
+
+    /**
+     * Execute a command
+     * @param command command line as it would be sent to the remote host
+     * @return output, error output and exit code of the command
+     * @throws IOException
+     */
+    CommandResult execute(String command) throws IOException;
+}
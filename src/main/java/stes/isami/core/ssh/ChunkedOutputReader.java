@@ -0,0 +1,90 @@
+package stes.isami.core.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Read the output of a remote command in chunks and pass the decoded characters to an {@link OutputConsumer}.
+ * <p>The bytes are read in blocks of {@code chunkSize} and decoded in place. Multi-byte characters split
+ * between two blocks are kept until the next block arrives. The NUL bytes sent by the pseudo terminal are dropped.</p>
+ */
+public class ChunkedOutputReader {
+
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    private final int chunkSize;
+    private final Charset charset;
+
+    public ChunkedOutputReader() {
+        this(DEFAULT_CHUNK_SIZE, Charset.defaultCharset());
+    }
+
+    public ChunkedOutputReader(int chunkSize, Charset charset) {
+        this.chunkSize = chunkSize;
+        this.charset = charset;
+    }
+
+    /**
+     * Read {@code in} until the end of the stream
+     * @param in stream to read. It is not closed
+     * @param consumer receives the decoded chunks
+     * @return number of bytes read
+     * @throws IOException
+     */
+    public long read(InputStream in, OutputConsumer consumer) throws IOException {
+
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        byte[] block = new byte[chunkSize];
+        ByteBuffer bytes = ByteBuffer.allocate(chunkSize * 2);
+        CharBuffer chars = CharBuffer.allocate((int) (chunkSize * 2 * decoder.maxCharsPerByte()) + 1);
+        long total = 0;
+
+        int read;
+        while ((read = in.read(block)) > -1) {
+            total += read;
+            for (int i = 0; i < read; i++) {
+                if (block[i] != 0) {
+                    bytes.put(block[i]);
+                }
+            }
+
+            bytes.flip();
+            decode(decoder, bytes, chars, false, consumer);
+            bytes.compact();
+        }
+
+        bytes.flip();
+        decode(decoder, bytes, chars, true, consumer);
+        decoder.flush(chars);
+        deliver(chars, consumer);
+        consumer.onEnd();
+
+        return total;
+    }
+
+    private void decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars, boolean endOfInput,
+                        OutputConsumer consumer) throws IOException {
+        CoderResult result;
+        do {
+            result = decoder.decode(bytes, chars, endOfInput);
+            deliver(chars, consumer);
+        } while (result.isOverflow());
+    }
+
+    private void deliver(CharBuffer chars, OutputConsumer consumer) throws IOException {
+        chars.flip();
+        if (chars.hasRemaining()) {
+            consumer.onChunk(chars);
+        }
+        chars.clear();
+    }
+}
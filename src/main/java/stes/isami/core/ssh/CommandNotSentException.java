@@ -0,0 +1,15 @@
+package stes.isami.core.ssh;
+
+import java.io.IOException;
+
+/**
+ * The command has not been written to the {@link RemoteShell}, so it can safely be executed in another session
+ */
+public class CommandNotSentException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CommandNotSentException(String message) {
+        super(message);
+    }
+}
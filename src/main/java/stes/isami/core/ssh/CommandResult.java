@@ -0,0 +1,54 @@
+package stes.isami.core.ssh;
+
+/**
+ * Output and exit code of a command executed on the remote host.
+ */
+public class CommandResult {
+
+    /**
+     * The remote host did not send the exit status
+     */
+    public static final int UNKNOWN_EXIT_CODE = Integer.MIN_VALUE;
+
+    private final SessionOutput output;
+    private final String errorOutput;
+    private final int exitCode;
+
+    public CommandResult(SessionOutput output, int exitCode) {
+        this(output,"",exitCode);
+    }
+
+    public CommandResult(SessionOutput output, String errorOutput, int exitCode) {
+        this.output = output;
+        this.errorOutput = errorOutput;
+        this.exitCode = exitCode;
+    }
+
+    /**
+     * Get the standard output. {@link SessionOutput#dispose()} must be called when the output is not needed anymore.
+     * @return output
+     */
+    public SessionOutput getOutput() {
+        return output;
+    }
+
+    /**
+     * Get the standard error. Empty when the command has been executed in a pseudo terminal,
+     * which merges it with the standard output.
+     * @return error output
+     */
+    public String getErrorOutput() {
+        return errorOutput;
+    }
+
+    /**
+     * Exit code of the remote command or {@link #UNKNOWN_EXIT_CODE}
+     */
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public boolean hasExitCode() {
+        return exitCode != UNKNOWN_EXIT_CODE;
+    }
+}
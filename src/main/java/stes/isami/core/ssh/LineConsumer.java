@@ -0,0 +1,47 @@
+package stes.isami.core.ssh;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/**
+ * {@link OutputConsumer} which splits the output in lines.
+ * <p>Both {@code \n} and {@code \r\n} are accepted as line terminators. The terminator is not part
+ * of the line given to {@link #onLine(CharSequence)}.</p>
+ */
+public abstract class LineConsumer implements OutputConsumer {
+
+    private final StringBuilder currentLine = new StringBuilder(256);
+
+    /**
+     * Called for every complete line
+     * @param line content of the line. Only valid during the call
+     * @throws IOException to abort the reading
+     */
+    public abstract void onLine(CharSequence line) throws IOException;
+
+    @Override
+    public void onChunk(CharBuffer chunk) throws IOException {
+        while (chunk.hasRemaining()) {
+            char c = chunk.get();
+            if (c == '\n') {
+                int length = currentLine.length();
+                if (length > 0 && currentLine.charAt(length - 1) == '\r') {
+                    currentLine.setLength(length - 1);
+                }
+                onLine(currentLine);
+                currentLine.setLength(0);
+            }
+            else {
+                currentLine.append(c);
+            }
+        }
+    }
+
+    @Override
+    public void onEnd() throws IOException {
+        if (currentLine.length() > 0) {
+            onLine(currentLine);
+            currentLine.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package stes.isami.core.ssh;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/**
+ * Receives the output of a remote command while it is read from the channel.
+ * <p>The {@link CharBuffer} passed to {@link #onChunk(CharBuffer)} is reused by the reader for the next chunk.
+ * The consumer must copy the characters it wants to keep before returning.</p>
+ */
+public interface OutputConsumer {
+
+    /**
+     * Called for every decoded chunk of output
+     * @param chunk characters read. Only valid during the call
+     * @throws IOException to abort the reading
+     */
+    public void onChunk(CharBuffer chunk) throws IOException;
+
+    /**
+     * Called once when the end of the stream has been reached
+     * @throws IOException
+     */
+    public void onEnd() throws IOException;
+}
@@ -0,0 +1,398 @@
+package stes.isami.core.ssh;
+
+import com.sshtools.ssh.ChannelOpenException;
+import com.sshtools.ssh.SshClient;
+import com.sshtools.ssh.SshException;
+import com.sshtools.ssh.SshSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived shell on the remote host which executes many commands one after the other.
+ * <p>A {@code /bin/sh} is started once on a session channel and the SGE settings are sourced once.
+ * Every command is written to the shell in a subshell, so that a {@code cd}, a variable or an {@code exit} of a
+ * command does not change the shell of the next commands, followed by a sentinel line on the standard output
+ * carrying the exit code and a sentinel line on the standard error:</p>
+ * <pre>
+ *     ( command
+ *     ) &lt; /dev/null
+ *     echo "__BJM_token_seq__ $?"
+ *     echo "__BJM_token_seq__" &gt;&amp;2
+ * </pre>
+ * <p>Commands are pipelined: they are written as soon as they are submitted and two reader threads split
+ * the output streams at the sentinels, completing the commands in the order they were written.</p>
+ * <p>A command which does not complete within the timeout of {@link #execute(String)} closes the shell, as the
+ * commands written after it would wait for it.</p>
+ * <p>One shell is kept per {@link SshClient}. It is obtained with {@link #forClient(SshClient)} and closed
+ * with {@link #close(SshClient)} when the connection goes away.</p>
+ */
+public class RemoteShell {
+
+    private static final Logger logger = LoggerFactory.getLogger(RemoteShell.class);
+
+    /**
+     * Command used to set up the SGE environment
+     */
+    public static final String SGE_SETTINGS = ". /opt/sge/default/common/settings.sh";
+
+    /**
+     * Time in ms after which {@link #execute(String)} gives up waiting for a command
+     */
+    public static final long DEFAULT_COMMAND_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+
+    private static final Map<SshClient, RemoteShell> shells = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static volatile boolean enabled = true;
+
+    private final String token = Long.toHexString(new Random().nextLong() & Long.MAX_VALUE);
+    private final AtomicLong sequence = new AtomicLong();
+    /**
+     * Commands waiting for their sentinel on the standard output. The lock of this queue guards both queues.
+     */
+    private final Deque<PendingCommand> pending = new ArrayDeque<>();
+
+    /**
+     * Commands waiting for their sentinel on the standard error
+     */
+    private final Deque<PendingCommand> pendingError = new ArrayDeque<>();
+    private final Writer writer;
+    private final Closeable channel;
+    private final int spillThreshold;
+    private volatile boolean closed = false;
+
+    /**
+     * Create a shell on streams already connected to a {@code sh} process
+     * @param stdout output of the shell
+     * @param stderr error output of the shell
+     * @param stdin input of the shell
+     * @param channel closed together with the shell
+     * @param spillThreshold number of characters of a command output kept in memory
+     */
+    protected RemoteShell(InputStream stdout, InputStream stderr, OutputStream stdin, Closeable channel, int spillThreshold) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(stdin, Charset.defaultCharset()));
+        this.channel = channel;
+        this.spillThreshold = spillThreshold;
+
+        Thread outputThread = new Thread(() -> readStream(stdout, pending, false), "remote-shell-out-" + token);
+        outputThread.setDaemon(true);
+        outputThread.start();
+
+        Thread errorThread = new Thread(() -> readStream(stderr, pendingError, true), "remote-shell-err-" + token);
+        errorThread.setDaemon(true);
+        errorThread.start();
+    }
+
+    /**
+     * Open a shell on a new session channel of {@code client} and source the SGE settings
+     * @param client authenticated client
+     * @return shell ready to execute commands
+     * @throws SshException if the channel or the shell cannot be opened
+     */
+    public static RemoteShell open(SshClient client) throws SshException {
+        try {
+            SshSession session = client.openSessionChannel();
+            if (!session.executeCommand("/bin/sh")) {
+                session.close();
+                throw new SshException("Cannot start the remote shell", SshException.SHELL_ERROR);
+            }
+
+            RemoteShell shell = new RemoteShell(session.getInputStream(), session.getStderrInputStream(),
+                    session.getOutputStream(), session::close, SessionOutput.DEFAULT_SPILL_THRESHOLD);
+            // sourced in the shell itself, for the next commands
+            shell.get(shell.submit(SGE_SETTINGS, false), DEFAULT_COMMAND_TIMEOUT, TimeUnit.MILLISECONDS).getOutput().dispose();
+            return shell;
+        } catch (ChannelOpenException e) {
+            throw new SshException(e);
+        } catch (IOException e) {
+            throw new SshException(e);
+        }
+    }
+
+    /**
+     * Get the shell of {@code client}. The shell is opened on first use and reopened if it has been closed.
+     * @param client authenticated client
+     * @return shell
+     * @throws SshException if the shell cannot be opened
+     */
+    public static RemoteShell forClient(SshClient client) throws SshException {
+        synchronized (shells) {
+            RemoteShell shell = shells.get(client);
+            if (shell == null || shell.isClosed()) {
+                shell = open(client);
+                shells.put(client, shell);
+            }
+            return shell;
+        }
+    }
+
+    /**
+     * Close the shell associated with {@code client}, if any
+     * @param client
+     */
+    public static void close(SshClient client) {
+        RemoteShell shell = shells.remove(client);
+        if (shell != null) {
+            shell.close();
+        }
+    }
+
+    /**
+     * True if the ssh methods should execute the batch commands through the persistent shell
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enable or disable the persistent shell. When disabled, every command opens its own session.
+     * @param enabled
+     */
+    public static void setEnabled(boolean enabled) {
+        RemoteShell.enabled = enabled;
+    }
+
+    /**
+     * Write the command to the shell without waiting for its output
+     * @param command
+     * @return future completed with the output and the exit code of the command. It completes with a
+     * {@link CommandNotSentException} if the shell was closed before the command was written.
+     */
+    public CompletableFuture<CommandResult> submit(String command) {
+        return submit(command, true);
+    }
+
+    /**
+     * Execute the command and wait for its output at most {@link #DEFAULT_COMMAND_TIMEOUT} ms
+     * @param command
+     * @return output and exit code
+     * @throws CommandNotSentException if the shell was closed before the command was written
+     * @throws IOException if the shell has been closed before the command completed or the command has timed out.
+     * The command may have run.
+     */
+    public CommandResult execute(String command) throws IOException {
+        return execute(command, DEFAULT_COMMAND_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Execute the command and wait for its output. If the command does not complete in time, the shell is closed
+     * and the commands written after it complete exceptionally.
+     * @param command
+     * @param timeout
+     * @param unit
+     * @return output and exit code
+     * @throws CommandNotSentException if the shell was closed before the command was written
+     * @throws IOException if the shell has been closed before the command completed or the command has timed out.
+     * The command may have run.
+     */
+    public CommandResult execute(String command, long timeout, TimeUnit unit) throws IOException {
+        return get(submit(command), timeout, unit);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Close the shell. The commands still waiting for their output complete exceptionally.
+     */
+    public void close() {
+        synchronized (writer) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                writer.write("exit\n");
+                writer.flush();
+            } catch (IOException e) {
+                ;
+            }
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            ;
+        }
+        failPending(new IOException("The remote shell has been closed"));
+    }
+
+    /**
+     * Write the command to the shell
+     * @param command
+     * @param subshell true to run the command in a subshell, false to run it in the shell itself
+     */
+    private CompletableFuture<CommandResult> submit(String command, boolean subshell) {
+        PendingCommand pendingCommand = new PendingCommand(
+                "__BJM_" + token + "_" + sequence.incrementAndGet() + "__", new SessionOutput(spillThreshold));
+
+        synchronized (writer) {
+            if (closed) {
+                pendingCommand.future.completeExceptionally(new CommandNotSentException("The remote shell is closed"));
+                return pendingCommand.future;
+            }
+
+            synchronized (pending) {
+                pending.addLast(pendingCommand);
+                pendingError.addLast(pendingCommand);
+            }
+
+            try {
+                writer.write(subshell ? "( " : "{ ");
+                writer.write(command);
+                writer.write(subshell ? "\n) < /dev/null\necho \"" : "\n} < /dev/null\necho \"");
+                writer.write(pendingCommand.marker);
+                writer.write(" $?\"\necho \"");
+                writer.write(pendingCommand.marker);
+                writer.write("\" >&2\n");
+                writer.flush();
+            } catch (IOException e) {
+                logger.error("Cannot write to the remote shell: {}", e.getMessage());
+                close();
+            }
+        }
+
+        return pendingCommand.future;
+    }
+
+    /**
+     * Wait for a command. The shell is closed if the command does not complete in time.
+     */
+    private CommandResult get(CompletableFuture<CommandResult> future, long timeout, TimeUnit unit) throws IOException {
+        try {
+            return future.get(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the remote shell");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            logger.error("Remote shell command timed out after {} ms, closing the shell", unit.toMillis(timeout));
+            close();
+            throw new IOException("The remote shell command has timed out");
+        }
+    }
+
+    /**
+     * Split a stream of the shell at the sentinels. The standard output carries the exit code
+     * after the sentinel.
+     */
+    private void readStream(InputStream in, Deque<PendingCommand> queue, boolean errorStream) {
+        try {
+            new ChunkedOutputReader().read(in, new LineConsumer() {
+                private final StringBuilder line = new StringBuilder();
+
+                @Override
+                public void onLine(CharSequence chars) throws IOException {
+                    PendingCommand head;
+                    synchronized (pending) {
+                        head = queue.peekFirst();
+                    }
+
+                    if (head == null) {
+                        logger.debug("Unexpected output from the remote shell: {}", chars);
+                        return;
+                    }
+
+                    line.setLength(0);
+                    line.append(chars);
+                    int markerIndex = line.indexOf(head.marker);
+                    if (markerIndex < 0) {
+                        line.append('\n');
+                        if (errorStream) {
+                            head.errorOutput.append(line);
+                        }
+                        else {
+                            head.output.onChunk(CharBuffer.wrap(line));
+                        }
+                        return;
+                    }
+
+                    if (errorStream) {
+                        head.errorOutput.append(line, 0, markerIndex);
+                    }
+                    else {
+                        if (markerIndex > 0) {
+                            head.output.onChunk(CharBuffer.wrap(line, 0, markerIndex));
+                        }
+                        head.output.onEnd();
+
+                        try {
+                            head.exitCode = Integer.parseInt(line.substring(markerIndex + head.marker.length()).trim());
+                        } catch (NumberFormatException e) {
+                            logger.debug("Cannot parse the exit code from: {}", line);
+                        }
+                    }
+
+                    synchronized (pending) {
+                        queue.pollFirst();
+                    }
+                    head.streamDone();
+                }
+            });
+        } catch (IOException e) {
+            if (!closed) {
+                logger.error("Remote shell output error: {}", e.getMessage());
+            }
+        }
+
+        closed = true;
+        failPending(new IOException("The remote shell has been closed"));
+    }
+
+    private void failPending(IOException ex) {
+        Set<PendingCommand> commands = new LinkedHashSet<>();
+        synchronized (pending) {
+            commands.addAll(pending);
+            commands.addAll(pendingError);
+            pending.clear();
+            pendingError.clear();
+        }
+
+        for (PendingCommand command: commands) {
+            if (command.future.completeExceptionally(ex)) {
+                command.output.dispose();
+            }
+        }
+    }
+
+    /**
+     * Command written to the shell and waiting for its sentinels
+     */
+    private static class PendingCommand {
+        private final String marker;
+        private final SessionOutput output;
+        private final StringBuffer errorOutput = new StringBuffer();
+        private final CompletableFuture<CommandResult> future = new CompletableFuture<>();
+        private final AtomicInteger remainingStreams = new AtomicInteger(2);
+        private volatile int exitCode = CommandResult.UNKNOWN_EXIT_CODE;
+
+        PendingCommand(String marker, SessionOutput output) {
+            this.marker = marker;
+            this.output = output;
+        }
+
+        /**
+         * Called when the sentinel has been read on one of the two streams
+         */
+        void streamDone() {
+            if (remainingStreams.decrementAndGet() == 0) {
+                future.complete(new CommandResult(output, errorOutput.toString(), exitCode));
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package stes.isami.core.ssh;
+
+import java.io.*;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link OutputConsumer} which keeps the output of a remote command.
+ * <p>The output is kept in memory until it exceeds {@code spillThreshold} characters. Beyond that, it is written
+ * to a temporary file and it can be read back with {@link #openReader()}. The temporary file is deleted by
+ * {@link #dispose()}.</p>
+ */
+public class SessionOutput implements OutputConsumer {
+
+    /**
+     * Default number of characters kept in memory: 1M
+     */
+    public static final int DEFAULT_SPILL_THRESHOLD = 1 << 20;
+
+    private final int spillThreshold;
+    private StringBuilder buffer = new StringBuilder();
+    private File spillFile;
+    private Writer spillWriter;
+    private long length = 0;
+
+    public SessionOutput() {
+        this(DEFAULT_SPILL_THRESHOLD);
+    }
+
+    /**
+     * @param spillThreshold number of characters kept in memory before spilling to a temporary file
+     */
+    public SessionOutput(int spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    @Override
+    public void onChunk(CharBuffer chunk) throws IOException {
+        length += chunk.remaining();
+
+        if (spillWriter == null && buffer.length() + chunk.remaining() > spillThreshold) {
+            spill();
+        }
+
+        if (spillWriter != null) {
+            spillWriter.append(chunk);
+        }
+        else {
+            buffer.append(chunk);
+        }
+    }
+
+    @Override
+    public void onEnd() throws IOException {
+        if (spillWriter != null) {
+            spillWriter.close();
+            spillWriter = null;
+        }
+    }
+
+    /**
+     * Number of characters received
+     */
+    public long length() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * True if the output has been written to a temporary file
+     */
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * Open a reader on the output. The output kept in memory is read in place, it is not copied.
+     * @return reader
+     * @throws IOException if the temporary file cannot be read
+     */
+    public Reader openReader() throws IOException {
+        if (spillFile != null) {
+            return new BufferedReader(new InputStreamReader(new FileInputStream(spillFile), StandardCharsets.UTF_8));
+        }
+
+        return new CharSequenceReader(buffer);
+    }
+
+    /**
+     * Read the output through a {@link LineConsumer}
+     * @param consumer
+     * @throws IOException
+     */
+    public void readLines(LineConsumer consumer) throws IOException {
+        readTo(consumer);
+    }
+
+    /**
+     * Send the output to a consumer
+     * @param consumer
+     * @throws IOException
+     */
+    public void readTo(OutputConsumer consumer) throws IOException {
+        if (spillFile == null) {
+            consumer.onChunk(CharBuffer.wrap(buffer));
+            consumer.onEnd();
+            return;
+        }
+
+        try (Reader reader = openReader()) {
+            CharBuffer chunk = CharBuffer.allocate(ChunkedOutputReader.DEFAULT_CHUNK_SIZE);
+            while (reader.read(chunk) > -1) {
+                chunk.flip();
+                consumer.onChunk(chunk);
+                chunk.clear();
+            }
+            consumer.onEnd();
+        }
+    }
+
+    /**
+     * Get the whole output as a String. If the output has been spilled, it is read back from the file.
+     * @return output
+     * @throws IOException if the temporary file cannot be read
+     */
+    public String getText() throws IOException {
+        if (spillFile == null) {
+            return buffer.toString();
+        }
+
+        StringBuilder sb = new StringBuilder((int) Math.min(length, Integer.MAX_VALUE));
+        try (Reader reader = openReader()) {
+            char[] chars = new char[ChunkedOutputReader.DEFAULT_CHUNK_SIZE];
+            int read;
+            while ((read = reader.read(chars)) > -1) {
+                sb.append(chars, 0, read);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Delete the temporary file
+     */
+    public void dispose() {
+        if (spillWriter != null) {
+            try {
+                spillWriter.close();
+            } catch (IOException e) {
+                ;
+            }
+            spillWriter = null;
+        }
+
+        if (spillFile != null) {
+            spillFile.delete();
+            spillFile = null;
+        }
+        buffer = new StringBuilder();
+    }
+
+    private void spill() throws IOException {
+        spillFile = File.createTempFile("sshOutput", ".tmp");
+        spillFile.deleteOnExit();
+        spillWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spillFile), StandardCharsets.UTF_8));
+        spillWriter.append(buffer);
+        buffer = new StringBuilder();
+    }
+
+    /**
+     * Reader over the characters of the buffer
+     */
+    private static class CharSequenceReader extends Reader {
+
+        private CharSequence chars;
+        private int position = 0;
+
+        CharSequenceReader(CharSequence chars) {
+            this.chars = chars;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (chars == null) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= chars.length()) {
+                return -1;
+            }
+
+            int n = Math.min(len, chars.length() - position);
+            if (chars instanceof StringBuilder) {
+                ((StringBuilder) chars).getChars(position, position + n, cbuf, off);
+            }
+            else {
+                for (int i = 0; i < n; i++) {
+                    cbuf[off + i] = chars.charAt(position + i);
+                }
+            }
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            chars = null;
+        }
+    }
+}
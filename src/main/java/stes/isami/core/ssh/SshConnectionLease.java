@@ -0,0 +1,44 @@
+package stes.isami.core.ssh;
+
+import com.sshtools.ssh.SshClient;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A channel slot on one of the pooled connections.
+ * <p>The lease must be released once the module has finished using the client, otherwise the
+ * slot stays taken. Releasing a lease twice has no effect.</p>
+ */
+public class SshConnectionLease implements AutoCloseable {
+
+    private final SshConnectionPool pool;
+    private final SshConnectionPool.PooledConnection connection;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    SshConnectionLease(SshConnectionPool pool, SshConnectionPool.PooledConnection connection) {
+        this.pool = pool;
+        this.connection = connection;
+    }
+
+    /**
+     * Get the leased client
+     * @return authenticated client
+     */
+    public SshClient getClient() {
+        return connection.getClient();
+    }
+
+    /**
+     * Give the channel slot back to the pool
+     */
+    public void release() {
+        if (released.compareAndSet(false,true)) {
+            pool.release(connection);
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+}
@@ -0,0 +1,375 @@
+package stes.isami.core.ssh;
+
+import com.sshtools.ssh.SshClient;
+import com.sshtools.ssh.SshException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pool of authenticated ssh connections to the same host.
+ * <p>Each connection accepts at most {@code maxChannelsPerConnection} concurrent leases. When every connection
+ * is full, a new one is opened through the {@link SshConnectionProvider} until {@code maxConnections} is reached.
+ * After that, the callers wait for a lease to be released.</p>
+ * <p>The connection given at the creation of the pool is the primary connection. It is never evicted.
+ * The other connections are checked periodically and closed when they are broken or idle for longer than
+ * {@code idleTimeout}.</p>
+ */
+public class SshConnectionPool {
+
+    private final Logger logger = LoggerFactory.getLogger(SshConnectionPool.class);
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+    public static final int DEFAULT_MAX_CHANNELS = 4;
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    public static final long DEFAULT_LEASE_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+
+    /**
+     * Interval between two health checks in seconds
+     */
+    private static final int MAINTENANCE_INTERVAL = 30;
+
+    private final SshConnectionProvider provider;
+    private final int maxConnections;
+    private final int maxChannelsPerConnection;
+    private final long idleTimeout;
+
+    private final List<PooledConnection> connections = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotReleased = lock.newCondition();
+
+    /**
+     * Number of connections being opened outside the lock
+     */
+    private int pendingConnections = 0;
+    private int waitingLeases = 0;
+    private long totalLeases = 0;
+    private long totalWaitMillis = 0;
+    private long createdConnections = 0;
+    private long evictedConnections = 0;
+    private long failedHealthChecks = 0;
+    private boolean closed = false;
+
+    private ScheduledExecutorService maintenanceExecutor;
+
+    public SshConnectionPool(SshClient primaryClient, SshConnectionProvider provider) {
+        this(primaryClient,provider,DEFAULT_MAX_CONNECTIONS,DEFAULT_MAX_CHANNELS,DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param primaryClient authenticated client used as first connection
+     * @param provider creates the additional connections
+     * @param maxConnections maximum number of connections
+     * @param maxChannelsPerConnection maximum number of concurrent leases on one connection
+     * @param idleTimeout time in ms after which an unused connection is closed
+     */
+    public SshConnectionPool(SshClient primaryClient, SshConnectionProvider provider, int maxConnections,
+                             int maxChannelsPerConnection, long idleTimeout) {
+        if (maxConnections < 1 || maxChannelsPerConnection < 1) {
+            throw new IllegalArgumentException("The pool needs at least one connection and one channel");
+        }
+
+        this.provider = provider;
+        this.maxConnections = maxConnections;
+        this.maxChannelsPerConnection = maxChannelsPerConnection;
+        this.idleTimeout = idleTimeout;
+
+        connections.add(new PooledConnection(primaryClient,true));
+        createdConnections++;
+    }
+
+    /**
+     * Start the periodic health check and idle eviction
+     */
+    public void start() {
+        lock.lock();
+        try {
+            if (maintenanceExecutor == null && !closed) {
+                maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "ssh-pool-maintenance");
+                    t.setDaemon(true);
+                    return t;
+                });
+                maintenanceExecutor.scheduleWithFixedDelay(this::maintain, MAINTENANCE_INTERVAL, MAINTENANCE_INTERVAL, TimeUnit.SECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lease a channel slot with the default timeout
+     * @return lease
+     * @throws SshException if no slot has been released before the timeout or the pool is closed
+     */
+    public SshConnectionLease lease() throws SshException {
+        return lease(DEFAULT_LEASE_TIMEOUT,TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Lease a channel slot. The least loaded healthy connection is chosen. If all of them are full,
+     * a new connection is opened or the caller waits for a slot.
+     * @param timeout
+     * @param unit
+     * @return lease
+     * @throws SshException if no slot has been released before the timeout, the thread has been interrupted
+     * or the pool is closed
+     */
+    public SshConnectionLease lease(long timeout, TimeUnit unit) throws SshException {
+
+        long start = System.currentTimeMillis();
+        long remaining = unit.toNanos(timeout);
+        boolean waiting = false;
+
+        lock.lock();
+        try {
+            while (true) {
+                if (closed) {
+                    throw new SshException("The connection pool is closed", SshException.CONNECT_FAILED);
+                }
+
+                PooledConnection connection = leastLoaded();
+                if (connection != null) {
+                    connection.activeLeases++;
+                    connection.lastUsed = System.currentTimeMillis();
+                    totalLeases++;
+                    totalWaitMillis += System.currentTimeMillis() - start;
+                    return new SshConnectionLease(this,connection);
+                }
+
+                if (connections.size() + pendingConnections < maxConnections) {
+                    PooledConnection newConnection = openConnection();
+                    if (newConnection != null) {
+                        continue;
+                    }
+                }
+
+                if (remaining <= 0) {
+                    throw new SshException("Timeout waiting for a free ssh channel", SshException.CHANNEL_FAILURE);
+                }
+
+                if (!waiting) {
+                    waiting = true;
+                    waitingLeases++;
+                }
+                remaining = slotReleased.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SshException("Interrupted while waiting for a free ssh channel", SshException.CANCELLED_CONNECTION);
+        } finally {
+            if (waiting) {
+                waitingLeases--;
+            }
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Maximum number of concurrent leases
+     */
+    public int getCapacity() {
+        return maxConnections * maxChannelsPerConnection;
+    }
+
+    /**
+     * Get a snapshot of the pool counters
+     * @return metrics
+     */
+    public SshPoolMetrics getMetrics() {
+        lock.lock();
+        try {
+            int active = 0;
+            for (PooledConnection connection: connections) {
+                active += connection.activeLeases;
+            }
+            return new SshPoolMetrics(connections.size(),active,waitingLeases,getCapacity(),totalLeases,totalWaitMillis,
+                    createdConnections,evictedConnections,failedHealthChecks);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close the pool. All connections, except the primary one, are disconnected.
+     * The waiting callers receive an exception.
+     */
+    public void close() {
+        List<PooledConnection> toClose = new ArrayList<>();
+        lock.lock();
+        try {
+            closed = true;
+            if (maintenanceExecutor != null) {
+                maintenanceExecutor.shutdownNow();
+                maintenanceExecutor = null;
+            }
+            for (PooledConnection connection: connections) {
+                if (!connection.primary) {
+                    toClose.add(connection);
+                }
+            }
+            connections.clear();
+            slotReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        toClose.forEach(PooledConnection::disconnect);
+        logger.info("SSH connection pool closed");
+    }
+
+    /**
+     * Run the health check and the idle eviction
+     */
+    void maintain() {
+        List<PooledConnection> toClose = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        lock.lock();
+        try {
+            Iterator<PooledConnection> it = connections.iterator();
+            while (it.hasNext()) {
+                PooledConnection connection = it.next();
+                if (connection.primary || connection.activeLeases > 0) {
+                    continue;
+                }
+
+                if (!connection.isHealthy()) {
+                    failedHealthChecks++;
+                    evictedConnections++;
+                    it.remove();
+                    toClose.add(connection);
+                }
+                else if (now - connection.lastUsed > idleTimeout) {
+                    evictedConnections++;
+                    it.remove();
+                    toClose.add(connection);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (PooledConnection connection: toClose) {
+            logger.debug("Evict ssh connection. Healthy: {}",connection.isHealthy());
+            connection.disconnect();
+        }
+
+        logger.debug("SSH pool: {}",getMetrics());
+    }
+
+    void release(PooledConnection connection) {
+        lock.lock();
+        try {
+            connection.activeLeases--;
+            connection.lastUsed = System.currentTimeMillis();
+            slotReleased.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the healthy connection with the lowest number of leases which has a free slot.
+     * Must be called with the lock held.
+     */
+    private PooledConnection leastLoaded() {
+        PooledConnection best = null;
+        Iterator<PooledConnection> it = connections.iterator();
+        while (it.hasNext()) {
+            PooledConnection connection = it.next();
+            if (connection.activeLeases >= maxChannelsPerConnection) {
+                continue;
+            }
+
+            if (!connection.isHealthy()) {
+                if (!connection.primary && connection.activeLeases == 0) {
+                    failedHealthChecks++;
+                    evictedConnections++;
+                    it.remove();
+                }
+                continue;
+            }
+
+            if (best == null || connection.activeLeases < best.activeLeases) {
+                best = connection;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Open a new connection. The lock is released while connecting so that the other callers are not blocked.
+     * Must be called with the lock held.
+     * @return the new connection or null if it cannot be opened
+     */
+    private PooledConnection openConnection() {
+        pendingConnections++;
+        lock.unlock();
+        SshClient client = null;
+        try {
+            client = provider.createConnection();
+        } catch (SshException e) {
+            logger.error("Cannot open a new pooled ssh connection: {}",e.getMessage());
+        } finally {
+            lock.lock();
+            pendingConnections--;
+        }
+
+        if (client == null) {
+            return null;
+        }
+
+        if (closed) {
+            client.disconnect();
+            return null;
+        }
+
+        PooledConnection connection = new PooledConnection(client,false);
+        connections.add(connection);
+        createdConnections++;
+        slotReleased.signalAll();
+        logger.debug("New pooled ssh connection. Connections: {}",connections.size());
+        return connection;
+    }
+
+    /**
+     * Connection held by the pool
+     */
+    static class PooledConnection {
+
+        private final SshClient client;
+        private final boolean primary;
+        private int activeLeases = 0;
+        private long lastUsed = System.currentTimeMillis();
+
+        PooledConnection(SshClient client, boolean primary) {
+            this.client = client;
+            this.primary = primary;
+        }
+
+        SshClient getClient() {
+            return client;
+        }
+
+        boolean isHealthy() {
+            return client.isConnected() && client.isAuthenticated();
+        }
+
+        void disconnect() {
+            RemoteShell.close(client);
+            if (client.isConnected()) {
+                client.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package stes.isami.core.ssh;
+
+import com.sshtools.ssh.SshClient;
+import com.sshtools.ssh.SshException;
+
+/**
+ * Creates new authenticated {@link SshClient} connections for the {@link SshConnectionPool}.
+ */
+public interface SshConnectionProvider {
+
+    /**
+     * Open a new connection to the host and authenticate the user
+     * @return connected and authenticated client
+     * @throws SshException if the connection or the authentication failed
+     */
+    public SshClient createConnection() throws SshException;
+}
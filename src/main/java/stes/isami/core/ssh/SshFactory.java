@@ -17,6 +17,13 @@ public interface SshFactory {
      */
     public void connect(String hostname, String user, String password) throws SshException,IllegalArgumentException;
 
+    /**
+     * Connect to an in-process batch backend instead of a remote host. It is used for the simulations.
+     * @param backend
+     * @param user user name of the jobs
+     */
+    public void connect(BatchBackend backend, String user);
+
     /**
      * Disconnect from host
      */
@@ -34,6 +41,12 @@ public interface SshFactory {
      */
     public boolean isAuthenticated();
 
+    /**
+     * Get the counters of the connection pool
+     * @return metrics or null if the user is not authenticated
+     */
+    public SshPoolMetrics getPoolMetrics();
+
     /**
      * Add SshListener
      * @param l
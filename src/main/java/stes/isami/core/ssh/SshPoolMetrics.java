@@ -0,0 +1,91 @@
+package stes.isami.core.ssh;
+
+/**
+ * Snapshot of the {@link SshConnectionPool} counters.
+ */
+public class SshPoolMetrics {
+
+    private final int connections;
+    private final int activeLeases;
+    private final int waitingLeases;
+    private final int capacity;
+    private final long totalLeases;
+    private final long totalWaitMillis;
+    private final long createdConnections;
+    private final long evictedConnections;
+    private final long failedHealthChecks;
+
+    public SshPoolMetrics(int connections, int activeLeases, int waitingLeases, int capacity, long totalLeases,
+                          long totalWaitMillis, long createdConnections, long evictedConnections, long failedHealthChecks) {
+        this.connections = connections;
+        this.activeLeases = activeLeases;
+        this.waitingLeases = waitingLeases;
+        this.capacity = capacity;
+        this.totalLeases = totalLeases;
+        this.totalWaitMillis = totalWaitMillis;
+        this.createdConnections = createdConnections;
+        this.evictedConnections = evictedConnections;
+        this.failedHealthChecks = failedHealthChecks;
+    }
+
+    /**
+     * Number of open connections
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * Number of leases currently held
+     */
+    public int getActiveLeases() {
+        return activeLeases;
+    }
+
+    /**
+     * Number of callers waiting for a free channel
+     */
+    public int getWaitingLeases() {
+        return waitingLeases;
+    }
+
+    /**
+     * Maximum number of concurrent leases (connections x channels per connection)
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Number of leases given since the pool was created
+     */
+    public long getTotalLeases() {
+        return totalLeases;
+    }
+
+    /**
+     * Average time spent waiting for a lease in milliseconds
+     */
+    public double getAverageWaitMillis() {
+        return totalLeases == 0 ? 0 : (double) totalWaitMillis / totalLeases;
+    }
+
+    public long getCreatedConnections() {
+        return createdConnections;
+    }
+
+    public long getEvictedConnections() {
+        return evictedConnections;
+    }
+
+    public long getFailedHealthChecks() {
+        return failedHealthChecks;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("connections=%d active=%d waiting=%d capacity=%d leases=%d avgWait=%.1fms created=%d evicted=%d failedChecks=%d",
+                connections, activeLeases, waitingLeases, capacity, totalLeases, getAverageWaitMillis(),
+                createdConnections, evictedConnections, failedHealthChecks);
+    }
+}
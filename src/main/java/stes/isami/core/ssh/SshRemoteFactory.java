@@ -35,6 +35,11 @@ public class SshRemoteFactory implements SshFactory {
 
     private static SshClient ssh;
 
+    /**
+     * Pool of connections leased to the ssh modules
+     */
+    private static SshConnectionPool connectionPool;
+
     private transient Vector listeners;
 
     public SshRemoteFactory() {
@@ -75,22 +80,24 @@ public class SshRemoteFactory implements SshFactory {
          * thread to fire data events back to us.
          */
 
-        try {
-            ssh = con.connect(new SocketTransport(hostname,
-                    22), user, true);
-            fireEvent(CLIENT_CONNECTED);
-        } catch (IOException e) {
-            throw new SshException("Cannot create the socket",SshException.CONNECT_FAILED);
-        }
+        ssh = openConnection(hostname,user,password);
+        fireEvent(CLIENT_CONNECTED);
 
         /**
          * Authenticate the user using password authentication
          */
-        PasswordAuthentication pwd = new PasswordAuthentication();
-        pwd.setPassword(password);
-        ssh.authenticate(pwd);
+        authenticate(ssh,password);
 
         if (ssh.isAuthenticated()) {
+            createConnectionPool(ssh, () -> {
+                SshClient client = openConnection(hostname,user,password);
+                authenticate(client,password);
+                if (!client.isAuthenticated()) {
+                    client.disconnect();
+                    throw new SshException("Authentication failed",SshException.CONNECT_FAILED);
+                }
+                return client;
+            });
             fireEvent(USER_AUTHENTICATED);
             try {
                 logger.debug("Main session created");
@@ -116,10 +123,26 @@ public class SshRemoteFactory implements SshFactory {
         }
     }
 
+    @Override
+    public void connect(BatchBackend backend, String user) {
+        if (backend == null || user == null) {
+            throw new IllegalArgumentException("Either backend or username are null");
+        }
+
+        ssh = BackendSshClient.create(backend, user);
+        fireEvent(CLIENT_CONNECTED);
+
+        createConnectionPool(ssh, () -> BackendSshClient.create(backend, user));
+        fireEvent(USER_AUTHENTICATED);
+    }
+
     @Override
     public void disconnect() {
 
+        closeConnectionPool();
+
         if (ssh != null) {
+            RemoteShell.close(ssh);
             if (ssh.isConnected()) {
                 ssh.disconnect();
                 ssh = null;
@@ -158,6 +181,34 @@ public class SshRemoteFactory implements SshFactory {
        throw new SshException("The client is either not connected or not autenticated",SshException.CONNECT_FAILED);
     }
 
+    /**
+     * Lease a connection from the pool. The lease must be released after use.
+     * @return lease on an authenticated connection
+     * @throws SshException if the client is not connected or no connection is available before the timeout
+     */
+    public static SshConnectionLease leaseConnection() throws SshException {
+        SshConnectionPool pool = getConnectionPool();
+        if (pool == null) {
+            throw new SshException("The client is either not connected or not autenticated",SshException.CONNECT_FAILED);
+        }
+
+        return pool.lease();
+    }
+
+    /**
+     * Get the connection pool
+     * @return pool or null if the client is not authenticated
+     */
+    public synchronized static SshConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    @Override
+    public SshPoolMetrics getPoolMetrics() {
+        SshConnectionPool pool = getConnectionPool();
+        return pool != null ? pool.getMetrics() : null;
+    }
+
     /**
      * Register a listener for JobEvents
      */
@@ -178,6 +229,39 @@ public class SshRemoteFactory implements SshFactory {
         listeners.removeElement(l);
     }
 
+    /**
+     * Open the transport to the host
+     */
+    private SshClient openConnection(String hostname, String user, String password) throws SshException {
+        try {
+            return con.connect(new SocketTransport(hostname,
+                    22), user, true);
+        } catch (IOException e) {
+            throw new SshException("Cannot create the socket",SshException.CONNECT_FAILED);
+        }
+    }
+
+    private void authenticate(SshClient client, String password) throws SshException {
+        PasswordAuthentication pwd = new PasswordAuthentication();
+        pwd.setPassword(password);
+        client.authenticate(pwd);
+    }
+
+    private synchronized static void createConnectionPool(SshClient primaryClient, SshConnectionProvider provider) {
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
+        connectionPool = new SshConnectionPool(primaryClient,provider);
+        connectionPool.start();
+    }
+
+    private synchronized static void closeConnectionPool() {
+        if (connectionPool != null) {
+            connectionPool.close();
+            connectionPool = null;
+        }
+    }
+
     /**
      * Fire JobEvent to all registered listeners
      */
@@ -0,0 +1,82 @@
+package stes.isami.core.tasks;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * Bounded executor for the work addressed to a job.
+ * <p>The work is spread over a fixed number of lanes. Each lane is a single thread with a bounded queue, and
+ * a job is always served by the same lane, so the work of one job is executed in the order it was submitted.
+ * When the queue of a lane is full, the caller blocks until there is room.</p>
+ */
+public class JobDispatcher {
+
+    private final Logger logger = LoggerFactory.getLogger(JobDispatcher.class);
+
+    private final ThreadPoolExecutor[] lanes;
+
+    /**
+     * @param name prefix of the thread names
+     * @param laneCount number of threads
+     * @param queueCapacity capacity of the queue of each lane
+     */
+    public JobDispatcher(String name, int laneCount, int queueCapacity) {
+        lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String threadName = name + "-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    r -> {
+                        Thread t = new Thread(r, threadName);
+                        t.setDaemon(true);
+                        return t;
+                    },
+                    (r, executor) -> {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("Dispatcher is shut down");
+                        }
+                        try {
+                            executor.getQueue().put(r);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(e);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Execute the task on the lane of the job
+     * @param jobID
+     * @param task
+     */
+    public void dispatch(UUID jobID, Runnable task) {
+        lanes[(jobID.hashCode() & Integer.MAX_VALUE) % lanes.length].execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Job {}: {}", jobID, e.toString());
+            }
+        });
+    }
+
+    /**
+     * Number of tasks waiting in all the lanes
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (ThreadPoolExecutor lane: lanes) {
+            size += lane.getQueue().size();
+        }
+        return size;
+    }
+
+    public void shutdown() {
+        for (ThreadPoolExecutor lane: lanes) {
+            lane.shutdown();
+        }
+    }
+}
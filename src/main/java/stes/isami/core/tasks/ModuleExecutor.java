@@ -8,7 +8,7 @@ import java.util.concurrent.ThreadPoolExecutor;
 /**
  * Class to execute modules. The modules can be job or core modules.
  * <br>Following the type of the module MODULE_TYPE_SSH or MODULE_TYPE_NORMAL a different pool is used.
- * For the SSH type modules a pool of 2 concurrent task is used to execute modules whereas for the
+ * For the SSH type modules the pool is sized to the capacity of the ssh connection pool whereas for the
  * NORMAL_TYPE a pool of 10 concurrent tasks is used.
  */
 public class ModuleExecutor {
@@ -18,7 +18,8 @@ public class ModuleExecutor {
     private static ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(10);
 
     /**
-     * We are experiencing errors when multiple call are made on the ssh client.Just execute two tasks at the time.
+     * Until the ssh connection pool is created, execute two tasks at the time.
+     * The pool is resized with {@link #setSshPoolSize(int)} once the user is authenticated.
      */
     private static ThreadPoolExecutor sshPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(2);
 
@@ -35,13 +36,33 @@ public class ModuleExecutor {
     }
 
     /**
-     * Getter for the ssh pool executor. The number of threads is set to 2.
+     * Getter for the ssh pool executor.
      * @return
      */
     public static ThreadPoolExecutor getSshPoolExecutor() {
         return sshPool;
     }
 
+    /**
+     * Set the number of threads of the ssh pool executor.
+     * It should match the number of channels available in the ssh connection pool.
+     * @param size number of threads
+     */
+    public static synchronized void setSshPoolSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("The ssh pool needs at least one thread");
+        }
+
+        if (size > sshPool.getMaximumPoolSize()) {
+            sshPool.setMaximumPoolSize(size);
+            sshPool.setCorePoolSize(size);
+        }
+        else {
+            sshPool.setCorePoolSize(size);
+            sshPool.setMaximumPoolSize(size);
+        }
+    }
+
     /**
      * Shut down executors
      */
@@ -0,0 +1,51 @@
+package stes.isami.core.tasks;
+
+import com.sshtools.ssh.SshException;
+import stes.isami.core.modules.MethodResult;
+import stes.isami.core.modules.ModuleException;
+import stes.isami.core.modules.SshModule;
+import stes.isami.core.modules.StandardMethodResult;
+import stes.isami.core.parameters.ParameterSet;
+import stes.isami.core.ssh.SshConnectionLease;
+import stes.isami.core.ssh.SshRemoteFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Task which executes a {@link SshModule} on a connection leased from the ssh connection pool.
+ * <p>The connection is leased when the task starts running in the executor and it is released
+ * when the method has finished, so the slot is not held while the task is waiting in the queue.</p>
+ */
+public class SshModuleTask implements Supplier<MethodResult> {
+
+    private final Logger logger = LoggerFactory.getLogger(SshModuleTask.class);
+
+    private final SshModule module;
+    private final UUID jobID;
+    private final ParameterSet parameterSet;
+
+    public SshModuleTask(SshModule module, UUID jobID, ParameterSet parameterSet) {
+        this.module = module;
+        this.jobID = jobID;
+        this.parameterSet = parameterSet;
+    }
+
+    @Override
+    public MethodResult get() {
+
+        try (SshConnectionLease lease = SshRemoteFactory.leaseConnection()) {
+            ModuleTask task = module.runModule(jobID, lease.getClient(), parameterSet);
+            return task.get();
+        } catch (ModuleException | SshException e) {
+            logger.error("Module {} : {}", module.getName(), e.getMessage());
+            return new StandardMethodResult(module.getName(), "runModule", jobID, StandardMethodResult.ERROR, e.getMessage());
+        }
+    }
+
+    public SshModule getModule() {
+        return module;
+    }
+}
@@ -0,0 +1,45 @@
+package stes.isami.core.util;
+
+/**
+ * Source of time for the scheduling of the engine.
+ * <p>The default source is the system clock. A simulation can install a virtual clock with {@link #set(TimeSource)}:
+ * the times read by the engine follow the virtual clock and the delays are converted to real delays
+ * by {@link #toRealDelay(long)}.</p>
+ */
+public class TimeSource {
+
+    private static final TimeSource SYSTEM = new TimeSource();
+
+    private static volatile TimeSource current = SYSTEM;
+
+    /**
+     * Current time in ms
+     */
+    public long millis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Convert a delay of this source to a delay of the system clock
+     * @param delay in ms
+     * @return real delay in ms
+     */
+    public long toRealDelay(long delay) {
+        return delay;
+    }
+
+    /**
+     * Get the time source used by the engine
+     */
+    public static TimeSource get() {
+        return current;
+    }
+
+    /**
+     * Set the time source used by the engine
+     * @param timeSource time source or null for the system clock
+     */
+    public static void set(TimeSource timeSource) {
+        current = timeSource == null ? SYSTEM : timeSource;
+    }
+}
@@ -0,0 +1,30 @@
+import com.github.oxo42.stateless4j.StateMachineConfig;
+import stes.isami.core.job.AbstractJob;
+import stes.isami.core.job.JobStateMachine;
+import stes.isami.core.parameters.ParameterSet;
+import stes.isami.core.parameters.parametertypes.StringParameter;
+
+import java.util.Collections;
+
+/**
+ * Job driven only by a state machine, for the tests and the benchmark of the state machines
+ */
+public class JobFixture extends AbstractJob {
+
+    public JobFixture(JobStateMachine<JobFixture> machine, int state) {
+        super(createParameters());
+        setStateMachine(machine);
+        restore(getId(), Collections.emptyMap(), state);
+    }
+
+    public JobFixture(StateMachineConfig<Integer, Integer> config, int state) {
+        super(createParameters(), config);
+        restore(getId(), Collections.emptyMap(), state);
+    }
+
+    public static ParameterSet createParameters() {
+        ParameterSet parameters = new ParameterSet();
+        parameters.addParameter(new StringParameter("name", "name", "general", "job"));
+        return parameters;
+    }
+}
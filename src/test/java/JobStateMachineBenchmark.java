@@ -0,0 +1,106 @@
+import com.github.oxo42.stateless4j.StateMachineConfig;
+import stes.isami.core.job.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * Benchmark of the job state machines: the table-driven {@link JobStateMachine} against the stateless4j machine.
+ * <p>The jobs cycle between the batch states RUN and WAITING, with an entry action in RUN. Each thread fires the
+ * triggers of its jobs; with {@code -shared}, all the threads fire the triggers of the same jobs.</p>
+ * <pre>java JobStateMachineBenchmark [threads] [jobs] [triggers per thread] [-shared]</pre>
+ */
+public class JobStateMachineBenchmark {
+
+    private static volatile int sink;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threadCount = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int jobCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int triggerCount = args.length > 2 ? Integer.parseInt(args[2]) : 2_000_000;
+        boolean shared = args.length > 3 && args[3].equals("-shared");
+
+        JobStateMachine<JobFixture> table = JobStateMachine.<JobFixture>builder()
+                .configure(JobState.RUN)
+                    .onEntry((job, oldState, newState) -> sink++)
+                    .ignore(Trigger.evRunning)
+                    .permit(Trigger.evWaiting, JobState.WAITING)
+                .configure(JobState.WAITING)
+                    .ignore(Trigger.evWaiting)
+                    .permit(Trigger.evRunning, JobState.RUN)
+                .build();
+
+        StateMachineConfig<Integer, Integer> config = new StateMachineConfig<>();
+        config.configure(JobState.RUN)
+                .onEntry(() -> sink++)
+                .ignore(Trigger.evRunning)
+                .permit(Trigger.evWaiting, JobState.WAITING);
+        config.configure(JobState.WAITING)
+                .ignore(Trigger.evWaiting)
+                .permit(Trigger.evRunning, JobState.RUN);
+
+        for (int i = 0; i < 3; i++) {
+            run("table", threadCount, shared, triggerCount, createJobs(jobCount, threadCount, shared, () -> new JobFixture(table, JobState.RUN)));
+            if (!shared) {
+                // the stateless4j machine is not safe when several threads fire the triggers of a job
+                run("stateless4j", threadCount, false, triggerCount, createJobs(jobCount, threadCount, false, () -> new JobFixture(config, JobState.RUN)));
+            }
+        }
+    }
+
+    private static List<List<JobFixture>> createJobs(int jobCount, int threadCount, boolean shared, Supplier<JobFixture> factory) {
+        List<List<JobFixture>> jobs = new ArrayList<>();
+        List<JobFixture> sharedJobs = new ArrayList<>();
+        for (int i = 0; i < jobCount; i++) {
+            sharedJobs.add(factory.get());
+        }
+
+        for (int t = 0; t < threadCount; t++) {
+            if (shared) {
+                jobs.add(sharedJobs);
+            }
+            else {
+                List<JobFixture> threadJobs = new ArrayList<>();
+                for (int i = 0; i < jobCount / threadCount; i++) {
+                    threadJobs.add(factory.get());
+                }
+                jobs.add(threadJobs);
+            }
+        }
+        return jobs;
+    }
+
+    private static void run(String name, int threadCount, boolean shared, int triggerCount, List<List<JobFixture>> jobs) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            List<JobFixture> threadJobs = jobs.get(t);
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < triggerCount; i++) {
+                    JobFixture job = threadJobs.get(i % threadJobs.size());
+                    job.fireTrigger((i / threadJobs.size()) % 2 == 0 ? Trigger.evWaiting : Trigger.evRunning);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        long total = (long) triggerCount * threadCount;
+        System.out.printf("%-12s threads: %d%s triggers: %d  %,d triggers/s  %.1f ns/trigger%n", name, threadCount,
+                shared ? " (shared jobs)" : "", total, total * 1_000_000_000L / elapsed, (double) elapsed * threadCount / total);
+    }
+}
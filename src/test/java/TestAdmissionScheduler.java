@@ -0,0 +1,137 @@
+import stes.isami.core.AdmissionScheduler;
+import stes.isami.core.job.Job;
+import stes.isami.core.job.JobState;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test the admission of the jobs into the pipeline
+ */
+public class TestAdmissionScheduler {
+
+    private final Map<Job, Integer> states = new HashMap<>();
+    private final Map<Job, String> owners = new HashMap<>();
+    private final List<Job> started = new ArrayList<>();
+    private AdmissionScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new AdmissionScheduler(job -> {
+            started.add(job);
+            states.put(job, JobState.PREPROCESSING);
+        });
+        scheduler.setOwnerFunction(owners::get);
+        scheduler.setMaxPreprocessing(2);
+        scheduler.setMaxSubmitting(1);
+    }
+
+    @Test
+    public void testStageLimits() {
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Job job = job("a");
+            jobs.add(job);
+            scheduler.enqueue(job, 0);
+        }
+
+        scheduler.drain();
+        assertEquals(jobs.subList(0, 2), started);
+        assertEquals(3, scheduler.getPendingCount());
+
+        // SUBMITTING is full, the next job waits until the first one is submitted
+        setState(jobs.get(0), JobState.SUBMITTING);
+        assertEquals(2, started.size());
+        assertEquals(1, scheduler.getSubmittingCount());
+
+        setState(jobs.get(0), JobState.SUBMITTED);
+        assertEquals(jobs.subList(0, 3), started);
+        assertEquals(2, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void testFairShareAndPriority() {
+        scheduler.setMaxPreprocessing(1);
+        Job a1 = job("a");
+        Job a2 = job("a");
+        Job a3 = job("a");
+        Job b1 = job("b");
+        scheduler.enqueue(a1, 0);
+        scheduler.enqueue(a2, 0);
+        scheduler.enqueue(a3, 5);
+        scheduler.enqueue(b1, 0);
+
+        scheduler.drain();
+        while (scheduler.getPreprocessingCount() > 0) {
+            setState(started.get(started.size() - 1), JobState.ERROR);
+        }
+
+        assertEquals(Arrays.asList(a3, b1, a1, a2), started);
+    }
+
+    @Test
+    public void testCancel() {
+        scheduler.setMaxPreprocessing(1);
+        Job a1 = job("a");
+        Job a2 = job("a");
+        scheduler.enqueue(a1, 0);
+        scheduler.enqueue(a2, 0);
+        scheduler.cancel(a1.getID());
+
+        scheduler.drain();
+        assertEquals(Collections.singletonList(a2), started);
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void testCancelAndQueueAgain() {
+        scheduler.setMaxPreprocessing(1);
+        Job a1 = job("a");
+        Job a2 = job("a");
+        scheduler.enqueue(a1, 0);
+        scheduler.enqueue(a2, 0);
+
+        // queued again with a lower priority, the job is not started with its first entry
+        scheduler.cancel(a1.getID());
+        scheduler.enqueue(a1, -1);
+        assertEquals(2, scheduler.getPendingCount());
+
+        scheduler.drain();
+        setState(a2, JobState.ERROR);
+        assertEquals(Arrays.asList(a2, a1), started);
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    private void setState(Job job, int state) {
+        states.put(job, state);
+        scheduler.jobStateChanged(job);
+    }
+
+    private Job job(String owner) {
+        UUID id = UUID.randomUUID();
+        Job[] job = new Job[1];
+        job[0] = (Job) Proxy.newProxyInstance(Job.class.getClassLoader(), new Class<?>[]{Job.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getID":
+                    return id;
+                case "getState":
+                    return states.get(job[0]);
+                case "hashCode":
+                    return id.hashCode();
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return owner + ":" + id;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        states.put(job[0], JobState.READY);
+        owners.put(job[0], owner);
+        return job[0];
+    }
+}
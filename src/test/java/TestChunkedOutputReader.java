@@ -0,0 +1,56 @@
+import stes.isami.core.ssh.ChunkedOutputReader;
+import stes.isami.core.ssh.LineConsumer;
+import stes.isami.core.ssh.SessionOutput;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the chunked reader used by the ssh methods
+ */
+public class TestChunkedOutputReader {
+
+    @Test
+    public void testLinesAcrossChunks() throws IOException {
+        byte[] output = "job-ID prior\r\n 938880 0.6é\n\0last".getBytes(StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>();
+
+        new ChunkedOutputReader(3, StandardCharsets.UTF_8).read(new ByteArrayInputStream(output), new LineConsumer() {
+            @Override
+            public void onLine(CharSequence line) {
+                lines.add(line.toString());
+            }
+        });
+
+        assertEquals(3, lines.size());
+        assertEquals("job-ID prior", lines.get(0));
+        assertEquals(" 938880 0.6é", lines.get(1));
+        assertEquals("last", lines.get(2));
+    }
+
+    @Test
+    public void testSpillToFile() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("line ").append(i).append('\n');
+        }
+
+        SessionOutput output = new SessionOutput(100);
+        new ChunkedOutputReader().read(new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8)), output);
+
+        assertTrue(output.isSpilled());
+        assertEquals(sb.length(), output.length());
+        assertEquals(sb.toString(), output.getText());
+
+        output.dispose();
+        assertFalse(output.isSpilled());
+    }
+}
@@ -0,0 +1,97 @@
+import stes.isami.core.CoalescingJobListener;
+import stes.isami.core.JobListener;
+import stes.isami.core.job.JobEvent;
+import stes.isami.core.job.ParameterUpdatedEvent;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the merging of the UPDATE events
+ */
+public class TestCoalescingJobListener {
+
+    @Test
+    public void testMerge() {
+        List<JobEvent> received = new ArrayList<>();
+        CoalescingJobListener listener = new CoalescingJobListener(received::add, 60000);
+
+        UUID id = UUID.randomUUID();
+        UUID otherID = UUID.randomUUID();
+        listener.onJobEvents(Arrays.asList(
+                new ParameterUpdatedEvent(id, "a", 1),
+                new ParameterUpdatedEvent(otherID, "a", 1),
+                new ParameterUpdatedEvent(id, "b", 2)));
+        listener.onJobEvent(new ParameterUpdatedEvent(id, "a", 3));
+        assertTrue(received.isEmpty());
+
+        // the update of the job is passed before its state change
+        listener.onJobEvent(new JobEvent(id, JobEvent.JobEventType.STATE_CHANGED));
+        assertEquals(2, received.size());
+        assertEquals(JobEvent.JobEventType.UPDATE, received.get(0).getEventType());
+        Map<String, Object> values = ((ParameterUpdatedEvent) received.get(0)).getValues();
+        assertEquals(3, values.get("a"));
+        assertEquals(2, values.get("b"));
+        assertEquals(JobEvent.JobEventType.STATE_CHANGED, received.get(1).getEventType());
+
+        listener.close();
+        assertEquals(3, received.size());
+        assertEquals(otherID, received.get(2).getId());
+    }
+
+    @Test
+    public void testMergeRefresh() {
+        List<JobEvent> received = new ArrayList<>();
+        CoalescingJobListener listener = new CoalescingJobListener(received::add, 60000);
+
+        // a plain UPDATE refreshes the whole job: it wins over the values, before or after them
+        UUID id = UUID.randomUUID();
+        UUID otherID = UUID.randomUUID();
+        listener.onJobEvents(Arrays.asList(
+                createEvent(new ParameterUpdatedEvent(id, "a", 1), 1),
+                createEvent(new JobEvent(id, JobEvent.JobEventType.UPDATE), 2),
+                createEvent(new JobEvent(otherID, JobEvent.JobEventType.UPDATE), 3),
+                createEvent(new ParameterUpdatedEvent(otherID, "a", 1), 4)));
+        listener.close();
+
+        assertEquals(2, received.size());
+        for (JobEvent event: received) {
+            assertFalse(event instanceof ParameterUpdatedEvent);
+        }
+        assertEquals(2, received.get(0).getSequence());
+        assertEquals(4, received.get(1).getSequence());
+    }
+
+    @Test
+    public void testListCopied() {
+        List<List<JobEvent>> batches = new ArrayList<>();
+        CoalescingJobListener listener = new CoalescingJobListener(new JobListener() {
+            @Override
+            public void onJobEvent(JobEvent event) {
+            }
+
+            @Override
+            public void onJobEvents(List<JobEvent> events) {
+                batches.add(events);
+            }
+        }, 60000);
+
+        listener.onJobEvent(new JobEvent(UUID.randomUUID(), JobEvent.JobEventType.CREATE));
+        listener.onJobEvent(new JobEvent(UUID.randomUUID(), JobEvent.JobEventType.CREATE));
+        listener.close();
+
+        // the listener keeps the lists it has been given
+        assertEquals(2, batches.size());
+        assertEquals(1, batches.get(0).size());
+        assertEquals(1, batches.get(1).size());
+    }
+
+    private static JobEvent createEvent(JobEvent event, long sequence) {
+        event.setSequence(sequence);
+        return event;
+    }
+}
@@ -0,0 +1,183 @@
+import stes.isami.core.Core;
+import stes.isami.core.CoreEngine;
+import stes.isami.core.JobListener;
+import stes.isami.core.job.DefaultJob;
+import stes.isami.core.job.Job;
+import stes.isami.core.job.JobEvent;
+import stes.isami.core.job.JobState;
+import stes.isami.core.modules.LocalModule;
+import stes.isami.core.modules.Method;
+import stes.isami.core.modules.MethodResult;
+import stes.isami.core.modules.Module;
+import stes.isami.core.modules.StandardMethodResult;
+import stes.isami.core.parameters.ParameterSet;
+import stes.isami.core.parameters.parametertypes.StringParameter;
+import stes.isami.core.sim.SimulatedBatchSystem;
+import stes.isami.core.sim.SimulationProfile;
+import stes.isami.core.sim.VirtualClock;
+import stes.isami.core.tasks.ModuleTask;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the bulk operations of the core on the in-process batch system
+ */
+public class TestCoreEngine {
+
+    private static final int JOB_COUNT = 20;
+
+    @Test
+    public void testBulkOperations() throws Exception {
+        SimulationProfile profile = new SimulationProfile();
+        profile.setCommandLatency(0);
+        profile.setQstatLatencyPerJob(0);
+        profile.setQueueWait(3600000, 3600000);
+        SimulatedBatchSystem batchSystem = new SimulatedBatchSystem(profile, new VirtualClock(0), "xizac");
+
+        Core core = CoreEngine.getInstance();
+        core.getSshFactory().connect(batchSystem, "xizac");
+        // IDs of the STATE_CHANGED events of the bulk operations, which are split by lane of the dispatcher
+        Set<UUID> bulkChanges = ConcurrentHashMap.newKeySet();
+        JobListener listener = event -> {
+            if (event.getEventType() == JobEvent.JobEventType.STATE_CHANGED && event.getId() == null) {
+                bulkChanges.addAll(event.getIds());
+            }
+        };
+        core.addJobListener(listener);
+
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < JOB_COUNT; i++) {
+            jobs.add(createJob(batchSystem, i));
+        }
+        List<UUID> ids = core.addJobs(jobs);
+        assertEquals(JOB_COUNT, ids.size());
+
+        try {
+            core.executeJobs(ids);
+            waitFor(jobs, job -> isQueued(job));
+            List<String> batchIDs = new ArrayList<>();
+            for (Job job: jobs) {
+                assertEquals("qw", batchSystem.getState(job.getBatchID()));
+                batchIDs.add(job.getBatchID());
+            }
+
+            // the jobs are stopped on this thread, the qdel calls are grouped
+            bulkChanges.clear();
+            core.stopJobs(ids);
+            for (Job job: jobs) {
+                assertEquals(JobState.STOP, job.getState());
+            }
+            waitFor(jobs, job -> job.getBatchID() == null && bulkChanges.contains(job.getID()));
+            for (String batchID: batchIDs) {
+                assertEquals(null, batchSystem.getState(batchID));
+            }
+            assertEquals(JOB_COUNT, batchSystem.getStats().getDeleted());
+            assertEquals(JOB_COUNT, bulkChanges.size());
+
+            core.restartJobs(ids);
+            waitFor(jobs, job -> isQueued(job));
+            for (int i = 0; i < JOB_COUNT; i++) {
+                assertNotEquals(batchIDs.get(i), jobs.get(i).getBatchID());
+            }
+        } finally {
+            core.removeJobListener(listener);
+            core.stopJobs(ids);
+            core.deleteJobs(ids);
+            core.getSshFactory().disconnect();
+        }
+    }
+
+    /*****************************************************************************************************
+     *
+     *
+     *                                      PRIVATE
+     *
+     */
+
+    private static DefaultJob createJob(SimulatedBatchSystem batchSystem, int i) throws IOException {
+        ParameterSet parameters = new ParameterSet();
+        parameters.addParameter(new StringParameter("name", "name", "general", "job" + i));
+        parameters.addParameter(new StringParameter("temporaryFolder", "temporaryFolder", "general",
+                Files.createTempDirectory("Job_").toString()));
+
+        Map<Integer, Module> modules = new HashMap<>();
+        modules.put(JobState.PREPROCESSING, new SubmitModule(null));
+        modules.put(JobState.SUBMITTING, new SubmitModule(batchSystem));
+        return new DefaultJob(parameters, modules);
+    }
+
+    private static boolean isQueued(Job job) {
+        return job.getBatchID() != null && (job.getState() == JobState.SUBMITTED || job.getState() == JobState.WAITING);
+    }
+
+    private static void waitFor(List<Job> jobs, Predicate<Job> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        for (Job job: jobs) {
+            while (!condition.test(job)) {
+                assertTrue("Job " + job.getName() + " in state " + JobState.toString(job.getState()),
+                        System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /**
+     * Module which submits the job to the batch system, or does nothing without batch system
+     */
+    private static class SubmitModule implements LocalModule {
+
+        private final SimulatedBatchSystem batchSystem;
+
+        SubmitModule(SimulatedBatchSystem batchSystem) {
+            this.batchSystem = batchSystem;
+        }
+
+        @Override
+        public String getName() {
+            return batchSystem == null ? "preprocessing" : "qsub";
+        }
+
+        @Override
+        public ModuleTask runModule(UUID jobID, ParameterSet parameterSet) {
+            return new ModuleTask(getName(), new Method() {
+                @Override
+                public String getName() {
+                    return SubmitModule.this.getName();
+                }
+
+                @Override
+                public MethodResult execute() {
+                    StandardMethodResult result = new StandardMethodResult(getName(), getName(), jobID);
+                    if (batchSystem != null) {
+                        try {
+                            String batchID = batchSystem.execute("qsub -N job -terse run.sh").getOutput().getText().trim();
+                            result.addParameter(new StringParameter("batchID", "batchID", "internal", batchID));
+                        } catch (IOException e) {
+                            return new StandardMethodResult(getName(), getName(), jobID, 1, e.getMessage());
+                        }
+                    }
+                    return result;
+                }
+
+                @Override
+                public void cancel() {
+
+                }
+            });
+        }
+    }
+}
@@ -1,16 +1,29 @@
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
 import stes.isami.core.job.*;
+import stes.isami.core.modules.LocalModule;
+import stes.isami.core.modules.Method;
+import stes.isami.core.modules.MethodResult;
 import stes.isami.core.modules.Module;
 import stes.isami.core.modules.StandardMethodResult;
 import stes.isami.core.parameters.ParameterSet;
 import stes.isami.core.parameters.parametertypes.StringParameter;
+import stes.isami.core.tasks.ModuleExecutor;
+import stes.isami.core.tasks.ModuleTask;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Observable;
-import java.util.Observer;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Test default job
@@ -19,6 +32,7 @@ public class TestDefaultJob implements Observer {
     private final Logger logger = LoggerFactory.getLogger(AbstractJob.class);
     private  DefaultJob job;
     private boolean stateChanged = false;
+    private final List<ParameterUpdatedEvent> updates = new ArrayList<>();
 
     public TestDefaultJob() {
         JobState jobState = new JobState();
@@ -63,6 +77,120 @@ public class TestDefaultJob implements Observer {
 
     }
 
+    @Test
+    public void testUpdateParameters() throws JobException {
+        ParameterSet parameters = new ParameterSet();
+        parameters.addParameter(new StringParameter("name", "name", "general", "job"));
+        parameters.addParameter(new StringParameter("input", "input", "general", "a.dat"));
+        DefaultJob job = new DefaultJob(parameters, new HashMap<Integer, Module>());
+        EventBus eventBus = new EventBus();
+        eventBus.register(this);
+        job.setEventBus(eventBus);
+
+        // nothing is changed if a parameter is missing
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("input", "b.dat");
+        values.put("output", "b.out");
+        try {
+            job.updateParameters(values);
+            fail("The output parameter does not exist");
+        } catch (IllegalArgumentException e) {
+            assertEquals("a.dat", job.getParameters().getParameter("input").getValue());
+            assertTrue(updates.isEmpty());
+        }
+
+        values.remove("output");
+        values.put("name", "job2");
+        job.updateParameters(values);
+        assertEquals("b.dat", job.getParameters().getParameter("input").getValue());
+        assertEquals("job2", job.getName());
+        assertEquals(1, updates.size());
+        assertEquals(values, updates.get(0).getValues());
+    }
+
+    @Test
+    public void testSharedStateMachine() throws Exception {
+        BlockingModule preprocessing = new BlockingModule();
+        BlockingModule otherPreprocessing = new BlockingModule();
+        BlockingModule otherSubmitting = new BlockingModule();
+        DefaultJob job = new DefaultJob(createParameters("job"), createModules(preprocessing, new BlockingModule()));
+        DefaultJob otherJob = new DefaultJob(createParameters("otherJob"), createModules(otherPreprocessing, otherSubmitting));
+        DefaultJob submittingJob = new DefaultJob(createParameters("submittingJob"),
+                Collections.<Integer, Module>singletonMap(JobState.SUBMITTING, new BlockingModule()));
+
+        // one machine per module layout
+        assertSame(job.getJobStateMachine(), otherJob.getJobStateMachine());
+        assertNotSame(job.getJobStateMachine(), submittingJob.getJobStateMachine());
+        assertTrue(job.getJobStateMachine().canFire(JobState.PREPROCESSING, Trigger.doSubmit));
+        assertFalse(submittingJob.getJobStateMachine().canFire(JobState.PREPROCESSING, Trigger.doSubmit));
+
+        job.execute();
+        otherJob.execute();
+        assertTrue(preprocessing.started.await(10, TimeUnit.SECONDS));
+        assertTrue(otherPreprocessing.started.await(10, TimeUnit.SECONDS));
+        assertEquals(JobState.PREPROCESSING, job.getState());
+        assertEquals(JobState.PREPROCESSING, otherJob.getState());
+        assertEquals(JobState.READY, submittingJob.getState());
+
+        // stopping a job cancels its own module only
+        job.stop();
+        assertEquals(JobState.STOP, job.getState());
+        assertEquals(JobState.PREPROCESSING, otherJob.getState());
+        assertTrue(preprocessing.interrupted.await(10, TimeUnit.SECONDS));
+
+        otherPreprocessing.release.countDown();
+        assertTrue(otherSubmitting.started.await(10, TimeUnit.SECONDS));
+        assertEquals(JobState.SUBMITTING, otherJob.getState());
+        assertEquals(1, otherPreprocessing.interrupted.getCount());
+        assertEquals(JobState.STOP, job.getState());
+
+        otherJob.stop();
+        assertTrue(otherSubmitting.interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStopWhileSubmitting() throws Exception {
+        BlockingModule preprocessing = new BlockingModule();
+        preprocessing.release.countDown();
+        BlockingModule submitting = new BlockingModule();
+        DefaultJob job = new DefaultJob(createParameters("job"), createModules(preprocessing, submitting));
+        StateRecorder recorder = new StateRecorder(job);
+
+        job.execute();
+        assertTrue(submitting.started.await(10, TimeUnit.SECONDS));
+        assertEquals(JobState.SUBMITTING, job.getState());
+        job.stop();
+        assertEquals(JobState.STOP, job.getState());
+        assertTrue(submitting.interrupted.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(JobState.READY, JobState.PREPROCESSING, JobState.SUBMITTING, JobState.STOP), recorder.getStates());
+        assertTrue(recorder.isOrdered());
+
+        // the stop races with the end of the preprocessing: a submission started for the stopped job is cancelled
+        for (int i = 0; i < 200; i++) {
+            preprocessing = new BlockingModule();
+            preprocessing.release.countDown();
+            submitting = new BlockingModule();
+            job = new DefaultJob(createParameters("job" + i), createModules(preprocessing, submitting));
+            recorder = new StateRecorder(job);
+
+            job.execute();
+            assertTrue(preprocessing.started.await(10, TimeUnit.SECONDS));
+            job.stop();
+            waitForLocalModules();
+
+            assertEquals(JobState.STOP, job.getState());
+            assertTrue(submitting.started.getCount() == 1 || submitting.interrupted.getCount() == 0);
+            List<Integer> states = recorder.getStates();
+            assertEquals(JobState.STOP, (int) states.get(states.size() - 1));
+            assertTrue(recorder.isOrdered());
+        }
+    }
+
+    @Subscribe
+    public void onParameterUpdated(ParameterUpdatedEvent event) {
+        updates.add(event);
+    }
+
     @Override
     public void update(Observable o, Object arg) {
 
@@ -71,6 +199,30 @@ public class TestDefaultJob implements Observer {
         stateChanged = true;
     }
 
+    private static ParameterSet createParameters(String name) {
+        ParameterSet parameters = new ParameterSet();
+        parameters.addParameter(new StringParameter("name", "name", "general", name));
+        return parameters;
+    }
+
+    /**
+     * Wait for the modules running in the local pool. A module which is not cancelled keeps running.
+     */
+    private static void waitForLocalModules() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (ModuleExecutor.getLocalPoolExecutor().getActiveCount() > 0 || !ModuleExecutor.getLocalPoolExecutor().getQueue().isEmpty()) {
+            assertTrue("A module is still running", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static Map<Integer, Module> createModules(Module preprocessing, Module submitting) {
+        Map<Integer, Module> modules = new HashMap<>();
+        modules.put(JobState.PREPROCESSING, preprocessing);
+        modules.put(JobState.SUBMITTING, submitting);
+        return modules;
+    }
+
     private StandardMethodResult testQStat(String status) {
 
         //job submitted
@@ -83,4 +235,80 @@ public class TestDefaultJob implements Observer {
 
         return outputResult;
     }
+
+    /**
+     * Module whose method waits to be released or interrupted
+     */
+    private static class BlockingModule implements LocalModule {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+
+        @Override
+        public String getName() {
+            return "blocking";
+        }
+
+        @Override
+        public ModuleTask runModule(UUID jobID, ParameterSet parameterSet) {
+            return new ModuleTask("blocking", new Method() {
+                @Override
+                public String getName() {
+                    return "blocking";
+                }
+
+                @Override
+                public MethodResult execute() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        return new StandardMethodResult("blocking", "blocking", jobID, 1, "interrupted");
+                    }
+                    return new StandardMethodResult("blocking", "blocking", jobID);
+                }
+
+                @Override
+                public void cancel() {
+
+                }
+            });
+        }
+    }
+
+    /**
+     * Records the states of a job from its STATE_CHANGED events
+     */
+    public static class StateRecorder {
+
+        private final List<Integer> states = new ArrayList<>();
+
+        /**
+         * False if an event does not start from the state entered by the previous one
+         */
+        private boolean ordered = true;
+
+        StateRecorder(DefaultJob job) {
+            states.add(job.getState());
+            EventBus eventBus = new EventBus();
+            eventBus.register(this);
+            job.setEventBus(eventBus);
+        }
+
+        @Subscribe
+        public synchronized void onStateChanged(JobStateChangedEvent event) {
+            ordered &= states.get(states.size() - 1) == event.getOldState();
+            states.add(event.getNewState());
+        }
+
+        synchronized boolean isOrdered() {
+            return ordered;
+        }
+
+        synchronized List<Integer> getStates() {
+            return new ArrayList<>(states);
+        }
+    }
 }
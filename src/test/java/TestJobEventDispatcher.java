@@ -0,0 +1,254 @@
+import stes.isami.core.JobEventDispatcher;
+import stes.isami.core.JobEventFilter;
+import stes.isami.core.JobListener;
+import stes.isami.core.job.JobEvent;
+import stes.isami.core.job.JobState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the asynchronous dispatch of the job events
+ */
+public class TestJobEventDispatcher {
+
+    private JobEventDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        dispatcher = new JobEventDispatcher(4, 64);
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testOrderPerJob() throws InterruptedException {
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            ids.add(UUID.randomUUID());
+        }
+
+        int eventsPerJob = 500;
+        CountDownLatch latch = new CountDownLatch(ids.size() * eventsPerJob);
+        Map<UUID, List<JobEvent.JobEventType>> received = new ConcurrentHashMap<>();
+        dispatcher.addListener(event -> {
+            received.computeIfAbsent(event.getId(), k -> Collections.synchronizedList(new ArrayList<>())).add(event.getEventType());
+            latch.countDown();
+        });
+
+        // each job gets CREATE, then UPDATEs, then DELETE, from its own thread
+        List<Thread> threads = new ArrayList<>();
+        for (UUID id: ids) {
+            Thread thread = new Thread(() -> {
+                dispatcher.dispatch(new JobEvent(id, JobEvent.JobEventType.CREATE));
+                for (int i = 0; i < eventsPerJob - 2; i++) {
+                    dispatcher.dispatch(new JobEvent(id, JobEvent.JobEventType.UPDATE));
+                }
+                dispatcher.dispatch(new JobEvent(id, JobEvent.JobEventType.DELETE));
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (UUID id: ids) {
+            List<JobEvent.JobEventType> types = received.get(id);
+            assertEquals(eventsPerJob, types.size());
+            assertEquals(JobEvent.JobEventType.CREATE, types.get(0));
+            assertEquals(JobEvent.JobEventType.DELETE, types.get(eventsPerJob - 1));
+        }
+        assertEquals(0, dispatcher.getQueueDepth());
+        assertEquals(ids.size() * eventsPerJob, dispatcher.getDeliveredCount());
+    }
+
+    @Test
+    public void testBatch() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger largestBatch = new AtomicInteger();
+        Set<UUID> received = ConcurrentHashMap.newKeySet();
+        dispatcher.addListener(new JobListener() {
+            @Override
+            public void onJobEvent(JobEvent event) {
+            }
+
+            @Override
+            public void onJobEvents(List<JobEvent> events) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                largestBatch.accumulateAndGet(events.size(), Math::max);
+                for (JobEvent event: events) {
+                    received.addAll(event.getIds());
+                }
+            }
+        });
+
+        UUID id = UUID.randomUUID();
+        dispatcher.dispatch(new JobEvent(id, JobEvent.JobEventType.CREATE));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            dispatcher.dispatch(new JobEvent(id, JobEvent.JobEventType.UPDATE));
+        }
+        assertEquals(10, dispatcher.getQueueDepth());
+
+        // a bulk event is split by lane
+        List<UUID> bulkIDs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            bulkIDs.add(UUID.randomUUID());
+        }
+        dispatcher.dispatch(new JobEvent(bulkIDs, JobEvent.JobEventType.STATE_CHANGED));
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.size() < bulkIDs.size() + 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(bulkIDs.size() + 1, received.size());
+        assertTrue(largestBatch.get() >= 10);
+    }
+
+    @Test
+    public void testFilter() throws InterruptedException {
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(UUID.randomUUID());
+        }
+        List<UUID> watchedIDs = ids.subList(0, 3);
+
+        List<JobEvent> jobEvents = Collections.synchronizedList(new ArrayList<>());
+        List<JobEvent> createEvents = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(1);
+        dispatcher.addListener(jobEvents::add, new JobEventFilter().jobs(watchedIDs).types(JobEvent.JobEventType.STATE_CHANGED));
+        dispatcher.addListener(createEvents::add, new JobEventFilter().types(JobEvent.JobEventType.CREATE));
+        dispatcher.addListener(event -> latch.countDown(), new JobEventFilter().jobs(Collections.singletonList(ids.get(99))));
+
+        dispatcher.dispatch(new JobEvent(ids, JobEvent.JobEventType.CREATE));
+        for (UUID id: ids) {
+            dispatcher.dispatch(new JobEvent(id, JobEvent.JobEventType.UPDATE));
+            dispatcher.dispatch(new JobEvent(id, JobEvent.JobEventType.STATE_CHANGED));
+        }
+        dispatcher.dispatch(new JobEvent(ids, JobEvent.JobEventType.STATE_CHANGED));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        while (dispatcher.getQueueDepth() > 0) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+
+        Set<UUID> createdIDs = new HashSet<>();
+        for (JobEvent event: createEvents) {
+            createdIDs.addAll(event.getIds());
+        }
+        assertEquals(new HashSet<>(ids), createdIDs);
+
+        // one event per watched job, then the bulk event restricted to the watched jobs
+        int bulkCount = 0;
+        Set<UUID> changedIDs = new HashSet<>();
+        for (JobEvent event: jobEvents) {
+            assertEquals(JobEvent.JobEventType.STATE_CHANGED, event.getEventType());
+            assertTrue(watchedIDs.containsAll(event.getIds()));
+            if (event.getId() == null) {
+                bulkCount += event.getIds().size();
+            }
+            else {
+                changedIDs.add(event.getId());
+            }
+        }
+        assertEquals(new HashSet<>(watchedIDs), changedIDs);
+        assertEquals(3, bulkCount);
+
+        // state filter: the job of a bulk event is looked up
+        List<JobEvent> finishedEvents = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.addListener(finishedEvents::add, new JobEventFilter().states(JobState.FINISHED));
+        dispatcher.dispatch(new JobEvent(ids, JobEvent.JobEventType.STATE_CHANGED));
+        while (dispatcher.getQueueDepth() > 0) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertTrue(finishedEvents.isEmpty());
+    }
+
+    @Test
+    public void testReplay() throws InterruptedException {
+        JobEventDispatcher replayDispatcher = new JobEventDispatcher(2, 64, 1 << 16);
+        try {
+            List<UUID> ids = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                ids.add(UUID.randomUUID());
+                replayDispatcher.dispatch(new JobEvent(ids.get(i), JobEvent.JobEventType.CREATE));
+            }
+
+            // the listener attaches after the fifth event
+            List<JobEvent> received = Collections.synchronizedList(new ArrayList<>());
+            assertTrue(replayDispatcher.addListener(received::add, null, 5));
+            replayDispatcher.dispatch(new JobEvent(ids.get(0), JobEvent.JobEventType.DELETE));
+            while (replayDispatcher.getQueueDepth() > 0) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(50);
+
+            assertEquals(6, received.size());
+            assertEquals(ids.get(5), received.get(0).getId());
+            assertEquals(5, received.get(0).getSequence());
+            assertEquals(10, received.get(5).getSequence());
+            assertEquals(11, replayDispatcher.getNextSequence());
+        } finally {
+            replayDispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutdownWithFullRing() throws InterruptedException {
+        JobEventDispatcher smallDispatcher = new JobEventDispatcher(1, 4);
+        CountDownLatch delivering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        smallDispatcher.addListener(event -> {
+            delivering.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        try {
+            // the lane is blocked in the listener and its ring is full
+            smallDispatcher.dispatch(new JobEvent(UUID.randomUUID(), JobEvent.JobEventType.CREATE));
+            assertTrue(delivering.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 4; i++) {
+                smallDispatcher.dispatch(new JobEvent(UUID.randomUUID(), JobEvent.JobEventType.CREATE));
+            }
+
+            Thread producer = new Thread(() -> smallDispatcher.dispatch(new JobEvent(UUID.randomUUID(), JobEvent.JobEventType.CREATE)));
+            producer.start();
+            producer.join(100);
+            assertTrue(producer.isAlive());
+
+            smallDispatcher.shutdown();
+            producer.join(10000);
+            assertFalse(producer.isAlive());
+        } finally {
+            release.countDown();
+            smallDispatcher.shutdown();
+        }
+    }
+}
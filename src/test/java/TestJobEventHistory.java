@@ -0,0 +1,60 @@
+import stes.isami.core.JobEventHistory;
+import stes.isami.core.job.JobEvent;
+import stes.isami.core.job.JobState;
+import stes.isami.core.job.JobStateChangedEvent;
+import stes.isami.core.job.ParameterUpdatedEvent;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the history of the job events
+ */
+public class TestJobEventHistory {
+
+    @Test
+    public void testRead() {
+        JobEventHistory history = new JobEventHistory(4096);
+        UUID id = UUID.randomUUID();
+        List<UUID> ids = Arrays.asList(id, UUID.randomUUID());
+
+        assertEquals(0, history.record(new JobEvent(ids, JobEvent.JobEventType.CREATE)));
+        assertEquals(1, history.record(new JobStateChangedEvent(id, JobState.SUBMITTED, JobState.RUN)));
+        assertEquals(2, history.record(new ParameterUpdatedEvent(id, "batchID", "4242")));
+
+        List<JobEvent> events = history.read(1);
+        assertEquals(2, events.size());
+        assertEquals(1, events.get(0).getSequence());
+        assertEquals(JobState.SUBMITTED, events.get(0).getOldState());
+        assertEquals(JobState.RUN, events.get(0).getNewState());
+        assertEquals(id, events.get(1).getId());
+        assertEquals("4242", events.get(1).getChangedValues().get("batchID"));
+        assertTrue(events.get(1).hasDelta());
+
+        JobEvent createEvent = history.read(0).get(0);
+        assertEquals(JobEvent.JobEventType.CREATE, createEvent.getEventType());
+        assertEquals(ids, createEvent.getIds());
+        assertTrue(history.read(3).isEmpty());
+    }
+
+    @Test
+    public void testEviction() {
+        JobEventHistory history = new JobEventHistory(1024);
+        UUID id = UUID.randomUUID();
+        for (int i = 0; i < 1000; i++) {
+            history.record(new ParameterUpdatedEvent(id, "value", i));
+        }
+
+        assertTrue(history.getSize() <= 1024);
+        assertTrue(history.getFirstSequence() > 0);
+        assertNull(history.read(history.getFirstSequence() - 1));
+
+        List<JobEvent> events = history.read(history.getFirstSequence());
+        assertEquals(history.getNextSequence() - history.getFirstSequence(), events.size());
+        assertEquals(999, ((ParameterUpdatedEvent) events.get(events.size() - 1)).getValues().get("value"));
+    }
+}
@@ -0,0 +1,153 @@
+import stes.isami.core.JobEventDispatcher;
+import stes.isami.core.JobEventPublisher;
+import stes.isami.core.JobEventSubscription;
+import stes.isami.core.flow.Flow;
+import stes.isami.core.job.JobEvent;
+import stes.isami.core.job.ParameterUpdatedEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the stream of the job events
+ */
+public class TestJobEventPublisher {
+
+    private JobEventDispatcher dispatcher;
+    private JobEventPublisher publisher;
+
+    @Before
+    public void setUp() {
+        dispatcher = new JobEventDispatcher(2, 1024);
+        publisher = new JobEventPublisher(dispatcher);
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testBackpressure() throws InterruptedException {
+        TestSubscriber subscriber = new TestSubscriber();
+        JobEventSubscription subscription = publisher.subscribe(subscriber, null, 10, JobEventSubscription.OverflowPolicy.DROP_OLDEST);
+
+        UUID id = UUID.randomUUID();
+        for (int i = 0; i < 100; i++) {
+            dispatcher.dispatch(new JobEvent(id, JobEvent.JobEventType.STATE_CHANGED));
+        }
+        waitForDispatcher();
+        assertTrue(subscriber.events.isEmpty());
+        assertEquals(10, subscription.getBufferedCount());
+        assertEquals(90, subscription.getDroppedCount());
+
+        subscriber.request(3, 3);
+        assertEquals(3, subscriber.events.size());
+        // the newest events are kept
+        assertEquals(90, subscriber.events.get(0).getSequence());
+
+        publisher.close();
+        subscriber.request(Long.MAX_VALUE, 7);
+        assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, publisher.getSubscriberCount());
+    }
+
+    @Test
+    public void testCoalesce() throws InterruptedException {
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber, null, 10, JobEventSubscription.OverflowPolicy.COALESCE);
+
+        UUID id = UUID.randomUUID();
+        for (int i = 0; i < 100; i++) {
+            dispatcher.dispatch(new ParameterUpdatedEvent(id, "value", i));
+        }
+        dispatcher.dispatch(new JobEvent(id, JobEvent.JobEventType.STATE_CHANGED));
+        waitForDispatcher();
+
+        subscriber.request(10, 2);
+        assertEquals(2, subscriber.events.size());
+        assertEquals(99, ((ParameterUpdatedEvent) subscriber.events.get(0)).getValues().get("value"));
+        assertEquals(JobEvent.JobEventType.STATE_CHANGED, subscriber.events.get(1).getEventType());
+    }
+
+    @Test
+    public void testCoalesceMultiJobUpdate() throws InterruptedException {
+        JobEventDispatcher singleLaneDispatcher = new JobEventDispatcher(1, 1024);
+        JobEventPublisher singleLanePublisher = new JobEventPublisher(singleLaneDispatcher);
+        try {
+            TestSubscriber subscriber = new TestSubscriber();
+            singleLanePublisher.subscribe(subscriber, null, 10, JobEventSubscription.OverflowPolicy.COALESCE);
+
+            UUID id = UUID.randomUUID();
+            UUID otherId = UUID.randomUUID();
+            singleLaneDispatcher.dispatch(new JobEvent(Arrays.asList(id, otherId), JobEvent.JobEventType.UPDATE));
+            singleLaneDispatcher.dispatch(new ParameterUpdatedEvent(id, "value", 1));
+            singleLaneDispatcher.dispatch(new ParameterUpdatedEvent(id, "value", 2));
+            waitForDispatcher(singleLaneDispatcher);
+
+            // the update of both jobs is not merged with the updates of one job
+            subscriber.request(10, 2);
+            assertEquals(2, subscriber.events.size());
+            assertEquals(Arrays.asList(id, otherId), subscriber.events.get(0).getIds());
+            assertEquals(2, ((ParameterUpdatedEvent) subscriber.events.get(1)).getValues().get("value"));
+        } finally {
+            singleLaneDispatcher.shutdown();
+        }
+    }
+
+    private void waitForDispatcher() throws InterruptedException {
+        waitForDispatcher(dispatcher);
+    }
+
+    private static void waitForDispatcher(JobEventDispatcher dispatcher) throws InterruptedException {
+        while (dispatcher.getQueueDepth() > 0) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+    }
+
+    private static class TestSubscriber implements Flow.Subscriber<JobEvent> {
+
+        private final List<JobEvent> events = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(JobEvent item) {
+            events.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+
+        /**
+         * Request events and wait until the expected number has been received
+         */
+        void request(long n, int expected) throws InterruptedException {
+            int count = events.size() + expected;
+            subscription.request(n);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (events.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+    }
+}
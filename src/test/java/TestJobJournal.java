@@ -0,0 +1,151 @@
+import stes.isami.core.job.DefaultJob;
+import stes.isami.core.job.JobState;
+import stes.isami.core.journal.ArchivedJob;
+import stes.isami.core.journal.JobArchive;
+import stes.isami.core.journal.JobJournal;
+import stes.isami.core.journal.RecoveredJob;
+import stes.isami.core.modules.Module;
+import stes.isami.core.parameters.ParameterSet;
+import stes.isami.core.parameters.parametertypes.StringParameter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the journal of the jobs
+ */
+public class TestJobJournal {
+
+    private Path directory;
+    private Path crashDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal");
+        crashDirectory = Files.createTempDirectory("journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        delete(directory);
+        delete(crashDirectory);
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        DefaultJob job = createJob("job1");
+        DefaultJob deletedJob = createJob("job2");
+
+        JobJournal journal = JobJournal.open(directory);
+        journal.jobCreated(job);
+        journal.jobCreated(deletedJob);
+        journal.stateChanged(job.getID(), JobState.SUBMITTING);
+        journal.parameterUpdated(job.getID(), Collections.singletonMap("batchID", "4242"));
+        journal.stateChanged(job.getID(), JobState.SUBMITTED);
+        journal.stateChanged(job.getID(), JobState.RUN);
+        journal.jobDeleted(deletedJob.getID());
+
+        // crash: the files are copied as they are before the journal is closed, which writes a snapshot
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            for (Path path: paths) {
+                Files.copy(path, crashDirectory.resolve(path.getFileName()));
+            }
+        }
+        journal.close();
+
+        JobJournal recoveredJournal = JobJournal.open(crashDirectory);
+        List<RecoveredJob> recoveredJobs = recoveredJournal.getRecoveredJobs();
+        recoveredJournal.close();
+        assertEquals(1, recoveredJobs.size());
+        RecoveredJob recoveredJob = recoveredJobs.get(0);
+        assertEquals(job.getID(), recoveredJob.getId());
+        assertEquals("job1", recoveredJob.getName());
+        assertEquals(DefaultJob.class.getName(), recoveredJob.getJobClass());
+        assertEquals(JobState.RUN, recoveredJob.getRecoveryState());
+        assertEquals("4242", recoveredJob.getBatchID());
+
+        DefaultJob restoredJob = createJob("job1");
+        restoredJob.restore(recoveredJob.getId(), recoveredJob.getValues(), recoveredJob.getRecoveryState());
+        assertEquals(job.getID(), restoredJob.getID());
+        assertEquals(JobState.RUN, restoredJob.getState());
+        assertEquals("4242", restoredJob.getBatchID());
+        assertTrue(restoredJob.isSubmitted());
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        JobJournal journal = JobJournal.open(directory);
+        journal.setSnapshotInterval(10);
+
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            DefaultJob job = createJob("job" + i);
+            ids.add(job.getID());
+            journal.jobCreated(job);
+        }
+        assertEquals(5, journal.getRecordCount());
+        journal.stateChanged(ids.get(0), JobState.PREPROCESSING);
+        journal.close();
+        assertTrue(Files.exists(directory.resolve("jobs.snapshot")));
+
+        journal = JobJournal.open(directory);
+        List<RecoveredJob> recoveredJobs = journal.getRecoveredJobs();
+        assertEquals(25, recoveredJobs.size());
+        assertEquals(ids.get(24), recoveredJobs.get(24).getId());
+        assertEquals(JobState.PREPROCESSING, recoveredJobs.get(0).getState());
+        assertEquals(JobState.READY, recoveredJobs.get(0).getRecoveryState());
+        journal.close();
+    }
+
+    @Test
+    public void testArchive() throws IOException {
+        JobArchive archive = JobArchive.open(directory);
+        DefaultJob job = createJob("job1");
+        job.restore(job.getID(), Collections.singletonMap("batchID", "4242"), JobState.FINISHED);
+        DefaultJob otherJob = createJob("job2");
+
+        ArchivedJob archivedJob = archive.write(job);
+        ArchivedJob otherArchivedJob = archive.write(otherJob);
+        assertEquals("job1", archivedJob.getName());
+        assertEquals("4242", archivedJob.getBatchID());
+        assertEquals(JobState.FINISHED, archivedJob.getState());
+        assertNull(otherArchivedJob.getBatchID());
+
+        RecoveredJob recoveredJob = archive.read(otherArchivedJob);
+        assertEquals(otherJob.getID(), recoveredJob.getId());
+        assertEquals("job2", recoveredJob.getName());
+
+        recoveredJob = archive.read(archivedJob);
+        DefaultJob reloadedJob = createJob("job1");
+        reloadedJob.restore(recoveredJob.getId(), recoveredJob.getValues(), recoveredJob.getState());
+        assertEquals(job.getID(), reloadedJob.getID());
+        assertEquals(JobState.FINISHED, reloadedJob.getState());
+        assertEquals("4242", reloadedJob.getBatchID());
+        archive.close();
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            for (Path path: paths) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private DefaultJob createJob(String name) {
+        ParameterSet parameters = new ParameterSet();
+        parameters.addParameter(new StringParameter("name", "name", "internal", name));
+        return new DefaultJob(parameters, new HashMap<Integer, Module>());
+    }
+}
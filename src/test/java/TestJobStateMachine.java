@@ -0,0 +1,162 @@
+import stes.isami.core.job.*;
+import stes.isami.core.modules.Module;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the table-driven state machine of the jobs
+ */
+public class TestJobStateMachine {
+
+    private final AtomicInteger runEntries = new AtomicInteger();
+
+    private final JobStateMachine<JobFixture> machine = JobStateMachine.<JobFixture>builder()
+            .configure(JobState.SUBMITTED)
+                .permit(Trigger.evRunning, JobState.RUN)
+                .permit(Trigger.doStop, JobState.STOP)
+            .configure(JobState.RUN)
+                .onEntry((job, oldState, newState) -> runEntries.incrementAndGet())
+                .ignore(Trigger.evRunning)
+                .permit(Trigger.evWaiting, JobState.WAITING)
+                .permit(Trigger.doStop, JobState.STOP)
+            .configure(JobState.WAITING)
+                .permit(Trigger.evRunning, JobState.RUN)
+            .build();
+
+    @Test
+    public void testTransitions() {
+        JobFixture job = new JobFixture(machine, JobState.SUBMITTED);
+
+        assertTrue(machine.fire(job, Trigger.evRunning));
+        assertEquals(JobState.RUN, job.getState());
+        assertFalse(machine.fire(job, Trigger.evRunning));
+        assertEquals(JobState.RUN, job.getState());
+        assertEquals(1, runEntries.get());
+
+        job.fireTrigger(Trigger.evWaiting);
+        job.fireTrigger(Trigger.evRunning);
+        assertEquals(JobState.RUN, job.getState());
+        assertEquals(2, runEntries.get());
+
+        assertEquals(JobState.STOP, machine.getNextState(JobState.RUN, Trigger.doStop));
+        assertEquals(JobState.RUN, machine.getNextState(JobState.RUN, Trigger.evRunning));
+        assertEquals(-1, machine.getNextState(JobState.STOP, Trigger.evRunning));
+        assertEquals(Arrays.asList(Trigger.doStop, Trigger.evRunning), machine.getPermittedTriggers(JobState.SUBMITTED));
+    }
+
+    @Test
+    public void testRejectedTriggers() {
+        JobFixture job = new JobFixture(machine, JobState.WAITING);
+
+        assertFalse(machine.fire(job, Trigger.doStop));
+        assertFalse(machine.fire(job, 4242));
+        assertFalse(machine.canFire(JobState.WAITING, Trigger.doStop));
+        assertEquals(JobState.WAITING, job.getState());
+
+        // error and hold are not permitted in SUBMITTED
+        DefaultJob defaultJob = new DefaultJob(JobFixture.createParameters(), new HashMap<Integer, Module>());
+        defaultJob.restore(defaultJob.getID(), Collections.emptyMap(), JobState.SUBMITTED);
+        defaultJob.fireTrigger(Trigger.evError);
+        defaultJob.fireTrigger(Trigger.evHold);
+        assertEquals(JobState.SUBMITTED, defaultJob.getState());
+
+        defaultJob.fireTrigger(Trigger.evRunning);
+        assertEquals(JobState.RUN, defaultJob.getState());
+    }
+
+    @Test
+    public void testConcurrentTriggers() throws InterruptedException {
+        int threadCount = 8;
+        for (int round = 0; round < 100; round++) {
+            JobFixture job = new JobFixture(machine, JobState.SUBMITTED);
+            AtomicInteger transitions = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                int trigger = i % 2 == 0 ? Trigger.evRunning : Trigger.doStop;
+                Thread t = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (machine.fire(job, trigger)) {
+                        transitions.incrementAndGet();
+                    }
+                });
+                t.start();
+                threads.add(t);
+            }
+
+            runEntries.set(0);
+            start.countDown();
+            for (Thread t: threads) {
+                t.join();
+            }
+
+            // SUBMITTED -> RUN -> STOP or SUBMITTED -> STOP
+            assertEquals(JobState.STOP, job.getState());
+            assertEquals(runEntries.get() + 1, transitions.get());
+            assertTrue(runEntries.get() <= 1);
+        }
+    }
+
+    @Test
+    public void testEntryOrder() throws InterruptedException {
+        List<int[]> entries = new ArrayList<>();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        JobStateMachine.EntryAction<JobFixture> record = (job, oldState, newState) -> {
+            if (running.incrementAndGet() > 1) {
+                overlaps.incrementAndGet();
+            }
+            entries.add(new int[] {oldState, newState});
+            Thread.yield();
+            running.decrementAndGet();
+        };
+        JobStateMachine<JobFixture> cycle = JobStateMachine.<JobFixture>builder()
+                .configure(JobState.RUN)
+                    .onEntry(record)
+                    .permit(Trigger.evWaiting, JobState.WAITING)
+                .configure(JobState.WAITING)
+                    .onEntry(record)
+                    .permit(Trigger.evRunning, JobState.RUN)
+                .build();
+
+        JobFixture job = new JobFixture(cycle, JobState.RUN);
+        AtomicInteger transitions = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread t = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    if (cycle.fire(job, j % 2 == 0 ? Trigger.evWaiting : Trigger.evRunning)) {
+                        transitions.incrementAndGet();
+                    }
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        for (Thread t: threads) {
+            t.join();
+        }
+
+        // the entry actions have run one at a time, in the order of the transitions
+        assertEquals(0, overlaps.get());
+        assertEquals(transitions.get(), entries.size());
+        int state = JobState.RUN;
+        for (int[] entry: entries) {
+            assertEquals(state, entry[0]);
+            state = entry[1];
+        }
+        assertEquals(job.getState(), state);
+    }
+}
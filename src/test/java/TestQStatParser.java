@@ -0,0 +1,86 @@
+import stes.isami.core.modules.qstat.QStatParser;
+import stes.isami.core.modules.qstat.QStatRecord;
+import stes.isami.core.modules.qstat.QStatXmlParser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the qstat parsers
+ */
+public class TestQStatParser {
+
+    @Test
+    public void testParse() {
+        String qstatOutput = "job-ID  prior   name       user         state submit/start at     queue                          slots ja-task-ID \n" +
+                "-----------------------------------------------------------------------------------------------------------------\n" +
+                " 938880 0.60000 LR-54-51-5 xizac        r     04/25/2017 13:05:47 isami_noon.q@aec-afr-cal-05        1      \r\n" +
+                " 938881 0.50000 LR-54-51-6 xizac        qw    04/25/2017 13:05:50                                    1      \n" +
+                " 9388800 0.50000 938880 xizac        Eqw    04/25/2017 13:05:50                                    1";
+
+        Map<String, QStatRecord> records = QStatParser.parse(qstatOutput);
+
+        assertEquals(3, records.size());
+        assertEquals("r", records.get("938880").getState());
+        assertEquals("isami_noon.q@aec-afr-cal-05", records.get("938880").getQueue());
+        assertEquals(1, records.get("938880").getSlots());
+        assertTrue(records.get("938880").getStartTime() > 0);
+        assertEquals("qw", records.get("938881").getState());
+        assertEquals("", records.get("938881").getQueue());
+        assertEquals(1, records.get("938881").getSlots());
+        assertTrue(records.get("938881").getSubmitTime() > 0);
+        assertEquals("Eqw", records.get("9388800").getState());
+        assertFalse(records.containsKey("job-ID"));
+    }
+
+    @Test
+    public void testParseXml() throws IOException {
+        String qstatOutput = "<?xml version='1.0'?>\n" +
+                "<job_info  xmlns:xsd=\"http://gridengine.sunsource.net/source/browse/*checkout*/gridengine/source/dist/util/resources/schemas/qstat/qstat.xsd?revision=1.11\">\n" +
+                "  <queue_info>\n" +
+                "    <job_list state=\"running\">\n" +
+                "      <JB_job_number>938880</JB_job_number>\n" +
+                "      <JAT_prio>0.60000</JAT_prio>\n" +
+                "      <JB_name>LR-54-51-5</JB_name>\n" +
+                "      <JB_owner>xizac</JB_owner>\n" +
+                "      <state>r</state>\n" +
+                "      <JAT_start_time>2017-04-25T13:05:47</JAT_start_time>\n" +
+                "      <queue_name>isami_noon.q@aec-afr-cal-05</queue_name>\n" +
+                "      <slots>4</slots>\n" +
+                "    </job_list>\n" +
+                "  </queue_info>\n" +
+                "  <job_info>\n" +
+                "    <job_list state=\"pending\">\n" +
+                "      <JB_job_number>938881</JB_job_number>\n" +
+                "      <JB_name>938880</JB_name>\n" +
+                "      <state>qw</state>\n" +
+                "      <JB_submission_time>2017-04-25T13:05:50</JB_submission_time>\n" +
+                "      <queue_name></queue_name>\n" +
+                "      <slots>1</slots>\n" +
+                "    </job_list>\n" +
+                "  </job_info>\n" +
+                "</job_info>\n";
+
+        Map<String, QStatRecord> records = QStatXmlParser.parse(new StringReader(qstatOutput));
+
+        assertEquals(2, records.size());
+        QStatRecord running = records.get("938880");
+        assertEquals("r", running.getState());
+        assertEquals("isami_noon.q@aec-afr-cal-05", running.getQueue());
+        assertEquals(4, running.getSlots());
+        assertEquals(0, running.getSubmitTime());
+        assertTrue(running.getStartTime() > 0);
+
+        QStatRecord pending = records.get("938881");
+        assertEquals("qw", pending.getState());
+        assertEquals("", pending.getQueue());
+        assertEquals(1, pending.getSlots());
+        assertEquals(running.getStartTime() + 3000, pending.getSubmitTime());
+    }
+}
@@ -0,0 +1,41 @@
+import stes.isami.core.QStatPollingPolicy;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test the adaptive qstat interval
+ */
+public class TestQStatPollingPolicy {
+
+    @Test
+    public void testBackoff() {
+        QStatPollingPolicy policy = new QStatPollingPolicy(1000, 4000, 20000);
+        policy.setJitter(0);
+        policy.setRecentChangeWindow(0);
+        policy.setBackoff(2);
+
+        assertEquals(2000, policy.nextInterval(5, false, 10));
+        assertEquals(4000, policy.nextInterval(5, false, 10));
+        // few jobs: bounded by the few jobs interval
+        assertEquals(4000, policy.nextInterval(5, false, 10));
+        // many jobs: grows up to the max interval
+        assertEquals(8000, policy.nextInterval(100, false, 10));
+        assertEquals(16000, policy.nextInterval(100, false, 10));
+        assertEquals(20000, policy.nextInterval(100, false, 10));
+
+        assertEquals(1000, policy.reset());
+    }
+
+    @Test
+    public void testChangeAndCost() {
+        QStatPollingPolicy policy = new QStatPollingPolicy(1000, 4000, 20000);
+        policy.setJitter(0);
+
+        assertEquals(1000, policy.nextInterval(100, true, 10));
+        // recent change keeps the minimum interval
+        assertEquals(1000, policy.nextInterval(100, false, 10));
+        // slow call: the interval is at least 10 times the call
+        assertEquals(5000, policy.nextInterval(100, false, 500));
+    }
+}
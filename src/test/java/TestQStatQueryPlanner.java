@@ -0,0 +1,53 @@
+import stes.isami.core.QStatQueryPlanner;
+import stes.isami.core.modules.qstat.QStatScope;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test the choice of the qstat scope
+ */
+public class TestQStatQueryPlanner {
+
+    @Test
+    public void testPlan() {
+        QStatQueryPlanner planner = new QStatQueryPlanner();
+        List<String> batchIDs = Arrays.asList("938880", "938881");
+
+        // no measure of the user query yet
+        assertEquals(QStatScope.Type.USER, planner.plan(batchIDs).getType());
+        planner.record(QStatScope.user(), 100000, 800);
+
+        QStatScope scope = planner.plan(batchIDs);
+        assertEquals(QStatScope.Type.JOBS, scope.getType());
+        assertEquals("qstat_output=$(qstat -u 'xizac') && printf '%s\\n' \"$qstat_output\" | awk '$1 ~ /^(938880|938881)$/'",
+                scope.buildCommand("qstat", "xizac"));
+
+        planner.record(scope, 240, 2);
+        assertEquals(100000 - 240, planner.getLastBytesSaved());
+        assertEquals(798, planner.getLastLinesSaved());
+
+        // the xml user query is compared in text size: 800 lines of 120 characters
+        planner = new QStatQueryPlanner();
+        planner.record(QStatScope.user(), 1000000, 800, true);
+        scope = planner.plan(batchIDs);
+        assertEquals(QStatScope.Type.JOBS, scope.getType());
+        planner.record(scope, 240, 2);
+        assertEquals(800 * 120 - 240, planner.getLastBytesSaved());
+
+        // the user query is small
+        planner = new QStatQueryPlanner();
+        planner.record(QStatScope.user(), 300, 2);
+        assertEquals(QStatScope.Type.USER, planner.plan(batchIDs).getType());
+        assertEquals(QStatScope.Type.USER, planner.plan(Collections.emptyList()).getType());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBatchID() {
+        QStatScope.jobs(Collections.singletonList("1; rm -rf"));
+    }
+}
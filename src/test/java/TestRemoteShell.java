@@ -0,0 +1,121 @@
+import stes.isami.core.ssh.CommandNotSentException;
+import stes.isami.core.ssh.CommandResult;
+import stes.isami.core.ssh.RemoteShell;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the sentinel protocol of the persistent shell against a local sh
+ */
+public class TestRemoteShell {
+
+    private Process process;
+    private RemoteShell shell;
+
+    @Before
+    public void setUp() throws IOException {
+        process = new ProcessBuilder("/bin/sh").start();
+        shell = new RemoteShell(process.getInputStream(), process.getErrorStream(), process.getOutputStream(),
+                process::destroy, 1024) {};
+    }
+
+    @After
+    public void tearDown() {
+        shell.close();
+    }
+
+    @Test
+    public void testExitCodeAndOutput() throws Exception {
+        CommandResult ok = shell.execute("echo hello; echo world");
+        assertEquals(0, ok.getExitCode());
+        assertEquals("hello\nworld\n", ok.getOutput().getText());
+
+        CommandResult error = shell.execute("echo partial; ls /does/not/exist");
+        assertTrue(error.getExitCode() != 0);
+        assertEquals("partial\n", error.getOutput().getText());
+        assertTrue(error.getErrorOutput().contains("/does/not/exist"));
+    }
+
+    @Test
+    public void testPipelinedCommands() throws Exception {
+        List<CompletableFuture<CommandResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(shell.submit("printf " + i + "; exit_code=" + (i % 3) + "; (exit $exit_code)"));
+        }
+
+        for (int i = 0; i < 50; i++) {
+            CommandResult result = futures.get(i).get();
+            assertEquals(String.valueOf(i), result.getOutput().getText());
+            assertEquals(i % 3, result.getExitCode());
+        }
+    }
+
+    @Test
+    public void testFailureAfterWrite() throws Exception {
+        // the shell is killed while running the command: the command has been sent
+        try {
+            shell.execute("echo started; kill -9 $$");
+            fail("The shell has exited");
+        } catch (IOException e) {
+            assertFalse(e instanceof CommandNotSentException);
+        }
+        assertTrue(shell.isClosed());
+
+        // the shell is closed before the command is written
+        try {
+            shell.execute("echo again");
+            fail("The shell is closed");
+        } catch (CommandNotSentException e) {
+            assertTrue(shell.isClosed());
+        }
+    }
+
+    @Test
+    public void testIsolatedCommands() throws Exception {
+        // a command does not change the shell of the next commands
+        assertEquals(3, shell.execute("cd /; export SHELL_TEST=set; exit 3").getExitCode());
+        assertFalse(shell.isClosed());
+
+        CommandResult result = shell.execute("pwd; echo \"[$SHELL_TEST]\"");
+        assertEquals(0, result.getExitCode());
+        assertEquals(new File(".").getCanonicalPath() + "\n[]\n", result.getOutput().getText());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        CompletableFuture<CommandResult> next = shell.submit("echo next");
+        shell.submit("sleep 10");
+        CompletableFuture<CommandResult> queued = shell.submit("echo queued");
+
+        assertEquals("next\n", next.get().getOutput().getText());
+        try {
+            shell.execute("echo late", 200, TimeUnit.MILLISECONDS);
+            fail("The command has timed out");
+        } catch (IOException e) {
+            assertFalse(e instanceof CommandNotSentException);
+        }
+
+        // the shell is discarded and the commands behind the hung one fail
+        assertTrue(shell.isClosed());
+        assertTrue(queued.isCompletedExceptionally());
+        try {
+            shell.execute("echo again");
+            fail("The shell is closed");
+        } catch (CommandNotSentException e) {
+            assertTrue(shell.isClosed());
+        }
+    }
+}
@@ -0,0 +1,203 @@
+import stes.isami.core.job.DefaultJob;
+import stes.isami.core.job.JobState;
+import stes.isami.core.job.QDelBatch;
+import stes.isami.core.modules.MethodResult;
+import stes.isami.core.modules.Module;
+import stes.isami.core.modules.ModuleException;
+import stes.isami.core.modules.qdel.QDelModule;
+import stes.isami.core.modules.qstat.QStatMethod;
+import stes.isami.core.modules.qstat.QStatMethodResult;
+import stes.isami.core.modules.qstat.QStatRecord;
+import stes.isami.core.modules.qstat.QStatScope;
+import stes.isami.core.parameters.ParameterSet;
+import stes.isami.core.parameters.parametertypes.StringParameter;
+import stes.isami.core.sim.SimulatedBatchSystem;
+import stes.isami.core.sim.SimulationProfile;
+import stes.isami.core.sim.SimulationStats;
+import stes.isami.core.sim.VirtualClock;
+import stes.isami.core.ssh.BackendSshClient;
+import stes.isami.core.ssh.CommandResult;
+import stes.isami.core.ssh.SshRemoteFactory;
+import com.sshtools.ssh.SshClient;
+import com.sshtools.ssh.SshException;
+import com.sshtools.ssh.SshSession;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the in-process batch system
+ */
+public class TestSimulatedBatchSystem {
+
+    private VirtualClock clock;
+    private SimulationProfile profile;
+
+    @Before
+    public void setUp() {
+        clock = new VirtualClock(0);
+        profile = new SimulationProfile();
+        profile.setCommandLatency(0);
+        profile.setQstatLatencyPerJob(0);
+        profile.setQueueWait(1000, 1000);
+        profile.setRunTime(10000, 10000);
+    }
+
+    @Test
+    public void testJobLifecycle() throws IOException {
+        SimulatedBatchSystem batchSystem = new SimulatedBatchSystem(profile, clock, "xizac");
+        batchSystem.addForeignJobs(5);
+        SshClient client = BackendSshClient.create(batchSystem, "xizac");
+
+        CommandResult result = batchSystem.execute("cd /tmp; qsub -N LR-54-51-5 -terse run.sh");
+        String batchID = result.getOutput().getText().trim();
+        assertEquals(0, result.getExitCode());
+        assertEquals("qw", batchSystem.getState(batchID));
+
+        clock.advance(1000);
+        Map<String, QStatRecord> records = qstat(client, true, QStatScope.user());
+        assertEquals(1, records.size());
+        assertEquals("r", records.get(batchID).getState());
+        assertEquals(clock.millis() / 1000 * 1000, records.get(batchID).getStartTime());
+
+        assertEquals(6, qstat(client, false, QStatScope.all()).size());
+        assertEquals(Collections.singleton(batchID), qstat(client, false, QStatScope.jobs(Collections.singleton(batchID))).keySet());
+        assertTrue(qstat(client, false, QStatScope.jobs(Collections.singleton("1"))).isEmpty());
+
+        clock.advance(10000);
+        assertTrue(qstat(client, false, QStatScope.user()).isEmpty());
+        assertNull(batchSystem.getState(batchID));
+
+        result = batchSystem.execute("qdel " + batchID);
+        assertEquals(1, result.getExitCode());
+        assertTrue(result.getErrorOutput().contains("does not exist"));
+    }
+
+    @Test
+    public void testGroupedQDel() throws IOException, ModuleException {
+        SimulatedBatchSystem batchSystem = new SimulatedBatchSystem(profile, clock, "xizac");
+        SshClient client = BackendSshClient.create(batchSystem, "xizac");
+
+        List<String> batchIDs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            batchIDs.add(batchSystem.execute("qsub -N job" + i + " -terse run.sh").getOutput().getText().trim());
+        }
+
+        MethodResult result = new QDelModule(batchIDs).runModule(UUID.randomUUID(), client, null).get();
+        assertEquals(0, result.getExitCode());
+        for (String batchID: batchIDs) {
+            assertNull(batchSystem.getState(batchID));
+        }
+    }
+
+    @Test
+    public void testQDelBatch() throws Exception {
+        SimulatedBatchSystem batchSystem = new SimulatedBatchSystem(profile, clock, "xizac");
+        AtomicInteger qdelCalls = new AtomicInteger();
+        SshRemoteFactory factory = new SshRemoteFactory();
+        factory.connect(command -> {
+            if (command.contains("qdel ")) {
+                qdelCalls.incrementAndGet();
+            }
+            return batchSystem.execute(command);
+        }, "xizac");
+
+        try {
+            List<DefaultJob> jobs = new ArrayList<>();
+            QDelBatch batch = QDelBatch.begin();
+            for (int i = 0; i < 1001; i++) {
+                String batchID = batchSystem.execute("qsub -N job" + i + " -terse run.sh").getOutput().getText().trim();
+                ParameterSet parameters = new ParameterSet();
+                parameters.addParameter(new StringParameter("name", "name", "general", "job" + i));
+                DefaultJob job = new DefaultJob(parameters, new HashMap<Integer, Module>());
+                job.restore(job.getID(), Collections.singletonMap("batchID", batchID), JobState.SUBMITTED);
+                job.stop();
+                jobs.add(job);
+            }
+            assertEquals(1001, batch.size());
+
+            // 500 batchIDs per qdel call
+            batch.submit().get(10, TimeUnit.SECONDS);
+            assertEquals(3, qdelCalls.get());
+            assertEquals(0, batch.size());
+            for (DefaultJob job: jobs) {
+                assertEquals(JobState.STOP, job.getState());
+                assertNull(job.getBatchID());
+            }
+            assertEquals(1001, batchSystem.getStats().getDeleted());
+        } finally {
+            factory.disconnect();
+        }
+    }
+
+    @Test
+    public void testSessionChannel() throws Exception {
+        SimulatedBatchSystem batchSystem = new SimulatedBatchSystem(profile, clock, "xizac");
+        SshClient client = BackendSshClient.create(batchSystem, "xizac").duplicate();
+
+        SshSession session = client.openSessionChannel();
+        assertTrue(session.executeCommand("qsub -N job -terse run.sh"));
+        String batchID = new BufferedReader(new InputStreamReader(session.getInputStream())).readLine();
+        assertEquals(0, session.exitCode());
+        assertEquals("qw", batchSystem.getState(batchID));
+        session.close();
+
+        client.disconnect();
+        try {
+            client.openSessionChannel();
+            fail("The client is disconnected");
+        } catch (SshException e) {
+            assertFalse(client.isConnected());
+        }
+    }
+
+    @Test
+    public void testCampaign() throws IOException {
+        profile.setSlots(20);
+        profile.setQueueWait(0, 60000);
+        profile.setRunTime(600000, 3600000);
+        profile.setErrorRate(0.01);
+        SimulatedBatchSystem batchSystem = new SimulatedBatchSystem(profile, clock, "xizac");
+        SshClient client = BackendSshClient.create(batchSystem, "xizac");
+
+        for (int i = 0; i < 200; i++) {
+            batchSystem.execute("qsub -N job" + i + " run.sh");
+        }
+
+        // 24 hours polled every minute
+        for (int i = 0; i < 1440; i++) {
+            clock.advance(60000);
+            qstat(client, i % 2 == 0, QStatScope.user());
+        }
+
+        SimulationStats stats = batchSystem.getStats();
+        assertEquals(200, stats.getSubmitted());
+        assertEquals(200, stats.getCompleted() + stats.getErrors());
+        assertEquals(stats.getErrors(), batchSystem.getJobCount());
+        assertTrue(stats.getMaxDetectionLatency() <= 60000);
+        assertTrue(stats.getAverageQueueWait() > 0);
+    }
+
+    private Map<String, QStatRecord> qstat(SshClient client, boolean xml, QStatScope scope) {
+        MethodResult result = new QStatMethod(client, "/opt/sge/bin/lx24-amd64/qstat", xml, scope).execute();
+        assertEquals(0, result.getExitCode());
+        return ((QStatMethodResult) result).getRecords();
+    }
+}